@@ -0,0 +1,239 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the Messenger operations against a local PostgreSQL
+ * database loaded with the shipped or a generated dataset (see
+ * BulkLoader and DataGenerator). Run through java/scripts/bench.sh.
+ *
+ * Throughput mode reports operations per millisecond, sample time mode
+ * reports latency percentiles (p0.50, p0.99, p0.999, ...).
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessengerBenchmark {
+
+   // shared by all benchmark threads
+   ConnectionPool pool;
+
+   // sample of existing users and their passwords
+   String[] logins;
+   String[] passwords;
+
+   // the chat with the most messages, one of its members, and the cursor
+   // of the message bench.depth rows deep into its history
+   int busyChat;
+   String busyMember;
+   Timestamp deepTs;
+   int deepId;
+
+   @Setup(Level.Trial)
+   public void setUp () throws Exception {
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      String url = "jdbc:postgresql://localhost:" + System.getProperty("bench.port", "5432")
+                   + "/" + System.getProperty("bench.db");
+      pool = new ConnectionPool(url, System.getProperty("bench.user"), "",
+                                1, Integer.getInteger("bench.poolSize", 16), 60000L, 30000L);
+      Messenger esql = new Messenger(pool);
+
+      List<List<String>> users = esql.executeQueryAndReturnResult(
+         "SELECT login, password FROM USR ORDER BY login LIMIT ?", Integer.getInteger("bench.users", 1000));
+      if (users.size() < 2)
+         throw new IllegalStateException("The benchmark needs a loaded dataset");
+      logins = new String[users.size()];
+      passwords = new String[users.size()];
+      for (int i = 0; i < users.size(); ++i){
+         logins[i] = users.get(i).get(0).trim();
+         passwords[i] = users.get(i).get(1).trim();
+      }//end for
+
+      Integer chat = Integer.getInteger("bench.chat");
+      if (chat == null){
+         List<List<String>> busiest = esql.executeQueryAndReturnResult(
+            "SELECT chat_id FROM MESSAGE GROUP BY chat_id ORDER BY COUNT(*) DESC LIMIT 1");
+         chat = busiest.isEmpty() ? 0 : Integer.parseInt(busiest.get(0).get(0));
+      }//end if
+      busyChat = chat;
+      busyMember = esql.executeQueryAndReturnResult(
+         "SELECT u.login FROM CHAT_LIST l, USR u WHERE l.chat_id = ? AND u.user_id = l.member_id LIMIT 1", busyChat).get(0).get(0).trim();
+
+      int depth = Integer.getInteger("bench.depth", 1000);
+      List<List<String>> deep = esql.executeQueryAndReturnResult(
+         "SELECT msg_timestamp, msg_id FROM MESSAGE WHERE chat_id = ? ORDER BY msg_timestamp DESC, msg_id DESC OFFSET ? LIMIT 1",
+         busyChat, depth);
+      // a null cursor would measure the first page under the deep page's name
+      if (deep.isEmpty())
+         throw new IllegalStateException("Chat " + busyChat + " has no message " + depth
+                                         + " deep; lower bench.depth or pick a longer bench.chat");
+      deepTs = Timestamp.valueOf(deep.get(0).get(0));
+      deepId = Integer.parseInt(deep.get(0).get(1));
+   }//end setUp
+
+   @TearDown(Level.Trial)
+   public void tearDown (){
+      pool.close();
+   }
+
+   /**
+    * One Messenger session per benchmark thread.
+    */
+   @State(Scope.Thread)
+   public static class Session {
+      Messenger esql;
+      Random rnd = new Random();
+      MessengerBenchmark b;
+
+      @Setup(Level.Trial)
+      public void open (MessengerBenchmark b){
+         this.b = b;
+         this.esql = new Messenger(b.pool);
+      }
+
+      int randomUser (){
+         return rnd.nextInt(b.logins.length);
+      }
+
+      /**
+       * A random pair of distinct users.
+       */
+      String[] randomPair (){
+         int u = randomUser();
+         int v = (u + 1 + rnd.nextInt(b.logins.length - 1)) % b.logins.length;
+         return new String[] { b.logins[u], b.logins[v] };
+      }
+   }//end Session
+
+   /**
+    * A random pair of users; whatever the benchmark added is removed again
+    * after each invocation so the lists do not grow.
+    */
+   @State(Scope.Thread)
+   public static class Pair {
+      String[] pair;
+
+      @Setup(Level.Invocation)
+      public void pick (Session s){
+         pair = s.randomPair();
+      }
+
+      @TearDown(Level.Invocation)
+      public void undo (Session s) throws SQLException {
+         Messenger.DeleteContact(s.esql, pair[0], pair[1]);
+         Messenger.DeleteBlocked(s.esql, pair[0], pair[1]);
+      }
+   }//end Pair
+
+   /**
+    * Members of the chats created by createChat; the chat is deleted again
+    * after each invocation.
+    */
+   @State(Scope.Thread)
+   public static class NewChat {
+      @Param({"2", "10", "100", "1000"})
+      public int members;
+
+      String owner;
+      List<String> memberLogins;
+      int chatId = -1;
+
+      @Setup(Level.Invocation)
+      public void pick (Session s){
+         int u = s.randomUser();
+         owner = s.b.logins[u];
+         memberLogins = new ArrayList<String>();
+         for (int k = 1; k <= members; ++k)
+            memberLogins.add(s.b.logins[(u + k) % s.b.logins.length]);
+      }
+
+      @TearDown(Level.Invocation)
+      public void undo (Session s) throws SQLException {
+         if (chatId >= 0)
+            Messenger.DeleteChat(s.esql, owner, chatId);
+         chatId = -1;
+      }
+   }//end NewChat
+
+   /**
+    * A freshly created two-member chat for deleteChat to delete.
+    */
+   @State(Scope.Thread)
+   public static class ChatToDelete {
+      String owner;
+      int chatId;
+
+      @Setup(Level.Invocation)
+      public void create (Session s) throws SQLException {
+         String[] pair = s.randomPair();
+         owner = pair[0];
+         List<String> members = new ArrayList<String>();
+         members.add(pair[1]);
+         chatId = Messenger.CreateChat(s.esql, owner, members);
+      }
+   }//end ChatToDelete
+
+   @Benchmark
+   public String logIn (Session s) throws SQLException {
+      int u = s.randomUser();
+      return Messenger.LogIn(s.esql, logins[u], passwords[u]);
+   }
+
+   @Benchmark
+   public Messenger.Status addToContact (Session s, Pair p) throws SQLException {
+      return Messenger.AddToContact(s.esql, p.pair[0], p.pair[1]);
+   }
+
+   @Benchmark
+   public Messenger.Status addToBlocked (Session s, Pair p) throws SQLException {
+      return Messenger.AddToBlocked(s.esql, p.pair[0], p.pair[1]);
+   }
+
+   @Benchmark
+   public Messenger.Status newMessage (Session s) throws SQLException {
+      return Messenger.NewMessage(s.esql, busyMember, busyChat, "benchmark message");
+   }
+
+   @Benchmark
+   public List<Messenger.Message> browseMessagesFirstPage (Session s) throws SQLException {
+      return Messenger.BrowseMessages(s.esql, busyMember, busyChat, null, 0, Messenger.PAGE_SIZE + 1);
+   }
+
+   @Benchmark
+   public List<Messenger.Message> browseMessagesDeepPage (Session s) throws SQLException {
+      return Messenger.BrowseMessages(s.esql, busyMember, busyChat, deepTs, deepId, Messenger.PAGE_SIZE + 1);
+   }
+
+   @Benchmark
+   public int createChat (Session s, NewChat c) throws SQLException {
+      c.chatId = Messenger.CreateChat(s.esql, c.owner, c.memberLogins);
+      return c.chatId;
+   }
+
+   @Benchmark
+   public Messenger.Status deleteChat (Session s, ChatToDelete c) throws SQLException {
+      return Messenger.DeleteChat(s.esql, c.owner, c.chatId);
+   }
+
+}//end MessengerBenchmark
@@ -0,0 +1,14 @@
+#!/bin/bash
+# Moves the messages older than ARCHIVE_DAYS (default 365) out of MESSAGE
+# into the segment files under ARCHIVE_DIR (see MessageArchiver.java).
+# Meant to run daily from cron; start the application with
+# JAVA_OPTS="-Dmessenger.archiveDir=$ARCHIVE_DIR" so that BrowseMessages
+# reads them.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+ARCHIVE_DIR=${ARCHIVE_DIR:-$DIR/../../archive}
+
+# compile the java program
+javac -cp $DIR/../lib/postgresql-42.2.27.jre7.jar -d $DIR/../src/ $DIR/../src/*.java
+
+#Use your database name, port number and login
+java $JAVA_OPTS -cp $DIR/../src:$DIR/../lib/postgresql-42.2.27.jre7.jar MessageArchiver $DB_NAME $PGPORT $USER $ARCHIVE_DIR ${ARCHIVE_DAYS:-365}
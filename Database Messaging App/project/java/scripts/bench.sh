@@ -0,0 +1,72 @@
+#!/bin/bash
+# Runs the JMH benchmarks in java/bench against the database loaded by
+# sql/scripts/create_db.sh (or BulkLoader with a DataGenerator dataset).
+#
+# JMH is not shipped with the project: set JMH_CLASSPATH to jmh-core,
+# jmh-generator-annprocess and their dependencies (jopt-simple,
+# commons-math3), e.g. JMH_CLASSPATH=$(echo ~/jmh/*.jar | tr ' ' ':')
+#
+#   bench.sh [jmh options]        run and compare with bench/baseline.csv
+#   bench.sh --baseline [opts]    run and save the results as the new baseline
+#
+# Results differing from the baseline by more than BENCH_THRESHOLD percent
+# (default 10) are reported; commit baseline.csv so changes show up in diffs.
+# Without a baseline the comparison fails before running: the baseline has
+# to come from a deliberate --baseline run on the reference commit and
+# machine, never from whatever the current tree measures.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+BENCH=$DIR/../bench
+OUT=$BENCH/target
+
+UPDATE_BASELINE=0
+if [ "$1" == "--baseline" ]; then
+   UPDATE_BASELINE=1
+   shift
+fi
+
+if [ -z "$JMH_CLASSPATH" ]; then
+   echo "Set JMH_CLASSPATH to the JMH jars first"
+   exit 1
+fi
+if [ $UPDATE_BASELINE -eq 0 ] && [ ! -f $BENCH/baseline.csv ]; then
+   echo "No $BENCH/baseline.csv to compare with: run bench.sh --baseline on the reference commit and commit it" >&2
+   exit 1
+fi
+CP=$DIR/../lib/postgresql-42.2.27.jre7.jar:$JMH_CLASSPATH
+
+# compile the program and the benchmarks (JMH's annotation processor
+# generates the benchmark harness)
+rm -rf $OUT && mkdir -p $OUT/classes
+javac -cp "$CP" -d $OUT/classes $DIR/../src/*.java $BENCH/*.java || exit 1
+
+java $JAVA_OPTS -cp "$OUT/classes:$CP" \
+   -Dbench.db=$DB_NAME -Dbench.port=$PGPORT -Dbench.user=$USER \
+   org.openjdk.jmh.Main MessengerBenchmark -rf csv -rff $OUT/results.csv "$@" || exit 1
+
+if [ $UPDATE_BASELINE -eq 1 ]; then
+   cp $OUT/results.csv $BENCH/baseline.csv
+   echo "Saved $BENCH/baseline.csv"
+   exit 0
+fi
+
+# compare score by benchmark, mode and parameters; throughput should not
+# drop, times should not grow
+awk -F, -v threshold=${BENCH_THRESHOLD:-10} '
+   { gsub(/"/, "") }
+   FNR == 1 { next }
+   { key = $1 " " $2; for (i = 8; i <= NF; i++) key = key " " $i }
+   NR == FNR { base[key] = $5; next }
+   !(key in base) || base[key] <= 0 { printf "%-70s not in the baseline\n", key; next }
+   {
+      compared++
+      change = ($5 - base[key]) * 100 / base[key]
+      worse = ($2 == "thrpt") ? -change : change
+      flag = (worse > threshold) ? "REGRESSION" : ""
+      printf "%-70s %12.3f -> %12.3f %-8s (%+.1f%%) %s\n", key, base[key], $5, $7, change, flag
+      if (flag != "") regressions++
+   }
+   END {
+      if (compared == 0) { print "No result matches the baseline; run bench.sh --baseline again"; exit 1 }
+      if (regressions > 0) { print regressions " regression(s)"; exit 1 }
+   }
+' $BENCH/baseline.csv $OUT/results.csv
@@ -0,0 +1,8 @@
+#!/bin/bash
+# Runs the Messenger menu as a client of a MessengerServer (see server.sh).
+#
+#   client.sh [host] [port]
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+#run the java program, compiled by compile.sh or server.sh
+java -cp $DIR/../src MessengerClient ${1:-localhost} ${2:-5455}
@@ -5,9 +5,13 @@ export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
 export PATH=$JAVA_HOME/bin:$PATH
 
 # compile the java program
-javac -d $DIR/../src/ $DIR/../src/Messenger.java
+javac -cp $DIR/../lib/postgresql-42.2.27.jre7.jar -d $DIR/../src/ $DIR/../src/*.java
 
 #run the java program
 #Use your database name, port number and login
-java -cp $DIR/../src:$DIR/../lib/pg73jdbc3.jar Messenger $DB_NAME $PGPORT $USER
+#Pool size can be tuned with e.g. JAVA_OPTS="-Dmessenger.pool.min=2 -Dmessenger.pool.max=20"
+#Archived messages (see archive.sh) are read with JAVA_OPTS="-Dmessenger.archiveDir=<dir>"
+#Read-only queries go to a standby (see Replica.java) with JAVA_OPTS="-Dmessenger.replica.url=<jdbc url>"
+#Latency and round trips per action (see Metrics.java) with JAVA_OPTS="-Dmessenger.metrics=true"
+java $JAVA_OPTS -cp $DIR/../src:$DIR/../lib/postgresql-42.2.27.jre7.jar Messenger $DB_NAME $PGPORT $USER
 
@@ -0,0 +1,22 @@
+#!/bin/bash
+# Runs the LoadDriver against the database loaded by sql/scripts/create_db.sh
+# (or BulkLoader with a DataGenerator dataset).
+#
+#   load.sh [sessions] [seconds]
+#
+# The action mix, think time and user skew are set with JAVA_OPTS, e.g.
+#   JAVA_OPTS="-Dload.thinkMillis=500 -Dload.skew=1.2 -Dload.threads=128
+#              -Dload.mix=browseChats=20,browseMessages=50,newMessage=25,addContact=5"
+# NewMessage commits in shared batches with -Dmessenger.writer.enabled=true
+# (see MessageWriter.java for the messenger.writer.* settings)
+# Read-only actions go to a standby (see sql/scripts/create_replica.sh) with
+#   -Dmessenger.replica.url=jdbc:postgresql://localhost:<port>/<dbname>
+# Round trips, rows and bytes per action go to JMX and messenger-metrics.log
+# with -Dmessenger.metrics=true (see Metrics.java)
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -cp $DIR/../lib/postgresql-42.2.27.jre7.jar -d $DIR/../src/ $DIR/../src/*.java
+
+#Use your database name, port number and login
+java $JAVA_OPTS -cp $DIR/../src:$DIR/../lib/postgresql-42.2.27.jre7.jar LoadDriver $DB_NAME $PGPORT $USER "$@"
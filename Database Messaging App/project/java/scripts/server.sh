@@ -0,0 +1,17 @@
+#!/bin/bash
+# Runs MessengerServer, which serves the Messenger operations to
+# MessengerClient (client.sh) over a local TCP port.
+#
+#   server.sh [listen port]
+#
+# Workers, pool size and the live message feed are set with JAVA_OPTS, e.g.
+#   JAVA_OPTS="-Dmessenger.server.workers=64 -Dmessenger.pool.max=64
+#              -Dmessenger.feed.pollMillis=500"
+# and per-command metrics (see Metrics.java) with -Dmessenger.metrics=true
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -cp $DIR/../lib/postgresql-42.2.27.jre7.jar -d $DIR/../src/ $DIR/../src/*.java
+
+#Use your database name, port number and login
+java $JAVA_OPTS -cp $DIR/../src:$DIR/../lib/postgresql-42.2.27.jre7.jar MessengerServer $DB_NAME $PGPORT $USER ${1:-5455}
@@ -0,0 +1,21 @@
+#!/bin/bash
+# Runs the tests in java/test against the database created by
+# sql/scripts/create_db.sh, then checks every unread counter in it with
+# sql/src/check_unread.sql. The tests add a few users and chats and
+# delete them again. Fails if any test or check does.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+TEST="$DIR/../test"
+OUT="$TEST/target"
+CP="$DIR/../lib/postgresql-42.2.27.jre7.jar"
+
+# compile the program and the tests
+rm -rf "$OUT" && mkdir -p "$OUT/classes"
+javac -cp "$CP" -d "$OUT/classes" "$DIR"/../src/*.java "$TEST"/*.java || exit 1
+
+FAILED=0
+for T in ProtocolTest UnreadTest; do
+   java $JAVA_OPTS -cp "$OUT/classes:$CP" $T $DB_NAME $PGPORT $USER || FAILED=1
+done
+
+psql -X -q -v ON_ERROR_STOP=1 -p $PGPORT $DB_NAME -f "$DIR/../../sql/src/check_unread.sql" || FAILED=1
+exit $FAILED
@@ -0,0 +1,382 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.postgresql.PGConnection;
+
+/**
+ * This class loads the semicolon-delimited files of the data/ directory
+ * into freshly created tables (see sql/src/create_tables.sql). Every file
+ * is streamed in chunks that a pool of worker threads sends with COPY, one
+ * round trip and transaction per chunk; tables that do not depend on each
+ * other are loaded in parallel, and the serial sequences are set from the
+ * loaded maximum IDs.
+ *
+ * The files name users by login; the loader numbers the users in file
+ * order and stores every login reference as that user_id.
+ *
+ */
+public class BulkLoader {
+
+   // column types understood by the loader
+   static final int INT = 0;
+   static final int TEXT = 1;
+   static final int TIMESTAMP = 2;
+   static final int USER = 3;        // a login, stored as its user_id
+
+   /**
+    * Describes one table and the file it is loaded from.
+    */
+   static class Table {
+      final String name;
+      final String file;
+      final String[] columns;
+      final int[] types;
+      final String sequence;        // serial sequence to reset, or null
+      final String sequenceColumn;
+      final Table[] dependsOn;      // tables referenced by foreign keys
+      final CountDownLatch done = new CountDownLatch(1);
+      boolean numbered = false;     // rows get a leading ID, see load()
+
+      Table(String name, String file, String[] columns, int[] types,
+            String sequence, String sequenceColumn, Table... dependsOn){
+         this.name = name;
+         this.file = file;
+         this.columns = columns;
+         this.types = types;
+         this.sequence = sequence;
+         this.sequenceColumn = sequenceColumn;
+         this.dependsOn = dependsOn;
+      }
+
+      String copySql(){
+         StringBuilder sql = new StringBuilder("COPY ").append(name).append(" (");
+         for (int i = 0; i < columns.length; ++i){
+            if (i > 0)
+               sql.append(", ");
+            sql.append(columns[i]);
+         }//end for
+         return sql.append(") FROM STDIN").toString();
+      }
+   }//end Table
+
+   /**
+    * The tables of create_tables.sql in foreign key order.
+    *
+    * USER_LIST -> USR -> USER_LIST_CONTAINS
+    *                  -> CHAT -> CHAT_LIST -> MESSAGE
+    */
+   static List<Table> tables(){
+      Table userList = new Table("USER_LIST", "usr_list.csv",
+         new String[] {"list_id", "list_type"},
+         new int[] {INT, TEXT},
+         "user_list_list_id_seq", "list_id");
+      Table usr = new Table("USR", "usr.csv",
+         new String[] {"user_id", "login", "phoneNum", "password", "status", "block_list", "contact_list"},
+         new int[] {INT, TEXT, TEXT, TEXT, TEXT, INT, INT},
+         "usr_user_id_seq", "user_id", userList);
+      usr.numbered = true;
+      Table userListContains = new Table("USER_LIST_CONTAINS", "usr_list_contains.csv",
+         new String[] {"list_id", "member_id"},
+         new int[] {INT, USER},
+         null, null, userList, usr);
+      Table chat = new Table("CHAT", "chat.csv",
+         new String[] {"chat_id", "chat_type", "init_sender_id"},
+         new int[] {INT, TEXT, USER},
+         "chat_chat_id_seq", "chat_id", usr);
+      Table chatList = new Table("CHAT_LIST", "chat_list.csv",
+         new String[] {"chat_id", "member_id"},
+         new int[] {INT, USER},
+         null, null, chat, usr);
+      Table message = new Table("MESSAGE", "message.csv",
+         new String[] {"msg_id", "msg_text", "msg_timestamp", "sender_id", "chat_id"},
+         new int[] {INT, TEXT, TIMESTAMP, USER, INT},
+         "message_msg_id_seq", "msg_id", chat, usr);
+
+      List<Table> result = new ArrayList<Table>();
+      result.add(userList);
+      result.add(usr);
+      result.add(userListContains);
+      result.add(chat);
+      result.add(chatList);
+      result.add(message);
+      return result;
+   }//end tables
+
+   private final ConnectionPool pool;
+   private final File dataDir;
+   private final int batchSize;
+   private final ThreadPoolExecutor workers;
+
+   // user_id of every login loaded into USR, filled before any table
+   // referencing USR is read
+   private final Map<String, Integer> users = new ConcurrentHashMap<String, Integer>();
+
+   // set as soon as any chunk fails, so that the remaining work is skipped
+   private final AtomicBoolean failed = new AtomicBoolean(false);
+
+   /**
+    * Creates a loader.
+    *
+    * @param pool connections used by the worker threads
+    * @param dataDir directory holding the .csv files
+    * @param threads number of worker threads copying chunks
+    * @param batchSize number of rows copied per chunk and transaction
+    */
+   public BulkLoader (ConnectionPool pool, File dataDir, int threads, int batchSize){
+      this.pool = pool;
+      this.dataDir = dataDir;
+      this.batchSize = batchSize;
+      // a short queue keeps the readers from getting far ahead of the
+      // inserts, so memory stays bounded however large the files are
+      this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                            new ArrayBlockingQueue<Runnable>(threads * 2),
+                                            new ThreadPoolExecutor.CallerRunsPolicy());
+   }//end BulkLoader
+
+   /**
+    * Loads every table, waiting for the tables it references first, then
+    * resets the sequences.
+    *
+    * @return true if every table was loaded without error
+    */
+   public boolean loadAll () throws InterruptedException, SQLException {
+      final List<Table> tables = tables();
+      List<Thread> readers = new ArrayList<Thread>();
+      for (final Table t : tables){
+         Thread reader = new Thread(new Runnable(){
+            public void run(){
+               try{
+                  for (Table dep : t.dependsOn)
+                     dep.done.await();
+                  if (!failed.get())
+                     load(t);
+               }catch (Exception e){
+                  failed.set(true);
+                  System.err.println("Error loading " + t.name + ": " + e.getMessage());
+               }finally{
+                  t.done.countDown();
+               }//end try
+            }
+         }, "loader-" + t.name);
+         reader.start();
+         readers.add(reader);
+      }//end for
+      for (Thread reader : readers)
+         reader.join();
+      workers.shutdown();
+
+      if (failed.get())
+         return false;
+      for (Table t : tables)
+         if (t.sequence != null)
+            resetSequence(t);
+      return true;
+   }//end loadAll
+
+   /**
+    * Streams one file into its table.
+    */
+   private void load (Table t) throws IOException, InterruptedException, SQLException {
+      File f = new File(dataDir, t.file);
+      if (!f.exists()){
+         System.out.println("Skipping " + t.name + ": " + f.getPath() + " not found");
+         return;
+      }//end if
+
+      long start = System.nanoTime();
+      String sql = t.copySql();
+      List<Future<Integer>> chunks = new ArrayList<Future<Integer>>();
+      BufferedReader reader = new BufferedReader(
+                                 new InputStreamReader(new FileInputStream(f), "UTF-8"), 1 << 16);
+      try{
+         List<String> lines = new ArrayList<String>(batchSize);
+         String line;
+         int rowId = 0;
+         while ((line = reader.readLine()) != null && !failed.get()){
+            if (line.isEmpty())
+               continue;
+            if (t.numbered){
+               // the first field is the login
+               int end = line.indexOf(';');
+               users.put((end < 0 ? line : line.substring(0, end)).trim(), ++rowId);
+               line = rowId + ";" + line;
+            }//end if
+            lines.add(line);
+            if (lines.size() == batchSize){
+               chunks.add(workers.submit(new Chunk(t, sql, lines)));
+               lines = new ArrayList<String>(batchSize);
+            }//end if
+         }//end while
+         if (!lines.isEmpty())
+            chunks.add(workers.submit(new Chunk(t, sql, lines)));
+      }finally{
+         reader.close();
+      }//end try
+
+      long rows = 0;
+      for (Future<Integer> chunk : chunks){
+         try{
+            rows += chunk.get();
+         }catch (ExecutionException e){
+            throw new SQLException(e.getCause().getMessage());
+         }//end try
+      }//end for
+      double secs = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("Loaded %d rows into %s in %.2f s (%.0f rows/s)",
+                                       rows, t.name, secs, rows / Math.max(secs, 1e-9)));
+   }//end load
+
+   /**
+    * Copies one chunk of lines in a single COPY, which is its transaction.
+    */
+   private class Chunk implements Callable<Integer> {
+      final Table t;
+      final String sql;
+      final List<String> lines;
+
+      Chunk(Table t, String sql, List<String> lines){
+         this.t = t;
+         this.sql = sql;
+         this.lines = lines;
+      }
+
+      public Integer call() throws Exception {
+         if (failed.get())
+            return 0;
+         StringBuilder rows = new StringBuilder(lines.size() * 64);
+         for (String line : lines)
+            copyRow(rows, t, line, users);
+         Connection conn = pool.borrow();
+         try{
+            return (int) conn.unwrap(PGConnection.class).getCopyAPI().copyIn(sql, new StringReader(rows.toString()));
+         }catch (Exception e){
+            failed.set(true);
+            throw e;
+         }finally{
+            pool.release(conn);
+         }//end try
+      }
+   }//end Chunk
+
+   /**
+    * Appends one line as a row of COPY's text format: tab separated, with
+    * backslash, tab, newline and carriage return escaped. \N is kept as
+    * NULL, logins are replaced by their user_id, and numbers and
+    * timestamps are left for the server to parse.
+    *
+    * @param users the user_id of every loaded login, for USER columns
+    */
+   static void copyRow (StringBuilder out, Table t, String line, Map<String, Integer> users) throws SQLException {
+      String[] fields = line.split(";", -1);
+      if (fields.length != t.columns.length)
+         throw new SQLException("Expected " + t.columns.length + " fields in " + t.file + ": " + line);
+      for (int i = 0; i < fields.length; ++i){
+         if (i > 0)
+            out.append('\t');
+         String v = fields[i];
+         int type = t.types[i];
+         if (v.equals("\\N")){
+            out.append(v);
+         }else if (type == USER){
+            Integer id = users.get(v.trim());
+            if (id == null)
+               throw new SQLException("Unknown user " + v.trim() + " in " + t.file);
+            out.append(id.intValue());
+         }else if (type == INT || type == TIMESTAMP){
+            out.append(v.trim());
+         }else{
+            for (int k = 0; k < v.length(); ++k){
+               char c = v.charAt(k);
+               switch (c){
+                  case '\\': out.append("\\\\"); break;
+                  case '\t': out.append("\\t"); break;
+                  case '\n': out.append("\\n"); break;
+                  case '\r': out.append("\\r"); break;
+                  default: out.append(c);
+               }//end switch
+            }//end for
+         }//end if
+      }//end for
+      out.append('\n');
+   }//end copyRow
+
+   /**
+    * Moves a serial sequence past the largest loaded ID.
+    */
+   private void resetSequence (Table t) throws SQLException {
+      Connection conn = pool.borrow();
+      try{
+         PreparedStatement stmt = pool.statementCache(conn).prepare(String.format(
+            "SELECT setval('%s', COALESCE((SELECT MAX(%s) FROM %s), 0) + 1, false)",
+            t.sequence, t.sequenceColumn, t.name));
+         ResultSet rs = stmt.executeQuery();
+         if (rs.next())
+            System.out.println("Sequence " + t.sequence + " restarts at " + rs.getLong(1));
+         rs.close();
+      }finally{
+         pool.release(conn);
+      }//end try
+   }//end resetSequence
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> [data dir] [threads] [batch size]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3 || args.length > 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> [data dir] [threads] [batch size]");
+         return;
+      }//end if
+
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      File dataDir = new File(args.length > 3 ? args[3] : "data");
+      int threads = args.length > 4 ? Integer.parseInt(args[4])
+                                    : Runtime.getRuntime().availableProcessors();
+      int batchSize = args.length > 5 ? Integer.parseInt(args[5]) : 5000;
+
+      ConnectionPool pool = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         pool = new ConnectionPool(url, args[2], "", 1, threads + tables().size(), 60000L, 600000L);
+
+         long start = System.nanoTime();
+         boolean ok = new BulkLoader(pool, dataDir, threads, batchSize).loadAll();
+         System.out.println(String.format("%s in %.2f s", ok ? "Done" : "Failed",
+                                          (System.nanoTime() - start) / 1e9));
+         if (!ok)
+            System.exit(1);
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }finally{
+         if (pool != null)
+            pool.close();
+      }//end try
+   }//end main
+
+}//end BulkLoader
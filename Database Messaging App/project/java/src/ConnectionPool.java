@@ -0,0 +1,463 @@
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class keeps a bounded set of physical connections to the database so
+ * that several Messenger sessions can run at the same time without sharing
+ * one socket. Connections are borrowed for the duration of a statement (or a
+ * pinned unit of work) and handed back afterwards.
+ *
+ */
+public class ConnectionPool {
+
+   // connection parameters used whenever a new physical connection is opened
+   private final String url;
+   private final String user;
+   private final String passwd;
+
+   // pool sizing and timing configuration
+   private final int minSize;
+   private final int maxSize;
+   private final long idleTimeoutMillis;
+   private final long borrowTimeoutMillis;
+   private final long validationIntervalMillis;
+   private final int statementCacheSize;
+
+   // idle connections, most recently returned first
+   private final LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>();
+
+   // number of open physical connections (idle + borrowed)
+   private int total = 0;
+   private int borrowed = 0;
+   private int waiting = 0;
+   private boolean closed = false;
+
+   // borrow-wait statistics, in nanoseconds
+   private long borrowCount = 0;
+   private long totalWaitNanos = 0;
+   private long maxWaitNanos = 0;
+   private long lastWaitNanos = 0;
+
+   // prepared statement cache of every open connection, and their counters
+   private final IdentityHashMap<Connection, StatementCache> caches =
+      new IdentityHashMap<Connection, StatementCache>();
+   private final StatementCache.Stats cacheStats = new StatementCache.Stats();
+
+   // background thread that closes connections idle for too long
+   private final Timer evictor;
+
+   // standby that read-only queries may go to, see Messenger.reader()
+   private volatile Replica replica = null;
+
+   /**
+    * An idle connection together with the time it was handed back, and
+    * whether it must be validated before its next use however recently
+    * that was.
+    */
+   private static class IdleConnection {
+      final Connection connection;
+      final long returnedAt;
+      boolean suspect;
+
+      IdleConnection(Connection connection, long returnedAt, boolean suspect){
+         this.connection = connection;
+         this.returnedAt = returnedAt;
+         this.suspect = suspect;
+      }
+   }//end IdleConnection
+
+   /**
+    * Creates a new pool and opens the minimum number of connections.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize number of connections kept open even when idle
+    * @param maxSize upper bound on open connections
+    * @param idleTimeoutMillis idle time after which connections above minSize are closed
+    * @param borrowTimeoutMillis how long a borrower waits for a free connection
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public ConnectionPool (String url, String user, String passwd,
+                          int minSize, int maxSize,
+                          long idleTimeoutMillis, long borrowTimeoutMillis) throws SQLException {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+         throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      this.minSize = minSize;
+      this.maxSize = maxSize;
+      this.idleTimeoutMillis = idleTimeoutMillis;
+      this.borrowTimeoutMillis = borrowTimeoutMillis;
+      this.validationIntervalMillis = Long.getLong("messenger.pool.validationInterval", 1000L);
+      this.statementCacheSize = Integer.getInteger("messenger.statementCache.size", 64);
+      Metrics.statementCache(url, this.cacheStats);
+
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < minSize; ++i){
+         idle.add(new IdleConnection(open(), now, false));
+         total++;
+      }//end for
+
+      this.evictor = new Timer("connection-pool-evictor", true);
+      long period = Math.max(1000L, idleTimeoutMillis / 2);
+      this.evictor.schedule(new TimerTask(){
+         public void run(){
+            evictIdle();
+         }
+      }, period, period);
+   }//end ConnectionPool
+
+   /**
+    * Creates a pool configured from the messenger.pool.* system properties,
+    * with the standby of the messenger.replica.* properties if they name one.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public static ConnectionPool fromSystemProperties (String url, String user, String passwd) throws SQLException {
+      ConnectionPool pool = new ConnectionPool(url, user, passwd,
+                                               Integer.getInteger("messenger.pool.min", 1),
+                                               Integer.getInteger("messenger.pool.max", 10),
+                                               Long.getLong("messenger.pool.idleTimeout", 60000L),
+                                               Long.getLong("messenger.pool.borrowTimeout", 30000L));
+      try{
+         pool.setReplica(Replica.fromSystemProperties(pool, user, passwd));
+      }catch (SQLException e){
+         pool.close();
+         throw e;
+      }//end try
+      return pool;
+   }//end fromSystemProperties
+
+   /**
+    * Attaches a standby of this pool's database, closed with the pool.
+    *
+    * @param replica the standby, or null to read from this pool only
+    */
+   public void setReplica (Replica replica){
+      this.replica = replica;
+   }
+
+   /**
+    * @return the standby read-only queries may go to, or null
+    */
+   public Replica getReplica (){
+      return this.replica;
+   }
+
+   /**
+    * Takes a connection out of the pool, opening a new one if the pool has
+    * not reached its maximum size, or waiting for one to be returned.
+    *
+    * @return a validated connection that must be handed back with release()
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public Connection borrow () throws SQLException {
+      long start = System.nanoTime();
+      long deadline = start + borrowTimeoutMillis * 1000000L;
+      while (true){
+         IdleConnection candidate = null;
+         boolean openNew = false;
+         synchronized (this){
+            while (!closed && idle.isEmpty() && total >= maxSize){
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0)
+                  throw new SQLException("Timed out after " + borrowTimeoutMillis
+                                         + " ms waiting for a database connection");
+               waiting++;
+               try{
+                  this.wait(remaining / 1000000L + 1);
+               }catch (InterruptedException e){
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }finally{
+                  waiting--;
+               }//end try
+            }//end while
+            if (closed)
+               throw new SQLException("Connection pool is closed");
+            if (!idle.isEmpty()){
+               candidate = idle.removeFirst();
+            }else{
+               openNew = true;
+               total++;
+            }//end if
+            borrowed++;
+         }//end synchronized
+
+         Connection conn = null;
+         if (openNew){
+            try{
+               conn = open();
+            }catch (SQLException e){
+               synchronized (this){
+                  total--;
+                  borrowed--;
+                  this.notifyAll();
+               }
+               throw e;
+            }//end try
+         }else if (isValid(candidate)){
+            conn = candidate.connection;
+         }else{
+            // stale connection, drop it and try again
+            discard(candidate.connection);
+            synchronized (this){
+               total--;
+               borrowed--;
+               this.notifyAll();
+            }
+            continue;
+         }//end if
+
+         recordWait(System.nanoTime() - start);
+         return conn;
+      }//end while
+   }//end borrow
+
+   /**
+    * Hands a borrowed connection back to the pool.
+    *
+    * @param conn the connection obtained from borrow()
+    */
+   public void release (Connection conn){
+      release(conn, null);
+   }//end release
+
+   /**
+    * Hands a borrowed connection back to the pool after its last statement
+    * failed. When the failure lost the server (SQLState class 08, a backend
+    * terminated by an operator, or a connection the driver has closed) it is
+    * dropped, and every idle connection is validated before its next use,
+    * since they are likely to have lost it too; after any other error only
+    * this one is.
+    *
+    * @param conn the connection obtained from borrow()
+    * @param error what the last statement failed with, or null
+    */
+   public void release (Connection conn, SQLException error){
+      if (conn == null)
+         return;
+      boolean lost = error != null && isConnectionError(error);
+      boolean broken;
+      try{
+         lost = lost || (error != null && conn.isClosed());
+         // never hand a connection in the middle of a transaction to someone else
+         if (!lost && !conn.getAutoCommit()){
+            conn.rollback();
+            conn.setAutoCommit(true);
+         }
+         broken = lost || conn.isClosed();
+      }catch (SQLException e){
+         broken = true;
+      }//end try
+
+      boolean drop;
+      synchronized (this){
+         borrowed--;
+         drop = broken || closed;
+         if (lost)
+            for (IdleConnection c : idle)
+               c.suspect = true;
+         if (drop){
+            total--;
+         }else{
+            idle.addFirst(new IdleConnection(conn, System.currentTimeMillis(), error != null));
+         }
+         this.notifyAll();
+      }//end synchronized
+      if (drop)
+         discard(conn);
+   }//end release
+
+   /**
+    * Closes every idle connection and refuses further borrows. Connections
+    * that are still borrowed are closed when they are released.
+    */
+   public void close (){
+      LinkedList<IdleConnection> toClose;
+      synchronized (this){
+         closed = true;
+         toClose = new LinkedList<IdleConnection>(idle);
+         total -= idle.size();
+         idle.clear();
+         this.notifyAll();
+      }//end synchronized
+      evictor.cancel();
+      for (IdleConnection c : toClose)
+         discard(c.connection);
+      if (replica != null)
+         replica.close();
+   }//end close
+
+   /**
+    * Returns the prepared statement cache of a borrowed connection.
+    *
+    * @param conn a connection obtained from borrow()
+    * @return the cache, created on first use
+    */
+   public synchronized StatementCache statementCache (Connection conn){
+      StatementCache cache = caches.get(conn);
+      if (cache == null){
+         cache = new StatementCache(conn, statementCacheSize, cacheStats);
+         caches.put(conn, cache);
+      }//end if
+      return cache;
+   }//end statementCache
+
+   /**
+    * @return hit/miss counters of the prepared statement caches
+    */
+   public StatementCache.Stats getStatementCacheStats (){
+      return cacheStats;
+   }
+
+   public synchronized boolean isClosed (){
+      return closed;
+   }
+
+   /**
+    * @return the fraction of the maximum pool size currently borrowed (0.0 - 1.0)
+    */
+   public synchronized double getSaturation (){
+      return (double) borrowed / maxSize;
+   }
+
+   /**
+    * @return the number of threads currently blocked waiting for a connection
+    */
+   public synchronized int getWaitingCount (){
+      return waiting;
+   }
+
+   public synchronized int getBorrowedCount (){
+      return borrowed;
+   }
+
+   public synchronized int getOpenCount (){
+      return total;
+   }
+
+   public int getMaxSize (){
+      return maxSize;
+   }
+
+   /**
+    * @return the time the most recent borrow spent waiting, in milliseconds
+    */
+   public synchronized double getLastBorrowWaitMillis (){
+      return lastWaitNanos / 1e6;
+   }
+
+   /**
+    * @return the mean time a borrow spent waiting, in milliseconds
+    */
+   public synchronized double getAverageBorrowWaitMillis (){
+      return borrowCount == 0 ? 0.0 : (totalWaitNanos / (double) borrowCount) / 1e6;
+   }
+
+   /**
+    * @return the longest time a borrow spent waiting, in milliseconds
+    */
+   public synchronized double getMaxBorrowWaitMillis (){
+      return maxWaitNanos / 1e6;
+   }
+
+   /**
+    * Opens a new physical connection.
+    */
+   private Connection open () throws SQLException {
+      return DriverManager.getConnection(url, user, passwd);
+   }//end open
+
+   /**
+    * Whether the error means the session with the server is gone.
+    */
+   private static boolean isConnectionError (SQLException e){
+      String state = e.getSQLState();
+      return state != null && (state.startsWith("08") || state.startsWith("57P"));
+   }//end isConnectionError
+
+   /**
+    * Validates an idle connection before lending it out. Connections that
+    * were used very recently are trusted without a round trip, unless a
+    * failed statement marked them suspect.
+    */
+   private boolean isValid (IdleConnection c){
+      try{
+         if (c.connection.isClosed())
+            return false;
+         if (!c.suspect && System.currentTimeMillis() - c.returnedAt < validationIntervalMillis)
+            return true;
+         long start = System.nanoTime();
+         Statement stmt = c.connection.createStatement();
+         try{
+            stmt.executeQuery("SELECT 1").close();
+         }finally{
+            stmt.close();
+            Metrics.statement("validate", start, 1, 1, 1);
+         }
+         return true;
+      }catch (SQLException e){
+         return false;
+      }//end try
+   }//end isValid
+
+   /**
+    * Closes connections above the minimum size that have been idle for
+    * longer than the idle timeout.
+    */
+   private void evictIdle (){
+      LinkedList<Connection> expired = new LinkedList<Connection>();
+      synchronized (this){
+         long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+         // the oldest idle connections are at the end of the list
+         Iterator<IdleConnection> it = idle.descendingIterator();
+         while (it.hasNext() && total > minSize){
+            IdleConnection c = it.next();
+            if (c.returnedAt > cutoff)
+               break;
+            it.remove();
+            total--;
+            expired.add(c.connection);
+         }//end while
+      }//end synchronized
+      for (Connection c : expired)
+         discard(c);
+   }//end evictIdle
+
+   private synchronized void recordWait (long nanos){
+      borrowCount++;
+      totalWaitNanos += nanos;
+      lastWaitNanos = nanos;
+      if (nanos > maxWaitNanos)
+         maxWaitNanos = nanos;
+   }//end recordWait
+
+   private void discard (Connection conn){
+      StatementCache cache;
+      synchronized (this){
+         cache = caches.remove(conn);
+      }
+      if (cache != null)
+         cache.close();
+      try{
+         conn.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end discard
+
+}//end ConnectionPool
@@ -0,0 +1,420 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes a synthetic dataset in the format of the data/ directory
+ * (usr_list.csv, usr.csv, usr_list_contains.csv, chat.csv, chat_list.csv and
+ * message.csv) for any number of users, chats and messages.
+ *
+ * Chat sizes, contact list sizes and per-chat message activity follow Zipf
+ * distributions, and message timestamps increase with msg_id. Every row is
+ * derived from its own ID and the seed, so each file is written in
+ * independent ranges by all cores with constant memory, and the ranges are
+ * concatenated at the end.
+ *
+ */
+public class DataGenerator {
+
+   // words used for statuses and message texts
+   private static final String[] WORDS = {
+      "lorem", "ipsum", "dolor", "sit", "amet", "quia", "praesentium", "maxime",
+      "iste", "in", "saepe", "libero", "ut", "quod", "voluptas", "est", "nihil",
+      "omnis", "rerum", "et", "aut", "sed", "eos", "qui", "nam", "odio", "vel",
+      "magni", "dolores", "minima", "veniam", "ad", "nemo", "enim", "ipsam", "quasi"
+   };
+
+   private final int users;
+   private final int chats;
+   private final long messages;
+   private final long seed;
+   private final int threads;
+
+   // distribution of chat sizes (members per chat)
+   private final int maxChatSize;
+   private final ZipfSampler chatSize;
+
+   // distribution of contact list sizes
+   private final ZipfSampler contactCount;
+
+   // distribution of message activity over chats
+   private final ZipfSampler chatActivity;
+   private final long hotChatMultiplier;
+
+   // first timestamp and spacing of messages, in milliseconds
+   private final long startMillis;
+   private final long intervalMillis;
+
+   /**
+    * Creates a generator.
+    *
+    * @param users number of users
+    * @param chats number of chats
+    * @param messages number of messages
+    * @param threads number of threads writing ranges in parallel
+    * @param seed seed of all random choices
+    */
+   public DataGenerator (int users, int chats, long messages, int threads, long seed){
+      if (users < 2)
+         throw new IllegalArgumentException("At least 2 users are needed");
+      this.users = users;
+      this.chats = chats;
+      this.messages = messages;
+      this.threads = threads;
+      this.seed = seed;
+
+      double exponent = Double.parseDouble(System.getProperty("generator.zipfExponent", "1.1"));
+      this.maxChatSize = Math.min(users, Integer.getInteger("generator.maxChatSize", 1000));
+      // sizes 2..maxChatSize
+      this.chatSize = new ZipfSampler(maxChatSize - 1, exponent + 0.5);
+      // 0..min(users - 1, 200) contacts
+      this.contactCount = new ZipfSampler(Math.min(users - 1, 200) + 1, exponent);
+      this.chatActivity = new ZipfSampler(Math.max(chats, 1), exponent);
+      long mult = chats > 0 ? 2654435761L % chats : 0;
+      while (chats > 0 && gcd(mult, chats) != 1)
+         mult++;
+      this.hotChatMultiplier = mult;
+
+      this.intervalMillis = Long.getLong("generator.intervalMillis", 1000L);
+      this.startMillis = System.currentTimeMillis() - messages * intervalMillis;
+   }//end DataGenerator
+
+   /**
+    * Writes all files into a directory.
+    *
+    * @param dir the output directory
+    */
+   public void generate (File dir) throws IOException, InterruptedException {
+      dir.mkdirs();
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try{
+         write(pool, new File(dir, "usr_list.csv"), users, new Rows(){
+            public void write(long u, SplitMix rnd, Writer out) throws IOException {
+               out.write((2 * u) + ";block\n");
+               out.write((2 * u + 1) + ";contact\n");
+            }
+         });
+         write(pool, new File(dir, "usr.csv"), users, new Rows(){
+            public void write(long u, SplitMix rnd, Writer out) throws IOException {
+               out.write(login(u));
+               out.write(';');
+               out.write(phone(u));
+               out.write(';');
+               out.write(Long.toHexString(rnd.nextLong()) + Long.toHexString(rnd.nextLong()));
+               out.write(';');
+               words(rnd, 1 + rnd.nextInt(4), 140, out);
+               out.write(';');
+               out.write(Long.toString(2 * u));
+               out.write(';');
+               out.write(Long.toString(2 * u + 1));
+               out.write('\n');
+            }
+         });
+         write(pool, new File(dir, "usr_list_contains.csv"), users, new Rows(){
+            public void write(long u, SplitMix rnd, Writer out) throws IOException {
+               // contacts are the next users after u, blocked ones the users
+               // right before it, so both lists are distinct and never contain u
+               int contacts = contactCount.sample(rnd) - 1;
+               int blocked = Math.min(rnd.nextInt(3), users - 1 - contacts);
+               for (int k = 1; k <= contacts; ++k)
+                  out.write((2 * u + 1) + ";" + login((u + k) % users) + "\n");
+               for (int k = 1; k <= blocked; ++k)
+                  out.write((2 * u) + ";" + login((u - k + users) % users) + "\n");
+            }
+         });
+         write(pool, new File(dir, "chat.csv"), chats, new Rows(){
+            public void write(long c, SplitMix rnd, Writer out) throws IOException {
+               int size = sizeOf(c);
+               out.write(c + ";" + (size > 2 ? "group" : "private") + ";" + login(member(c, 0)) + "\n");
+            }
+         });
+         write(pool, new File(dir, "chat_list.csv"), chats, new Rows(){
+            public void write(long c, SplitMix rnd, Writer out) throws IOException {
+               int size = sizeOf(c);
+               for (int k = 0; k < size; ++k)
+                  out.write(c + ";" + login(member(c, k)) + "\n");
+            }
+         });
+         if (chats > 0){
+            write(pool, new File(dir, "message.csv"), messages, new Rows(){
+               public void write(long m, SplitMix rnd, Writer out) throws IOException {
+                  long c = hotChat(chatActivity.sample(rnd) - 1);
+                  long sender = member(c, rnd.nextInt(sizeOf(c)));
+                  out.write(Long.toString(m));
+                  out.write(';');
+                  words(rnd, 3 + rnd.nextInt(15), 300, out);
+                  out.write(';');
+                  out.write(new Timestamp(startMillis + m * intervalMillis).toString());
+                  out.write(';');
+                  out.write(login(sender));
+                  out.write(';');
+                  out.write(Long.toString(c));
+                  out.write('\n');
+               }
+            });
+         }//end if
+      }finally{
+         pool.shutdown();
+      }//end try
+   }//end generate
+
+   /**
+    * Writes the rows of one entity, e.g. one user or one chat.
+    */
+   private interface Rows {
+      void write(long id, SplitMix rnd, Writer out) throws IOException;
+   }
+
+   /**
+    * Writes the rows for IDs 0..count-1 into a file. The ID range is split
+    * into one part per thread, every part is written to its own file and
+    * the parts are concatenated in order.
+    */
+   private void write (ExecutorService pool, final File file, final long count, final Rows rows)
+         throws IOException, InterruptedException {
+      long start = System.nanoTime();
+      int parts = (int) Math.max(1, Math.min(threads, count / 10000));
+      final long perPart = (count + parts - 1) / parts;
+      List<Future<File>> futures = new ArrayList<Future<File>>();
+      for (int p = 0; p < parts; ++p){
+         final long from = p * perPart;
+         final long to = Math.min(count, from + perPart);
+         final File part = new File(file.getPath() + ".part" + p);
+         futures.add(pool.submit(new Callable<File>(){
+            public File call() throws IOException {
+               Writer out = new BufferedWriter(
+                               new OutputStreamWriter(new FileOutputStream(part), "UTF-8"), 1 << 16);
+               try{
+                  for (long id = from; id < to; ++id)
+                     rows.write(id, new SplitMix(seed ^ SplitMix.mix(id + file.getName().hashCode())), out);
+               }finally{
+                  out.close();
+               }//end try
+               return part;
+            }
+         }));
+      }//end for
+
+      FileChannel target = new FileOutputStream(file).getChannel();
+      try{
+         for (Future<File> f : futures){
+            File part;
+            try{
+               part = f.get();
+            }catch (ExecutionException e){
+               throw new IOException(e.getCause());
+            }//end try
+            FileChannel source = new FileInputStream(part).getChannel();
+            try{
+               long pos = 0, size = source.size();
+               while (pos < size)
+                  pos += source.transferTo(pos, size - pos, target);
+            }finally{
+               source.close();
+            }//end try
+            part.delete();
+         }//end for
+      }finally{
+         target.close();
+      }//end try
+      System.out.println(String.format("Wrote %s (%d entities) in %.2f s", file.getName(), count,
+                                       (System.nanoTime() - start) / 1e9));
+   }//end write
+
+   /**
+    * Number of members of a chat, between 2 and maxChatSize.
+    */
+   private int sizeOf (long c){
+      return chatSize.sample(new SplitMix(seed ^ SplitMix.mix(c * 31 + 7))) + 1;
+   }
+
+   /**
+    * The k-th member of a chat. Members are spaced by a stride that is
+    * coprime with the number of users, so the first sizeOf(c) are distinct.
+    */
+   private long member (long c, int k){
+      long h = SplitMix.mix(seed + c * 0x9E3779B97F4A7C15L);
+      long base = (h >>> 1) % users;
+      long stride = 1 + ((h >>> 33) % (users - 1));
+      while (gcd(stride, users) != 1)
+         stride = stride % (users - 1) + 1;
+      return (base + k * stride) % users;
+   }
+
+   /**
+    * Maps an activity rank to a chat ID, so that the busiest chats are
+    * spread over the ID range instead of being the lowest IDs.
+    */
+   private long hotChat (long rank){
+      return (rank * hotChatMultiplier) % chats;
+   }
+
+   private static long gcd (long a, long b){
+      while (b != 0){
+         long t = a % b;
+         a = b;
+         b = t;
+      }
+      return a;
+   }
+
+   static String login (long u){
+      return "user_" + u;
+   }
+
+   static String phone (long u){
+      String digits = String.format("%010d", u);
+      return "+1(" + digits.substring(0, 3) + ")" + digits.substring(3, 6) + "-" + digits.substring(6);
+   }
+
+   /**
+    * Writes up to n random words, at most maxLen characters in total.
+    */
+   private static void words (SplitMix rnd, int n, int maxLen, Writer out) throws IOException {
+      int len = 0;
+      for (int i = 0; i < n; ++i){
+         String w = WORDS[rnd.nextInt(WORDS.length)];
+         if (len + w.length() + 1 > maxLen)
+            break;
+         if (i > 0)
+            out.write(' ');
+         out.write(w);
+         len += w.length() + 1;
+      }//end for
+   }//end words
+
+   /**
+    * A small, fast pseudo random generator (SplitMix64) that is cheap
+    * enough to create once per generated entity.
+    */
+   static final class SplitMix {
+      private long state;
+
+      SplitMix(long seed){
+         this.state = seed;
+      }
+
+      static long mix (long z){
+         z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+         z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+         return z ^ (z >>> 31);
+      }
+
+      long nextLong (){
+         return mix(state += 0x9E3779B97F4A7C15L);
+      }
+
+      double nextDouble (){
+         return (nextLong() >>> 11) * 0x1.0p-53;
+      }
+
+      int nextInt (int bound){
+         return (int) ((nextLong() >>> 1) % bound);
+      }
+   }//end SplitMix
+
+   /**
+    * Samples integers 1..n with probability proportional to 1/k^s, in
+    * constant time and memory (rejection-inversion, Hormann and Derflinger).
+    */
+   static final class ZipfSampler {
+      private final int n;
+      private final double s;
+      private final double hIntegralX1;
+      private final double hIntegralN;
+      private final double sConst;
+
+      ZipfSampler(int n, double s){
+         this.n = n;
+         this.s = s;
+         this.hIntegralX1 = hIntegral(1.5) - 1.0;
+         this.hIntegralN = hIntegral(n + 0.5);
+         this.sConst = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2));
+      }
+
+      int sample (SplitMix rnd){
+         while (true){
+            double u = hIntegralN + rnd.nextDouble() * (hIntegralX1 - hIntegralN);
+            double x = hIntegralInverse(u);
+            int k = (int) (x + 0.5);
+            if (k < 1)
+               k = 1;
+            else if (k > n)
+               k = n;
+            if (k - x <= sConst || u >= hIntegral(k + 0.5) - h(k))
+               return k;
+         }//end while
+      }
+
+      private double hIntegral (double x){
+         double logX = Math.log(x);
+         return helper2((1.0 - s) * logX) * logX;
+      }
+
+      private double h (double x){
+         return Math.exp(-s * Math.log(x));
+      }
+
+      private double hIntegralInverse (double x){
+         double t = x * (1.0 - s);
+         if (t < -1.0)
+            t = -1.0;
+         return Math.exp(helper1(t) * x);
+      }
+
+      // log(1+x)/x, accurate near 0
+      private static double helper1 (double x){
+         if (Math.abs(x) > 1e-8)
+            return Math.log1p(x) / x;
+         return 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+      }
+
+      // (exp(x)-1)/x, accurate near 0
+      private static double helper2 (double x){
+         if (Math.abs(x) > 1e-8)
+            return Math.expm1(x) / x;
+         return 1.0 + x * 0.5 * (1.0 + x * (1.0 / 3.0) * (1.0 + 0.25 * x));
+      }
+   }//end ZipfSampler
+
+   /**
+    * The main execution method
+    *
+    * @param args <output dir> <users> <chats> <messages> [threads] [seed]
+    */
+   public static void main (String[] args) {
+      if (args.length < 4 || args.length > 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName () +
+            " <output dir> <users> <chats> <messages> [threads] [seed]");
+         return;
+      }//end if
+      try{
+         int threads = args.length > 4 ? Integer.parseInt(args[4])
+                                       : Runtime.getRuntime().availableProcessors();
+         long seed = args.length > 5 ? Long.parseLong(args[5]) : 42L;
+         DataGenerator gen = new DataGenerator(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                                               Long.parseLong(args[3]), threads, seed);
+         gen.generate(new File(args[0]));
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }//end try
+   }//end main
+
+}//end DataGenerator
@@ -0,0 +1,137 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts latencies in log-linear buckets (16 buckets per power
+ * of two, i.e. within about 6% of the recorded value), so that recording
+ * is a couple of atomic increments and percentiles can be read at any
+ * time without keeping the samples. Values are in microseconds.
+ *
+ */
+public class LatencyHistogram {
+
+   // linear sub-buckets per power of two
+   private static final int SUB_BITS = 4;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+
+   // enough buckets for values up to 2^42 microseconds (about 50 days)
+   private static final int BUCKETS = (42 - SUB_BITS + 1) * SUB_COUNT;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong count = new AtomicLong();
+   private final AtomicLong sum = new AtomicLong();
+   private final AtomicLong max = new AtomicLong();
+
+   /**
+    * Records one latency.
+    *
+    * @param micros the latency in microseconds
+    */
+   public void record (long micros){
+      if (micros < 0)
+         micros = 0;
+      counts.incrementAndGet(bucketOf(micros));
+      count.incrementAndGet();
+      sum.addAndGet(micros);
+      long m;
+      while (micros > (m = max.get()) && !max.compareAndSet(m, micros))
+         ;
+   }//end record
+
+   /**
+    * Records the time elapsed since a System.nanoTime() reading.
+    *
+    * @param startNanos the System.nanoTime() value taken before the operation
+    */
+   public void recordSince (long startNanos){
+      record((System.nanoTime() - startNanos) / 1000L);
+   }
+
+   public long getCount (){
+      return count.get();
+   }
+
+   public long getMax (){
+      return max.get();
+   }
+
+   public double getMean (){
+      long n = count.get();
+      return n == 0 ? 0.0 : (double) sum.get() / n;
+   }
+
+   /**
+    * @param q the quantile, e.g. 0.99
+    * @return the upper bound of the bucket holding the q-th value, in microseconds
+    */
+   public long getPercentile (double q){
+      long n = count.get();
+      if (n == 0)
+         return 0;
+      long rank = (long) Math.ceil(q * n);
+      if (rank < 1)
+         rank = 1;
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i){
+         seen += counts.get(i);
+         if (seen >= rank)
+            return Math.min(upperBoundOf(i), max.get());
+      }//end for
+      return max.get();
+   }//end getPercentile
+
+   /**
+    * Returns a copy of the current counts and clears this histogram, so
+    * that a reporter can print per-interval figures while recording goes on.
+    *
+    * @return the values recorded since the previous call
+    */
+   public LatencyHistogram copyAndReset (){
+      LatencyHistogram copy = new LatencyHistogram();
+      for (int i = 0; i < BUCKETS; ++i){
+         long c = counts.getAndSet(i, 0);
+         if (c != 0)
+            copy.counts.set(i, c);
+      }//end for
+      copy.count.set(count.getAndSet(0));
+      copy.sum.set(sum.getAndSet(0));
+      copy.max.set(max.getAndSet(0));
+      return copy;
+   }//end copyAndReset
+
+   /**
+    * Adds the counts of another histogram to this one.
+    *
+    * @param other the histogram to merge in
+    */
+   public void add (LatencyHistogram other){
+      for (int i = 0; i < BUCKETS; ++i){
+         long c = other.counts.get(i);
+         if (c != 0)
+            counts.addAndGet(i, c);
+      }//end for
+      count.addAndGet(other.count.get());
+      sum.addAndGet(other.sum.get());
+      long m, om = other.max.get();
+      while (om > (m = max.get()) && !max.compareAndSet(m, om))
+         ;
+   }//end add
+
+   private static int bucketOf (long v){
+      if (v < SUB_COUNT)
+         return (int) v;
+      int msb = 63 - Long.numberOfLeadingZeros(v);
+      int sub = (int) ((v >>> (msb - SUB_BITS)) & (SUB_COUNT - 1));
+      int idx = (msb - SUB_BITS + 1) * SUB_COUNT + sub;
+      return Math.min(idx, BUCKETS - 1);
+   }//end bucketOf
+
+   private static long upperBoundOf (int idx){
+      if (idx < SUB_COUNT)
+         return idx;
+      int msb = idx / SUB_COUNT + SUB_BITS - 1;
+      long sub = idx % SUB_COUNT;
+      return ((SUB_COUNT + sub + 1) << (msb - SUB_BITS)) - 1;
+   }//end upperBoundOf
+
+}//end LatencyHistogram
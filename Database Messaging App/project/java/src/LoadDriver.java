@@ -0,0 +1,332 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class simulates many concurrent Messenger users against one
+ * database. Every simulated session logs in and then repeats a weighted mix
+ * of menu actions with a random think time in between. Sessions are run by
+ * a fixed pool of worker threads, so thousands of sessions need only as
+ * many threads as there are actions in flight.
+ *
+ * Every report interval, throughput, p50/p99/p999 latency and error counts
+ * are printed per operation, with the pool's wait times and the totals of
+ * its prepared statement cache.
+ *
+ */
+public class LoadDriver {
+
+   // the operations of the mix, in report order
+   static final String LOGIN = "login";
+   static final String BROWSE_CHATS = "browseChats";
+   static final String BROWSE_MESSAGES = "browseMessages";
+   static final String NEW_MESSAGE = "newMessage";
+   static final String ADD_CONTACT = "addContact";
+
+   /**
+    * Latency and error counters of one operation.
+    */
+   static class OpStats {
+      final LatencyHistogram latency = new LatencyHistogram();
+      final AtomicLong errors = new AtomicLong();
+      final LatencyHistogram total = new LatencyHistogram();
+      long totalErrors = 0;
+   }//end OpStats
+
+   private final ConnectionPool pool;
+   private final ScheduledThreadPoolExecutor workers;
+   private final Map<String, OpStats> stats = new LinkedHashMap<String, OpStats>();
+
+   // weighted action mix, as cumulative weights
+   private final String[] mixOps;
+   private final int[] mixWeights;
+   private final int mixTotal;
+
+   // users to log in as, picked with a Zipf skew
+   private final String[] logins;
+   private final String[] passwords;
+   private final DataGenerator.ZipfSampler userSkew;
+
+   private final long thinkMillis;
+   private final Random seeds = new Random();
+
+   private volatile boolean running = true;
+
+   /**
+    * Creates a driver.
+    *
+    * @param pool connections shared by all sessions
+    * @param threads number of worker threads running actions
+    * @param mix action weights, e.g. browseChats=40,browseMessages=40,newMessage=15,addContact=5
+    * @param thinkMillis mean think time between two actions of a session
+    * @param skew Zipf exponent of the user choice (0 for uniform)
+    */
+   public LoadDriver (ConnectionPool pool, int threads, String mix, long thinkMillis, double skew) throws SQLException {
+      this.pool = pool;
+      this.workers = new ScheduledThreadPoolExecutor(threads);
+      this.thinkMillis = thinkMillis;
+
+      for (String op : new String[] {LOGIN, BROWSE_CHATS, BROWSE_MESSAGES, NEW_MESSAGE, ADD_CONTACT})
+         stats.put(op, new OpStats());
+
+      String[] parts = mix.split(",");
+      mixOps = new String[parts.length];
+      mixWeights = new int[parts.length];
+      int cumulative = 0;
+      for (int i = 0; i < parts.length; ++i){
+         String[] kv = parts[i].trim().split("=");
+         if (!stats.containsKey(kv[0]) || kv[0].equals(LOGIN))
+            throw new IllegalArgumentException("Unknown operation in mix: " + kv[0]);
+         cumulative += Integer.parseInt(kv[1]);
+         mixOps[i] = kv[0];
+         mixWeights[i] = cumulative;
+      }//end for
+      mixTotal = cumulative;
+
+      Messenger esql = new Messenger(pool);
+      List<List<String>> users = esql.executeQueryAndReturnResult(
+         "SELECT login, password FROM USR ORDER BY login LIMIT ?", Integer.getInteger("load.users", 10000));
+      if (users.size() < 2)
+         throw new IllegalStateException("The load test needs a loaded dataset");
+      logins = new String[users.size()];
+      passwords = new String[users.size()];
+      for (int i = 0; i < users.size(); ++i){
+         logins[i] = users.get(i).get(0).trim();
+         passwords[i] = users.get(i).get(1).trim();
+      }//end for
+      // a tiny exponent is practically uniform
+      userSkew = new DataGenerator.ZipfSampler(logins.length, Math.max(skew, 1e-6));
+   }//end LoadDriver
+
+   /**
+    * One simulated user. Each run() performs one action and schedules the
+    * next one after a think time.
+    */
+   private class Session implements Runnable {
+      final Messenger esql = new Messenger(pool);
+      final Random rnd = new Random(seeds.nextLong());
+      final DataGenerator.SplitMix skewRnd = new DataGenerator.SplitMix(rnd.nextLong());
+      String user = null;
+      List<Integer> chats = new ArrayList<Integer>();
+
+      public void run (){
+         if (!running)
+            return;
+         if (user == null)
+            logIn();
+         else
+            perform(pickAction());
+         if (running)
+            workers.schedule(this, thinkTime(), TimeUnit.MILLISECONDS);
+      }
+
+      private long thinkTime (){
+         // exponentially distributed around the mean
+         return thinkMillis <= 0 ? 0 : (long) (-Math.log(1.0 - rnd.nextDouble()) * thinkMillis);
+      }
+
+      private String pickAction (){
+         int r = rnd.nextInt(mixTotal);
+         for (int i = 0; i < mixWeights.length; ++i)
+            if (r < mixWeights[i])
+               return mixOps[i];
+         return mixOps[mixOps.length - 1];
+      }
+
+      private void logIn (){
+         int u = userSkew.sample(skewRnd) - 1;
+         OpStats s = stats.get(LOGIN);
+         long start = System.nanoTime();
+         // only a login that succeeded is an action
+         String action = null;
+         Metrics.beginAction();
+         try{
+            user = Messenger.LogIn(esql, logins[u], passwords[u]);
+            s.latency.recordSince(start);
+            if (user == null){
+               s.errors.incrementAndGet();
+               return;
+            }//end if
+            action = "load." + LOGIN;
+         }catch (SQLException e){
+            s.errors.incrementAndGet();
+            return;
+         }catch (RuntimeException e){
+            s.errors.incrementAndGet();
+            System.err.println(LOGIN + ": " + e);
+            return;
+         }finally{
+            Metrics.endAction(action);
+         }//end try
+         try{
+            chats = Messenger.fetchChats(esql, user);
+         }catch (SQLException e){
+            // the chats are looked up again by the next browseChats
+            System.err.println(e.getMessage());
+         }//end try
+      }
+
+      private void perform (String op){
+         OpStats s = stats.get(op);
+         long start = System.nanoTime();
+         // null while the action is skipped or failed, so it is not recorded
+         String action = null;
+         Metrics.beginAction();
+         try{
+            if (op.equals(BROWSE_CHATS)){
+               List<Integer> ids = new ArrayList<Integer>();
+               for (Messenger.ChatSummary c : Messenger.fetchInbox(esql, user, 0))
+                  ids.add(c.getChatId());
+               chats = ids;
+            }else if (op.equals(BROWSE_MESSAGES)){
+               if (chats.isEmpty())
+                  return;
+               Messenger.BrowseMessages(esql, user, randomChat(), null, 0, Messenger.PAGE_SIZE + 1);
+            }else if (op.equals(NEW_MESSAGE)){
+               if (chats.isEmpty())
+                  return;
+               Messenger.NewMessage(esql, user, randomChat(), "load test message");
+            }else if (op.equals(ADD_CONTACT)){
+               Messenger.AddToContact(esql, user, logins[rnd.nextInt(logins.length)]);
+            }//end if
+            s.latency.recordSince(start);
+            action = "load." + op;
+         }catch (SQLException e){
+            s.errors.incrementAndGet();
+         }catch (RuntimeException e){
+            // a bug in one action must not end the session
+            s.errors.incrementAndGet();
+            System.err.println(op + ": " + e);
+         }finally{
+            Metrics.endAction(action);
+         }//end try
+      }
+
+      private int randomChat (){
+         return chats.get(rnd.nextInt(chats.size()));
+      }
+   }//end Session
+
+   /**
+    * Starts the sessions, ramping them up over the first think time, and
+    * prints a report every interval until the duration is over.
+    *
+    * @param sessions number of simulated users
+    * @param seconds test duration
+    * @param intervalSeconds report interval
+    */
+   public void run (int sessions, long seconds, long intervalSeconds) throws InterruptedException {
+      Random ramp = new Random();
+      for (int i = 0; i < sessions; ++i)
+         workers.schedule(new Session(), (long) (ramp.nextDouble() * Math.max(thinkMillis, 1)), TimeUnit.MILLISECONDS);
+
+      long start = System.currentTimeMillis();
+      long end = start + seconds * 1000L;
+      long next = start + intervalSeconds * 1000L;
+      while (System.currentTimeMillis() < end){
+         Thread.sleep(Math.max(0, Math.min(next, end) - System.currentTimeMillis()));
+         long now = System.currentTimeMillis();
+         report((now - start) / 1000L, (now - next + intervalSeconds * 1000L) / 1000.0, false);
+         next += intervalSeconds * 1000L;
+      }//end while
+
+      running = false;
+      workers.shutdown();
+      workers.awaitTermination(30, TimeUnit.SECONDS);
+      report((System.currentTimeMillis() - start) / 1000L, (System.currentTimeMillis() - start) / 1000.0, true);
+   }//end run
+
+   /**
+    * Prints one line per operation. Interval figures are reset afterwards;
+    * the final report prints the totals over the whole run.
+    */
+   private void report (long elapsed, double intervalSecs, boolean totals){
+      StatementCache.Stats cache = pool.getStatementCacheStats();
+      System.out.println(String.format("%s t=%ds  pool saturation=%.2f  borrow wait avg=%.2fms max=%.2fms  statement cache hits=%d misses=%d evictions=%d",
+                                       totals ? "TOTAL" : "-----", elapsed, pool.getSaturation(),
+                                       pool.getAverageBorrowWaitMillis(), pool.getMaxBorrowWaitMillis(),
+                                       cache.getHits(), cache.getMisses(), cache.getEvictions()));
+      System.out.println(String.format("%-16s %10s %10s %10s %10s %10s %10s %8s",
+                                       "operation", "count", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors"));
+      for (Map.Entry<String, OpStats> e : stats.entrySet()){
+         OpStats s = e.getValue();
+         LatencyHistogram h;
+         long errors;
+         if (totals){
+            s.total.add(s.latency.copyAndReset());
+            s.totalErrors += s.errors.getAndSet(0);
+            h = s.total;
+            errors = s.totalErrors;
+         }else{
+            h = s.latency.copyAndReset();
+            errors = s.errors.getAndSet(0);
+            s.total.add(h);
+            s.totalErrors += errors;
+         }//end if
+         System.out.println(String.format("%-16s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %8d",
+                                          e.getKey(), h.getCount(), h.getCount() / Math.max(intervalSecs, 1e-3),
+                                          h.getPercentile(0.50) / 1000.0, h.getPercentile(0.99) / 1000.0,
+                                          h.getPercentile(0.999) / 1000.0, h.getMax() / 1000.0, errors));
+      }//end for
+      MessageWriter writer = MessageWriter.shared(pool);
+      if (writer != null)
+         System.out.println(String.format("group commit: batches=%d avg size=%.1f max=%d  queue avg=%.1f max=%d  rejected=%d  failed batches=%d  ack p99=%.2fms",
+                                          writer.getBatches(), writer.getAverageBatchSize(), writer.getMaxBatchSize(),
+                                          writer.getAverageQueueDepth(), writer.getMaxQueueDepth(), writer.getRejected(),
+                                          writer.getFailedBatches(), writer.getAckLatency().getPercentile(0.99) / 1000.0));
+      System.out.println();
+   }//end report
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> [sessions] [seconds]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3 || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            "[-Dload.threads=N] [-Dload.poolSize=N] [-Dload.thinkMillis=MS] [-Dload.skew=S] " +
+            "[-Dload.mix=op=weight,...] [-Dload.interval=SECONDS] [-Dmessenger.writer.enabled=true] " +
+            LoadDriver.class.getName () +
+            " <dbname> <port> <user> [sessions] [seconds]");
+         return;
+      }//end if
+
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      int sessions = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+      long seconds = args.length > 4 ? Long.parseLong(args[4]) : 60;
+      int threads = Integer.getInteger("load.threads", 64);
+
+      ConnectionPool pool = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         pool = new ConnectionPool(url, args[2], "", 1, Integer.getInteger("load.poolSize", threads),
+                                   60000L, 30000L);
+         pool.setReplica(Replica.fromSystemProperties(pool, args[2], ""));
+         LoadDriver driver = new LoadDriver(pool, threads,
+                                            System.getProperty("load.mix",
+                                               "browseChats=40,browseMessages=40,newMessage=15,addContact=5"),
+                                            Long.getLong("load.thinkMillis", 1000L),
+                                            Double.parseDouble(System.getProperty("load.skew", "1.0")));
+         driver.run(sessions, seconds, Long.getLong("load.interval", 10L));
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }finally{
+         if (pool != null){
+            MessageWriter.closeShared(pool);
+            pool.close();
+         }//end if
+      }//end try
+   }//end main
+
+}//end LoadDriver
@@ -0,0 +1,332 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the messages that MessageArchiver moved out of MESSAGE,
+ * in one append-only segment file per chat:
+ *
+ *   chat_<chat_id>.seg   the messages in (msg_timestamp, msg_id) order
+ *   chat_<chat_id>.idx   a sparse index: the key and file offset of every
+ *                        INDEX_INTERVAL-th message
+ *
+ * A record is (int length, long millis, int nanos, int msg_id, sender,
+ * text, int length), the strings as a short byte count and UTF-8 bytes.
+ * The length at both ends lets a page be read backwards from any record
+ * boundary. An index entry is (long millis, int nanos, int msg_id, long
+ * offset).
+ *
+ * Readers map both files read-only. Appends force the records to disk
+ * before their index entries, and a reader only walks records it found
+ * complete while scanning forward from an index entry, so a page never
+ * includes a partly written record. Offsets are ints, which limits the
+ * segment of one chat to 2 GB.
+ *
+ */
+public class MessageArchive {
+
+   // a message every INDEX_INTERVAL records has an index entry
+   static final int INDEX_INTERVAL = 64;
+   static final int INDEX_ENTRY = 24;
+
+   // record header and trailer, without the strings
+   private static final int RECORD_FIXED = 4 + 8 + 4 + 4 + 2 + 2 + 4;
+
+   // number of chats whose files stay mapped
+   private static final int MAPPED_CHATS = 64;
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   /**
+    * The mapped files of one chat.
+    */
+   private static class Segment {
+      final MappedByteBuffer index;
+      final MappedByteBuffer data;
+
+      Segment (File idx, File seg) throws IOException {
+         // the index first: every entry then points into the mapped data
+         this.index = map(idx);
+         this.data = map(seg);
+      }
+
+      private static MappedByteBuffer map (File f) throws IOException {
+         RandomAccessFile raf = new RandomAccessFile(f, "r");
+         try{
+            FileChannel ch = raf.getChannel();
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+         }finally{
+            raf.close();
+         }//end try
+      }//end map
+   }//end Segment
+
+   private final File dir;
+
+   // mapped chats, least recently read first
+   private final Map<Integer, Segment> mapped = new LinkedHashMap<Integer, Segment>(16, 0.75f, true) {
+      protected boolean removeEldestEntry (Map.Entry<Integer, Segment> eldest){
+         return size() > MAPPED_CHATS;
+      }
+   };
+
+   /**
+    * @param dir the directory of the segment files, created if missing
+    */
+   public MessageArchive (File dir) {
+      this.dir = dir;
+      dir.mkdirs();
+   }
+
+   /**
+    * @return the archive in the directory named by the messenger.archiveDir
+    * property, or null if the property is not set
+    */
+   public static MessageArchive fromSystemProperties () {
+      String dir = System.getProperty("messenger.archiveDir");
+      return dir == null ? null : new MessageArchive(new File(dir));
+   }
+
+   private File segmentFile (int chatId){
+      return new File(this.dir, "chat_" + chatId + ".seg");
+   }
+
+   private File indexFile (int chatId){
+      return new File(this.dir, "chat_" + chatId + ".idx");
+   }
+
+   /**
+    * @return the IDs of the chats with archived messages
+    */
+   public List<Integer> chats () {
+      List<Integer> ids = new ArrayList<Integer>();
+      String[] names = this.dir.list();
+      if (names == null)
+         return ids;
+      for (String name : names)
+         if (name.startsWith("chat_") && name.endsWith(".seg"))
+            ids.add(Integer.parseInt(name.substring(5, name.length() - 4)));
+      return ids;
+   }//end chats
+
+   /**
+    * Maps the files of a chat, again if they grew since they were mapped.
+    *
+    * @return the mapped files, or null if the chat has no archive
+    */
+   private synchronized Segment segment (int chatId) throws IOException {
+      File seg = segmentFile(chatId);
+      File idx = indexFile(chatId);
+      Segment s = this.mapped.get(chatId);
+      if (s != null && s.data.capacity() == seg.length() && s.index.capacity() == idx.length())
+         return s;
+      if (!seg.exists() || !idx.exists()){
+         this.mapped.remove(chatId);
+         return null;
+      }//end if
+      s = new Segment(idx, seg);
+      this.mapped.put(chatId, s);
+      return s;
+   }//end segment
+
+   /**
+    * Reads one page of a chat's archived messages, newest first, the same
+    * way Messenger.fetchMessagePage reads MESSAGE.
+    *
+    * @param beforeTs timestamp of the last message already shown, or null for the newest
+    * @param beforeId msg_id of the last message already shown
+    * @return up to pageSize messages older than the given one
+    */
+   public List<Messenger.Message> page (int chatId, Timestamp beforeTs, int beforeId, int pageSize) throws IOException {
+      List<Messenger.Message> page = new ArrayList<Messenger.Message>();
+      Segment s = segment(chatId);
+      if (s == null)
+         return page;
+      ByteBuffer data = s.data;
+
+      // the last indexed message before the key
+      int lo = 0, hi = s.index.capacity() / INDEX_ENTRY - 1;
+      int start = 0;
+      while (beforeTs != null && lo <= hi){
+         int mid = (lo + hi) >>> 1;
+         int at = mid * INDEX_ENTRY;
+         if (compare(s.index.getLong(at), s.index.getInt(at + 8), s.index.getInt(at + 12), beforeTs, beforeId) < 0){
+            start = (int) s.index.getLong(at + 16);
+            lo = mid + 1;
+         }else
+            hi = mid - 1;
+      }//end while
+      if (beforeTs == null && hi >= 0)
+         start = (int) s.index.getLong(hi * INDEX_ENTRY + 16);
+
+      // forward to the first message at or after the key
+      int pos = start;
+      while (complete(data, pos)
+             && (beforeTs == null || compare(data.getLong(pos + 4), data.getInt(pos + 12), data.getInt(pos + 16), beforeTs, beforeId) < 0))
+         pos += data.getInt(pos);
+
+      // and backwards from there
+      while (pos > 0 && page.size() < pageSize){
+         pos -= data.getInt(pos - 4);
+         page.add(read(data, pos));
+      }//end while
+      return page;
+   }//end page
+
+   /**
+    * @return the newest archived message of a chat, or null if there is none
+    */
+   public Messenger.Message last (int chatId) throws IOException {
+      List<Messenger.Message> page = page(chatId, null, 0, 1);
+      return page.isEmpty() ? null : page.get(0);
+   }
+
+   /**
+    * @return true if the message is in the chat's archive
+    */
+   public boolean contains (int chatId, Messenger.Message m) throws IOException {
+      // the newest archived message at or before its key
+      List<Messenger.Message> page = page(chatId, m.getTimestamp(), m.getId() + 1, 1);
+      return !page.isEmpty() && page.get(0).getId() == m.getId() && page.get(0).getTimestamp().equals(m.getTimestamp());
+   }//end contains
+
+   /**
+    * Appends messages to a chat's segment and forces them to disk. They
+    * must follow the archived ones in (msg_timestamp, msg_id) order. A
+    * record or index entry left incomplete by an earlier crash is cut off
+    * first.
+    *
+    * @param messages the messages, oldest first
+    */
+   public synchronized void append (int chatId, List<Messenger.Message> messages) throws IOException {
+      if (messages.isEmpty())
+         return;
+      RandomAccessFile seg = new RandomAccessFile(segmentFile(chatId), "rw");
+      RandomAccessFile idx = new RandomAccessFile(indexFile(chatId), "rw");
+      try{
+         FileChannel data = seg.getChannel();
+         FileChannel index = idx.getChannel();
+         long entries = index.size() / INDEX_ENTRY;
+         index.truncate(entries * INDEX_ENTRY);
+
+         // find the end of the complete records after the last index entry
+         long start = 0;
+         if (entries > 0){
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+            index.read(entry, (entries - 1) * INDEX_ENTRY);
+            start = entry.getLong(16);
+         }//end if
+         ByteBuffer tail = data.map(FileChannel.MapMode.READ_ONLY, start, data.size() - start);
+         int pos = 0, count = 0;
+         Messenger.Message last = null;
+         while (complete(tail, pos)){
+            last = read(tail, pos);
+            pos += tail.getInt(pos);
+            ++count;
+         }//end while
+         long end = start + pos;
+         data.truncate(end);
+
+         Messenger.Message first = messages.get(0);
+         if (last != null && compare(last.getTimestamp().getTime(), last.getTimestamp().getNanos(), last.getId(),
+                                     first.getTimestamp(), first.getId()) >= 0)
+            throw new IllegalArgumentException("message " + first.getId() + " is not newer than the archive of chat " + chatId);
+
+         ByteBuffer records = ByteBuffer.allocate(messages.size() * 1024);
+         ByteBuffer newEntries = ByteBuffer.allocate((messages.size() / INDEX_INTERVAL + 1) * INDEX_ENTRY);
+         for (Messenger.Message m : messages){
+            byte[] sender = m.getSender() == null ? null : m.getSender().getBytes(UTF8);
+            byte[] text = m.getText().getBytes(UTF8);
+            int length = RECORD_FIXED + (sender == null ? 0 : sender.length) + text.length;
+            if (records.remaining() < length){
+               ByteBuffer grown = ByteBuffer.allocate(records.capacity() * 2 + length);
+               records.flip();
+               records = grown.put(records);
+            }//end if
+            long millis = m.getTimestamp().getTime();
+            int nanos = m.getTimestamp().getNanos();
+            if (count++ % INDEX_INTERVAL == 0)
+               newEntries.putLong(millis).putInt(nanos).putInt(m.getId()).putLong(end + records.position());
+            records.putInt(length).putLong(millis).putInt(nanos).putInt(m.getId());
+            if (sender == null)
+               records.putShort((short) -1);
+            else
+               records.putShort((short) sender.length).put(sender);
+            records.putShort((short) text.length).put(text);
+            records.putInt(length);
+         }//end for
+
+         records.flip();
+         while (records.hasRemaining())
+            data.write(records, end + records.position());
+         data.force(true);
+         newEntries.flip();
+         long at = entries * INDEX_ENTRY;
+         while (newEntries.hasRemaining())
+            index.write(newEntries, at + newEntries.position());
+         index.force(true);
+      }finally{
+         seg.close();
+         idx.close();
+      }//end try
+   }//end append
+
+   /**
+    * Removes the archive of a deleted chat.
+    */
+   public synchronized void delete (int chatId) {
+      this.mapped.remove(chatId);
+      segmentFile(chatId).delete();
+      indexFile(chatId).delete();
+   }
+
+   /**
+    * @return true if a whole record starts at pos
+    */
+   private static boolean complete (ByteBuffer data, int pos){
+      if (pos + 4 > data.capacity())
+         return false;
+      int length = data.getInt(pos);
+      return length >= RECORD_FIXED && pos + length <= data.capacity() && data.getInt(pos + length - 4) == length;
+   }//end complete
+
+   private static Messenger.Message read (ByteBuffer data, int pos){
+      Timestamp ts = new Timestamp(data.getLong(pos + 4));
+      ts.setNanos(data.getInt(pos + 12));
+      int id = data.getInt(pos + 16);
+      int at = pos + 20;
+      String sender = null;
+      short n = data.getShort(at);
+      at += 2;
+      if (n >= 0){
+         sender = string(data, at, n);
+         at += n;
+      }//end if
+      n = data.getShort(at);
+      return new Messenger.Message(ts, id, sender, string(data, at + 2, n));
+   }//end read
+
+   private static String string (ByteBuffer data, int at, int length){
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; ++i)
+         bytes[i] = data.get(at + i);
+      return new String(bytes, UTF8);
+   }//end string
+
+   private static int compare (long millis, int nanos, int id, Timestamp ts, int tsId){
+      int c = Long.compare(millis, ts.getTime());
+      if (c == 0)
+         c = Integer.compare(nanos, ts.getNanos());
+      return c != 0 ? c : Integer.compare(id, tsId);
+   }//end compare
+
+}//end MessageArchive
@@ -0,0 +1,184 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class moves the messages older than a number of days out of
+ * MESSAGE into the segment files of a MessageArchive, from which
+ * Messenger.fetchMessagePage reads them once a user pages past the rows
+ * left in MESSAGE. Run it from cron, e.g. daily, with the directory that
+ * the messenger.archiveDir property of the application points to.
+ *
+ * Each batch of a chat is one transaction: the messages are locked,
+ * appended to the segment and forced to disk, then exactly those are
+ * deleted. A batch whose transaction fails after the append is not
+ * appended again, since only messages newer than the archived ones are
+ * read. Before its batches, a chat's messages at or before the archive's
+ * last one are checked against the archive: those it holds, left by such
+ * a batch, are deleted. Any other message there reached MESSAGE after
+ * newer ones were archived, e.g. with a skewed client clock; it cannot be
+ * appended in order, so it stays in MESSAGE and is reported.
+ *
+ * The last message of a chat stays in MESSAGE, so that the inbox and the
+ * feed still find it. Archived messages no longer count as unread, keep
+ * counting in the chat's message count, and cannot be edited or deleted.
+ *
+ */
+public class MessageArchiver {
+
+   private final Messenger esql;
+   private final MessageArchive archive;
+
+   public MessageArchiver (Messenger esql, MessageArchive archive){
+      this.esql = esql;
+      this.archive = archive;
+   }
+
+   /**
+    * Archives the messages sent before a cutoff, chat by chat, and removes
+    * the archives of chats deleted since the last run.
+    *
+    * @param batchSize number of messages per batch and transaction
+    * @return the number of messages archived
+    */
+   public long archive (Timestamp cutoff, int batchSize) throws SQLException, IOException {
+      long total = 0;
+      // only the partitions before the cutoff are scanned
+      List<Integer> chats = esql.query("SELECT DISTINCT chat_id FROM MESSAGE WHERE msg_timestamp < ?", Messenger.FIRST_INT, cutoff);
+      for (int chatId : chats){
+         reconcile(chatId, cutoff);
+         int n;
+         do{
+            n = archiveBatch(chatId, cutoff, batchSize);
+            total += n;
+         }while (n == batchSize);
+      }//end for
+
+      Set<Integer> live = new HashSet<Integer>(esql.query("SELECT chat_id FROM CHAT", Messenger.FIRST_INT));
+      for (int chatId : archive.chats())
+         if (!live.contains(chatId))
+            archive.delete(chatId);
+      return total;
+   }//end archive
+
+   /**
+    * Deletes the messages of a chat that the archive already holds, left
+    * by a batch that failed after its append.
+    */
+   private void reconcile (int chatId, Timestamp cutoff) throws SQLException, IOException {
+      Messenger.Message tail = archive.last(chatId);
+      if (tail == null)
+         return;
+      esql.begin();
+      boolean done = false;
+      try{
+         List<Messenger.Message> old = esql.query(
+            "SELECT m.msg_timestamp, m.msg_id, u.login, m.msg_text FROM MESSAGE m LEFT JOIN USR u ON u.user_id = m.sender_id "
+            + "WHERE m.chat_id = ? AND m.msg_timestamp < ? AND (m.msg_timestamp, m.msg_id) <= (?, ?) "
+            + "AND m.msg_id <> COALESCE((SELECT last_msg_id FROM CHAT_SUMMARY WHERE chat_id = ?), 0) "
+            + "ORDER BY m.msg_timestamp, m.msg_id FOR UPDATE OF m", Messenger.MESSAGE,
+            chatId, cutoff, tail.getTimestamp(), tail.getId(), chatId);
+         List<Messenger.Message> archived = new ArrayList<Messenger.Message>();
+         for (Messenger.Message m : old){
+            if (archive.contains(chatId, m))
+               archived.add(m);
+            else
+               System.err.println("Message " + m.getId() + " of chat " + chatId + " is older than its archive and stays in MESSAGE");
+         }//end for
+         delete(chatId, archived);
+         done = true;
+      }finally{
+         if (done) esql.commit(); else esql.rollback();
+      }//end try
+   }//end reconcile
+
+   /**
+    * Deletes archived messages of a chat, in the transaction of the caller.
+    *
+    * @param messages the messages, oldest first
+    */
+   private void delete (int chatId, List<Messenger.Message> messages) throws SQLException {
+      if (messages.isEmpty())
+         return;
+      Integer[] ids = new Integer[messages.size()];
+      for (int i = 0; i < ids.length; ++i)
+         ids[i] = messages.get(i).getId();
+      // the bounds on msg_timestamp prune the other partitions
+      int deleted = esql.executeUpdate(
+         "DELETE FROM MESSAGE WHERE chat_id = ? AND msg_timestamp BETWEEN ? AND ? AND msg_id = ANY (?)",
+         chatId, messages.get(0).getTimestamp(), messages.get(ids.length - 1).getTimestamp(), esql.createArray("int4", ids));
+      // the delete trigger took them off the count
+      esql.executeUpdate("UPDATE CHAT_SUMMARY SET msg_count = msg_count + ? WHERE chat_id = ?", deleted, chatId);
+   }//end delete
+
+   private int archiveBatch (int chatId, Timestamp cutoff, int batchSize) throws SQLException, IOException {
+      Messenger.Message tail = archive.last(chatId);
+      String newer = tail == null ? "" : " AND (m.msg_timestamp, m.msg_id) > (?, ?)";
+      Object[] params = tail == null
+         ? new Object[] {chatId, cutoff, chatId, batchSize}
+         : new Object[] {chatId, cutoff, tail.getTimestamp(), tail.getId(), chatId, batchSize};
+
+      esql.begin();
+      boolean done = false;
+      try{
+         List<Messenger.Message> batch = esql.query(
+            "SELECT m.msg_timestamp, m.msg_id, u.login, m.msg_text FROM MESSAGE m LEFT JOIN USR u ON u.user_id = m.sender_id "
+            + "WHERE m.chat_id = ? AND m.msg_timestamp < ?" + newer
+            + " AND m.msg_id <> COALESCE((SELECT last_msg_id FROM CHAT_SUMMARY WHERE chat_id = ?), 0) "
+            + "ORDER BY m.msg_timestamp, m.msg_id LIMIT ? FOR UPDATE OF m", Messenger.MESSAGE, params);
+         archive.append(chatId, batch);
+         // only what was just archived
+         delete(chatId, batch);
+         done = true;
+         return batch.size();
+      }finally{
+         if (done) esql.commit(); else esql.rollback();
+      }//end try
+   }//end archiveBatch
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> <archive dir> [days] [batch size]
+    */
+   public static void main (String[] args) {
+      if (args.length < 4 || args.length > 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            MessageArchiver.class.getName () +
+            " <dbname> <port> <user> <archive dir> [days] [batch size]");
+         return;
+      }//end if
+
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      ConnectionPool pool = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         pool = new ConnectionPool(url, args[2], "", 1, 1, 60000L, 600000L);
+         MessageArchiver archiver = new MessageArchiver(new Messenger(pool), new MessageArchive(new File(args[3])));
+
+         long days = args.length > 4 ? Long.parseLong(args[4]) : 365L;
+         int batchSize = args.length > 5 ? Integer.parseInt(args[5]) : 1000;
+         Timestamp cutoff = new Timestamp(System.currentTimeMillis() - days * 24L * 60L * 60L * 1000L);
+
+         long start = System.nanoTime();
+         long n = archiver.archive(cutoff, batchSize);
+         System.out.println(String.format("Archived %d messages older than %s in %.2f s",
+                                          n, cutoff, (System.nanoTime() - start) / 1e9));
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }finally{
+         if (pool != null)
+            pool.close();
+      }//end try
+   }//end main
+
+}//end MessageArchiver
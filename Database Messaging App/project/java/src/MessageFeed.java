@@ -0,0 +1,498 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class pushes new messages to subscribed sessions. The MESSAGE
+ * insert trigger of sql/src/triggers.sql notifies chat_<chat_id> with the
+ * key of the new message; the feed LISTENs on the channels of the
+ * subscribed chats over one connection shared by every session of a pool
+ * (see shared()) and reads exactly the notified messages.
+ *
+ * The server sends a notification when the inserting transaction commits
+ * and in commit order, so a message that took a msg_id or a timestamp
+ * before another one but committed after it is still delivered, after it.
+ * The feed thread blocks on the connection until a notification arrives,
+ * so messages are pushed as soon as they commit.
+ *
+ * Only the feed thread uses the connection. A subscriber queues the
+ * channels it needs, wakes the feed thread with a NOTIFY on the feed's
+ * own channel and waits for the next LISTEN round, which sends every
+ * queued LISTEN and UNLISTEN in one round trip, so a storm of logins costs
+ * a round trip per round instead of one per chat of every login, one
+ * login after the other.
+ *
+ * When the connection fails the feed thread takes a new one and LISTENs
+ * again on every followed chat; messages committed in between are not
+ * pushed.
+ *
+ */
+public class MessageFeed {
+
+   /**
+    * Receives the new messages of the chats it subscribed to. Called on the
+    * feed thread, so it should return quickly.
+    */
+   public interface Listener {
+      void onMessage (int chatId, Messenger.Message message);
+   }//end Listener
+
+   /**
+    * Listeners of one chat.
+    */
+   private static class Subscription {
+      final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+   }//end Subscription
+
+   // feeds shared by the sessions of each pool
+   private static final Map<ConnectionPool, MessageFeed> SHARED = new HashMap<ConnectionPool, MessageFeed>();
+
+   private final ConnectionPool pool;
+   // the listening connection, replaced by the feed thread when it fails
+   private Connection conn;
+   private final long pollMillis;
+   private final Map<Integer, Subscription> chats = new HashMap<Integer, Subscription>();
+   // chats whose LISTEN or UNLISTEN the feed thread has yet to send
+   private final Set<Integer> toListen = new LinkedHashSet<Integer>();
+   private final Set<Integer> toUnlisten = new LinkedHashSet<Integer>();
+   // LISTEN rounds started and finished by the feed thread, the last that
+   // failed and why
+   private long listenRounds, listenedRounds, failedRound;
+   private SQLException listenError;
+   // channel that wakes the feed thread, null while it reconnects, and
+   // whether a subscriber sent a wake-up since the last round
+   private volatile String wakeChannel;
+   private boolean woken;
+   private final Thread thread;
+   private volatile boolean running = true;
+
+   /**
+    * Takes a connection from the pool for LISTEN and starts the feed thread.
+    *
+    * @param pool the pool to take the listening connection from
+    * @param pollMillis the longest the feed thread blocks waiting for a
+    * notification, and the time between two attempts to reconnect
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public MessageFeed (ConnectionPool pool, long pollMillis) throws SQLException {
+      this.pool = pool;
+      this.pollMillis = pollMillis;
+      connect();
+      this.thread = new Thread(new Runnable(){
+         public void run(){
+            loop();
+         }
+      }, "message-feed");
+      this.thread.setDaemon(true);
+      this.thread.start();
+   }//end MessageFeed
+
+   /**
+    * Returns the feed shared by the sessions of a pool, starting it on
+    * first use with the messenger.feed.pollMillis property (default 1000).
+    *
+    * @return the feed, or null if messenger.feed.pollMillis is 0
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public static MessageFeed shared (ConnectionPool pool) throws SQLException {
+      long pollMillis = Long.getLong("messenger.feed.pollMillis", 1000L);
+      if (pollMillis <= 0)
+         return null;
+      synchronized (SHARED){
+         MessageFeed f = SHARED.get(pool);
+         if (f == null){
+            f = new MessageFeed(pool, pollMillis);
+            SHARED.put(pool, f);
+         }//end if
+         return f;
+      }
+   }//end shared
+
+   /**
+    * Stops the shared feed of a pool, if any; call it before closing the
+    * pool.
+    */
+   public static void closeShared (ConnectionPool pool) {
+      MessageFeed f;
+      synchronized (SHARED){
+         f = SHARED.remove(pool);
+      }
+      if (f != null)
+         f.close();
+   }//end closeShared
+
+   /**
+    * Delivers the messages committed to a chat from now on.
+    *
+    * @param chatId the chat to follow
+    * @param listener receives the messages
+    * @throws java.sql.SQLException when the LISTEN fails
+    */
+   public void subscribe (int chatId, Listener listener) throws SQLException {
+      subscribe(Collections.singleton(chatId), listener);
+   }//end subscribe
+
+   /**
+    * Subscribes a listener to every chat the user belongs to.
+    *
+    * @param esql the session to look the chats up on
+    * @param currUser the logged-in user
+    * @param listener receives the messages
+    * @throws java.sql.SQLException when a query fails
+    */
+   public void subscribeAll (Messenger esql, String currUser, Listener listener) throws SQLException {
+      subscribe(Messenger.fetchChats(esql, currUser), listener);
+   }//end subscribeAll
+
+   /**
+    * Adds the listener to the chats and waits until the feed thread
+    * LISTENs on those that were not followed yet.
+    */
+   private void subscribe (Collection<Integer> chatIds, Listener listener) throws SQLException {
+      long round;
+      boolean wake;
+      synchronized (this){
+         boolean queued = false;
+         for (int chatId : chatIds){
+            Subscription sub = chats.get(chatId);
+            if (sub == null){
+               sub = new Subscription();
+               chats.put(chatId, sub);
+               // still LISTENed if its UNLISTEN was not sent yet
+               if (!toUnlisten.remove(chatId)){
+                  toListen.add(chatId);
+                  queued = true;
+               }//end if
+            }//end if
+            if (!sub.listeners.contains(listener))
+               sub.listeners.add(listener);
+         }//end for
+         if (!queued)
+            return;
+         // the first round that starts from now sends the LISTENs
+         round = listenRounds + 1;
+         wake = !woken;
+         woken = true;
+      }
+      if (wake)
+         wake();
+      synchronized (this){
+         try{
+            while (listenedRounds < round){
+               if (!running)
+                  throw new SQLException("The message feed is closed");
+               wait();
+            }//end while
+         }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while subscribing");
+         }//end try
+         if (failedRound >= round)
+            throw listenError;
+      }
+   }//end subscribe
+
+   /**
+    * Stops delivering a chat's messages to a listener.
+    */
+   public synchronized void unsubscribe (int chatId, Listener listener) throws SQLException {
+      Subscription sub = chats.get(chatId);
+      if (sub == null)
+         return;
+      sub.listeners.remove(listener);
+      if (sub.listeners.isEmpty()){
+         chats.remove(chatId);
+         // the feed thread UNLISTENs in its next round, notifications
+         // until then find no subscription
+         if (!toListen.remove(chatId))
+            toUnlisten.add(chatId);
+      }//end if
+   }//end unsubscribe
+
+   /**
+    * Removes a listener from every chat, e.g. when its user logs out.
+    */
+   public synchronized void unsubscribeAll (Listener listener) throws SQLException {
+      for (int chatId : new ArrayList<Integer>(chats.keySet()))
+         unsubscribe(chatId, listener);
+   }//end unsubscribeAll
+
+   /**
+    * Stops the feed thread and returns the connection to the pool.
+    */
+   public void close (){
+      running = false;
+      wake();
+      thread.interrupt();
+      try{
+         thread.join(pollMillis + 1000);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+      synchronized (this){
+         // subscribers still waiting for a round give up
+         notifyAll();
+         if (conn != null){
+            try{
+               execute("UNLISTEN *");
+            }catch (SQLException e){
+               // the connection is reset or discarded by the pool
+            }//end try
+            pool.release(conn);
+            conn = null;
+         }//end if
+         chats.clear();
+         toListen.clear();
+         toUnlisten.clear();
+      }
+   }//end close
+
+   private void loop (){
+      boolean failed = false;
+      while (running){
+         try{
+            if (failed)
+               reconnect();
+            failed = false;
+            listen();
+            poll();
+         }catch (SQLException e){
+            System.err.println("Message feed: " + e.getMessage());
+            failed = true;
+         }//end try
+         if (failed){
+            // tried again, on a new connection, after the interval
+            synchronized (this){
+               try{
+                  if (running)
+                     wait(pollMillis);
+               }catch (InterruptedException e){
+                  return;
+               }//end try
+            }
+         }//end if
+      }//end while
+   }//end loop
+
+   /**
+    * Takes a connection from the pool and LISTENs on the feed's own
+    * channel.
+    */
+   private void connect () throws SQLException {
+      conn = pool.borrow();
+      String channel = "feed_" + conn.unwrap(PGConnection.class).getBackendPID();
+      try{
+         execute("LISTEN " + channel);
+      }catch (SQLException e){
+         drop();
+         throw e;
+      }//end try
+      wakeChannel = channel;
+   }//end connect
+
+   /**
+    * Replaces a failed connection and queues the LISTENs of every
+    * followed chat for the next round.
+    */
+   private void reconnect () throws SQLException {
+      wakeChannel = null;
+      if (conn != null)
+         drop();
+      connect();
+      synchronized (this){
+         toListen.addAll(chats.keySet());
+         toUnlisten.clear();
+      }
+   }//end reconnect
+
+   /**
+    * Closes the connection, so that the pool discards it.
+    */
+   private void drop (){
+      try{
+         conn.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+      pool.release(conn);
+      conn = null;
+   }//end drop
+
+   /**
+    * Makes the feed thread return from its wait for notifications.
+    */
+   private void wake (){
+      String channel = wakeChannel;
+      // null while the feed thread reconnects, it starts a round after that
+      if (channel == null)
+         return;
+      Connection c = null;
+      try{
+         c = pool.borrow();
+         Statement stmt = c.createStatement();
+         try{
+            stmt.execute("NOTIFY " + channel);
+         }finally{
+            stmt.close();
+         }//end try
+      }catch (SQLException e){
+         // the round starts when the feed thread's wait times out
+      }finally{
+         pool.release(c);
+      }//end try
+   }//end wake
+
+   /**
+    * Sends the queued LISTENs and UNLISTENs in one round trip and wakes
+    * the subscribers waiting for them. A failed round is queued again.
+    */
+   private void listen () throws SQLException {
+      List<Integer> listen, unlisten;
+      long round;
+      synchronized (this){
+         listen = new ArrayList<Integer>(toListen);
+         unlisten = new ArrayList<Integer>(toUnlisten);
+         toListen.clear();
+         toUnlisten.clear();
+         woken = false;
+         round = ++listenRounds;
+      }
+      SQLException error = null;
+      if (!listen.isEmpty() || !unlisten.isEmpty()){
+         StringBuilder sql = new StringBuilder();
+         for (int chatId : unlisten)
+            sql.append("UNLISTEN ").append(channel(chatId)).append(';');
+         for (int chatId : listen)
+            sql.append("LISTEN ").append(channel(chatId)).append(';');
+         try{
+            execute(sql.toString());
+         }catch (SQLException e){
+            error = e;
+         }//end try
+      }//end if
+      synchronized (this){
+         if (error != null){
+            for (int chatId : listen)
+               if (chats.containsKey(chatId) && !toUnlisten.contains(chatId))
+                  toListen.add(chatId);
+            for (int chatId : unlisten)
+               if (!chats.containsKey(chatId) && !toListen.contains(chatId))
+                  toUnlisten.add(chatId);
+            failedRound = round;
+            listenError = error;
+         }//end if
+         listenedRounds = round;
+         notifyAll();
+      }
+      if (error != null)
+         throw error;
+   }//end listen
+
+   /**
+    * Waits for notifications, up to pollMillis unless a round is queued,
+    * and delivers the notified messages, per chat in commit order.
+    */
+   void poll () throws SQLException {
+      if (!running)
+         return;
+      boolean queued;
+      synchronized (this){
+         queued = !toListen.isEmpty() || !toUnlisten.isEmpty();
+      }
+      PGConnection pgconn = conn.unwrap(PGConnection.class);
+      // a subscriber that queues after this check wakes the thread up
+      PGNotification[] notes = queued ? pgconn.getNotifications() : pgconn.getNotifications((int) pollMillis);
+      if (notes == null)
+         return;
+      Map<Integer, List<String[]>> notified = new LinkedHashMap<Integer, List<String[]>>();
+      for (PGNotification note : notes){
+         String name = note.getName();
+         String[] key = note.getParameter().split(" ", 2);
+         if (!name.startsWith("chat_") || key.length < 2)
+            continue;
+         int chatId = Integer.parseInt(name.substring(5));
+         List<String[]> keys = notified.get(chatId);
+         if (keys == null){
+            keys = new ArrayList<String[]>();
+            notified.put(chatId, keys);
+         }//end if
+         keys.add(key);
+      }//end for
+      for (Map.Entry<Integer, List<String[]>> e : notified.entrySet()){
+         Subscription sub;
+         synchronized (this){
+            sub = chats.get(e.getKey());
+         }
+         if (sub != null)
+            deliver(e.getKey(), sub, e.getValue());
+      }//end for
+   }//end poll
+
+   /**
+    * @param keys {msg_id, msg_timestamp} of the messages, in commit order
+    */
+   private void deliver (int chatId, Subscription sub, List<String[]> keys) throws SQLException {
+      Integer[] ids = new Integer[keys.size()];
+      Timestamp from = null, to = null;
+      for (int i = 0; i < ids.length; ++i){
+         ids[i] = Integer.valueOf(keys.get(i)[0]);
+         Timestamp ts = Timestamp.valueOf(keys.get(i)[1]);
+         if (from == null || ts.before(from))
+            from = ts;
+         if (to == null || ts.after(to))
+            to = ts;
+      }//end for
+      PreparedStatement stmt = pool.statementCache(conn).prepare(
+         "SELECT m.msg_timestamp, m.msg_id, u.login, m.msg_text FROM MESSAGE m LEFT JOIN USR u ON u.user_id = m.sender_id "
+         + "WHERE m.chat_id = ? AND m.msg_timestamp BETWEEN ? AND ? AND m.msg_id = ANY (?)");
+      // the bounds on msg_timestamp prune the other partitions
+      stmt.setInt(1, chatId);
+      stmt.setTimestamp(2, from);
+      stmt.setTimestamp(3, to);
+      stmt.setArray(4, conn.createArrayOf("int4", ids));
+      ResultSet rs = stmt.executeQuery();
+      Map<Integer, Messenger.Message> fresh = new HashMap<Integer, Messenger.Message>();
+      while (rs.next()){
+         Messenger.Message m = Messenger.MESSAGE.map(rs);
+         fresh.put(m.getId(), m);
+      }//end while
+      rs.close();
+      // a message deleted since its commit is skipped
+      for (Integer id : ids){
+         Messenger.Message m = fresh.get(id);
+         if (m != null)
+            for (Listener l : sub.listeners)
+               l.onMessage(chatId, m);
+      }//end for
+   }//end deliver
+
+   private void execute (String sql) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try{
+         stmt.execute(sql);
+      }finally{
+         stmt.close();
+      }
+   }//end execute
+
+   private static String channel (int chatId){
+      return "chat_" + chatId;
+   }
+
+}//end MessageFeed
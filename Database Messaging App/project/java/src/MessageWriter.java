@@ -0,0 +1,412 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class commits the messages of many sessions in shared
+ * transactions (group commit), so that a burst of NewMessage calls costs
+ * one WAL flush per batch instead of one per message.
+ *
+ * Senders put their message into a bounded queue and wait. A writer
+ * thread takes up to maxBatch messages, waiting at most maxWaitMillis
+ * after the first one for more, and inserts them with one INSERT over
+ * unnest() of array parameters in one transaction, the same statement for
+ * every batch size. The msg_ids are drawn from the sequence beforehand,
+ * so each sender is acknowledged with its own msg_id once the batch
+ * commits. A message whose sender is not a member of the chat is
+ * not inserted and acknowledged with 0. If the batch fails, its messages
+ * are retried one per transaction, so one bad message only fails itself.
+ *
+ * When the queue is full, senders wait up to offerMillis for space and
+ * then fail, which slows the sessions down to what the database commits.
+ *
+ * One writer is shared by all sessions of a connection pool; it is off
+ * unless messenger.writer.enabled is true (see shared()).
+ *
+ */
+public class MessageWriter {
+
+   /**
+    * A queued message, completed when its batch commits or fails.
+    */
+   public static class Pending {
+      final int senderId;
+      final int chatId;
+      final String text;
+      final Timestamp timestamp;
+      final long queuedNanos = System.nanoTime();
+      private final CountDownLatch done = new CountDownLatch(1);
+      private int msgId;
+      private SQLException error;
+
+      Pending (int senderId, int chatId, String text, Timestamp timestamp){
+         this.senderId = senderId;
+         this.chatId = chatId;
+         this.text = text;
+         this.timestamp = timestamp;
+      }
+
+      boolean isDone (){
+         return done.getCount() == 0;
+      }
+
+      void complete (int msgId, SQLException error){
+         this.msgId = msgId;
+         this.error = error;
+         done.countDown();
+      }
+
+      /**
+       * Waits until the message is committed.
+       *
+       * @return the msg_id of the message, or 0 if the sender is not a
+       * member of the chat
+       * @throws java.sql.SQLException when the message could not be inserted
+       */
+      public int await () throws SQLException {
+         try{
+            done.await();
+         }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the message to be committed");
+         }//end try
+         if (error != null)
+            throw error;
+         return msgId;
+      }//end await
+   }//end Pending
+
+   // writers shared by the sessions of each pool
+   private static final Map<ConnectionPool, MessageWriter> SHARED = new HashMap<ConnectionPool, MessageWriter>();
+
+   private final Messenger esql;
+   private final BlockingQueue<Pending> queue;
+   private final int maxBatch;
+   private final long maxWaitMillis;
+   private final long offerMillis;
+   private final Thread thread;
+   private volatile boolean running = true;
+   // submits hold the read lock while they queue; close() and the final
+   // drain take the write lock, so nothing is queued after the drain
+   private final ReadWriteLock closing = new ReentrantReadWriteLock();
+
+   // metrics
+   private final AtomicLong batches = new AtomicLong();
+   private final AtomicLong batched = new AtomicLong();
+   private final AtomicLong messages = new AtomicLong();
+   private final AtomicLong maxBatchSize = new AtomicLong();
+   private final AtomicLong rejected = new AtomicLong();
+   private final AtomicLong failedBatches = new AtomicLong();
+   private final AtomicLong depthSamples = new AtomicLong();
+   private final AtomicLong depthSum = new AtomicLong();
+   private final AtomicLong maxDepth = new AtomicLong();
+   private final LatencyHistogram ackLatency = new LatencyHistogram();
+
+   /**
+    * Starts the writer thread.
+    *
+    * @param pool the pool the batches are written through
+    * @param capacity maximum number of queued messages
+    * @param maxBatch maximum number of messages per transaction
+    * @param maxWaitMillis longest wait for a batch to fill after its first message
+    * @param offerMillis longest wait of a sender for space in the queue
+    */
+   public MessageWriter (ConnectionPool pool, int capacity, int maxBatch, long maxWaitMillis, long offerMillis) {
+      this.esql = new Messenger(pool);
+      this.queue = new ArrayBlockingQueue<Pending>(capacity);
+      this.maxBatch = maxBatch;
+      this.maxWaitMillis = maxWaitMillis;
+      this.offerMillis = offerMillis;
+      this.thread = new Thread(new Runnable(){
+         public void run(){
+            loop();
+         }
+      }, "message-writer");
+      this.thread.setDaemon(true);
+      this.thread.start();
+   }//end MessageWriter
+
+   /**
+    * Returns the writer shared by the sessions of a pool, starting it on
+    * first use with the messenger.writer.* properties: queue (default
+    * 10000), batch (100), waitMillis (5) and offerMillis (1000).
+    *
+    * @return the writer, or null unless messenger.writer.enabled is true
+    */
+   public static MessageWriter shared (ConnectionPool pool) {
+      if (!Boolean.getBoolean("messenger.writer.enabled"))
+         return null;
+      synchronized (SHARED){
+         MessageWriter w = SHARED.get(pool);
+         if (w == null){
+            w = new MessageWriter(pool,
+                                  Integer.getInteger("messenger.writer.queue", 10000),
+                                  Integer.getInteger("messenger.writer.batch", 100),
+                                  Long.getLong("messenger.writer.waitMillis", 5L),
+                                  Long.getLong("messenger.writer.offerMillis", 1000L));
+            SHARED.put(pool, w);
+         }//end if
+         return w;
+      }
+   }//end shared
+
+   /**
+    * Commits what is queued and stops the shared writer of a pool, if
+    * any; call it before closing the pool.
+    */
+   public static void closeShared (ConnectionPool pool) {
+      MessageWriter w;
+      synchronized (SHARED){
+         w = SHARED.remove(pool);
+      }
+      if (w != null)
+         w.close();
+   }//end closeShared
+
+   /**
+    * Queues a message, waiting up to offerMillis for space.
+    *
+    * @return the pending message, to await its msg_id
+    * @throws java.sql.SQLException when the queue stays full or the writer is closed
+    */
+   public Pending submit (int senderId, int chatId, String text, Timestamp timestamp) throws SQLException {
+      Pending p = new Pending(senderId, chatId, text, timestamp);
+      closing.readLock().lock();
+      try{
+         if (!running)
+            throw new SQLException("The message writer is closed");
+         if (!queue.offer(p, offerMillis, TimeUnit.MILLISECONDS)){
+            rejected.incrementAndGet();
+            throw new SQLException("Too many messages waiting to be written, try again later");
+         }//end if
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while queueing the message");
+      }finally{
+         closing.readLock().unlock();
+      }//end try
+      return p;
+   }//end submit
+
+   /**
+    * Queues a message and waits until its batch commits.
+    *
+    * @return the msg_id, or 0 if the sender is not a member of the chat
+    */
+   public int send (int senderId, int chatId, String text, Timestamp timestamp) throws SQLException {
+      return submit(senderId, chatId, text, timestamp).await();
+   }
+
+   /**
+    * Stops taking messages, commits the queued ones and stops the thread.
+    */
+   public void close (){
+      closing.writeLock().lock();
+      try{
+         running = false;
+      }finally{
+         closing.writeLock().unlock();
+      }//end try
+      try{
+         thread.join();
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end close
+
+   private void loop (){
+      List<Pending> batch = new ArrayList<Pending>(maxBatch);
+      while (running || !queue.isEmpty()){
+         try{
+            Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null)
+               continue;
+            long depth = queue.size() + 1;
+            batch.add(first);
+            long deadline = System.nanoTime() + maxWaitMillis * 1000000L;
+            while (batch.size() < maxBatch){
+               queue.drainTo(batch, maxBatch - batch.size());
+               long remaining = deadline - System.nanoTime();
+               if (batch.size() >= maxBatch || remaining <= 0)
+                  break;
+               Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+               if (next == null)
+                  break;
+               batch.add(next);
+            }//end while
+            depthSamples.incrementAndGet();
+            depthSum.addAndGet(depth);
+            updateMax(maxDepth, depth);
+            flush(batch);
+         }catch (InterruptedException e){
+            // close() lets the queue drain
+         }catch (RuntimeException e){
+            // never leave a sender waiting
+            for (Pending p : batch)
+               if (!p.isDone())
+                  p.complete(0, new SQLException("Message not written: " + e));
+         }finally{
+            batch.clear();
+         }//end try
+      }//end while
+      // submits are refused by now; never leave a sender waiting
+      closing.writeLock().lock();
+      try{
+         for (Pending p = queue.poll(); p != null; p = queue.poll())
+            p.complete(0, new SQLException("The message writer is closed"));
+      }finally{
+         closing.writeLock().unlock();
+      }//end try
+   }//end loop
+
+   private void flush (List<Pending> batch){
+      try{
+         insert(batch);
+      }catch (SQLException e){
+         failedBatches.incrementAndGet();
+         // one transaction per message, so that only the bad ones fail
+         for (Pending p : batch){
+            List<Pending> one = new ArrayList<Pending>(1);
+            one.add(p);
+            try{
+               insert(one);
+            }catch (SQLException e1){
+               p.complete(0, e1);
+            }//end try
+         }//end for
+      }//end try
+   }//end flush
+
+   /**
+    * Inserts a batch in one transaction and acknowledges it once committed.
+    */
+   private void insert (List<Pending> batch) throws SQLException {
+      List<Integer> ids;
+      Set<Integer> found;
+      esql.begin();
+      boolean done = false;
+      try{
+         ids = esql.query("SELECT nextval('message_msg_id_seq') FROM generate_series(1, ?)", Messenger.FIRST_INT, batch.size());
+         Integer[] id = ids.toArray(new Integer[batch.size()]);
+         String[] text = new String[batch.size()];
+         Timestamp[] ts = new Timestamp[batch.size()];
+         Integer[] sender = new Integer[batch.size()];
+         Integer[] chat = new Integer[batch.size()];
+         for (int i = 0; i < batch.size(); ++i){
+            Pending p = batch.get(i);
+            text[i] = p.text;
+            ts[i] = p.timestamp;
+            sender[i] = p.senderId;
+            chat[i] = p.chatId;
+         }//end for
+         // one statement for every batch size; only members' messages are
+         // inserted, and RETURNING tells which
+         found = new HashSet<Integer>(esql.query(
+            "INSERT INTO MESSAGE (msg_id, msg_text, msg_timestamp, sender_id, chat_id) "
+            + "SELECT v.id, v.text, v.ts, l.member_id, l.chat_id FROM unnest(?, ?, ?, ?, ?) v(id, text, ts, sender, chat), CHAT_LIST l "
+            + "WHERE l.chat_id = v.chat AND l.member_id = v.sender RETURNING msg_id", Messenger.FIRST_INT,
+            esql.createArray("int4", id), esql.createArray("varchar", text), esql.createArray("timestamp", ts),
+            esql.createArray("int4", sender), esql.createArray("int4", chat)));
+         done = true;
+      }finally{
+         if (done) esql.commit(); else esql.rollback();
+      }//end try
+
+      batches.incrementAndGet();
+      batched.addAndGet(batch.size());
+      messages.addAndGet(found.size());
+      updateMax(maxBatchSize, batch.size());
+      for (int i = 0; i < batch.size(); ++i){
+         Pending p = batch.get(i);
+         int id = ids.get(i);
+         p.complete(found.contains(id) ? id : 0, null);
+         ackLatency.recordSince(p.queuedNanos);
+      }//end for
+   }//end insert
+
+   private static void updateMax (AtomicLong max, long value){
+      long m;
+      while (value > (m = max.get()) && !max.compareAndSet(m, value))
+         ;
+   }//end updateMax
+
+   /**
+    * @return number of committed batches
+    */
+   public long getBatches (){
+      return batches.get();
+   }
+
+   /**
+    * @return number of messages inserted
+    */
+   public long getMessages (){
+      return messages.get();
+   }
+
+   /**
+    * @return average number of submitted messages per committed batch,
+    * inserted or not
+    */
+   public double getAverageBatchSize (){
+      long b = batches.get();
+      return b == 0 ? 0.0 : (double) batched.get() / b;
+   }
+
+   public long getMaxBatchSize (){
+      return maxBatchSize.get();
+   }
+
+   /**
+    * @return number of messages refused because the queue stayed full
+    */
+   public long getRejected (){
+      return rejected.get();
+   }
+
+   /**
+    * @return number of batches that failed and were retried message by message
+    */
+   public long getFailedBatches (){
+      return failedBatches.get();
+   }
+
+   /**
+    * @return number of messages waiting right now
+    */
+   public int getQueueDepth (){
+      return queue.size();
+   }
+
+   /**
+    * @return average number of messages waiting when a batch was started
+    */
+   public double getAverageQueueDepth (){
+      long n = depthSamples.get();
+      return n == 0 ? 0.0 : (double) depthSum.get() / n;
+   }
+
+   public long getMaxQueueDepth (){
+      return maxDepth.get();
+   }
+
+   /**
+    * @return time from queueing a message to its acknowledgement
+    */
+   public LatencyHistogram getAckLatency (){
+      return ackLatency;
+   }
+
+}//end MessageWriter
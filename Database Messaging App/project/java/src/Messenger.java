@@ -1,1038 +1,2331 @@
-/*
- * Template JAVA User Interface
- * =============================
- *
- * Database Management Systems
- * Department of Computer Science &amp; Engineering
- * University of California - Riverside
- *
- * Target DBMS: 'Postgres'
- *
- */
-
-
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
-import java.io.File;
-import java.io.FileReader;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.util.List;
-import java.util.ArrayList;
-import java.text.SimpleDateFormat;
-import java.util.*;
-import java.text.*;
-
-/**
- * This class defines a simple embedded SQL utility class that is designed to
- * work with PostgreSQL JDBC drivers.
- *
- */
-public class Messenger {
-
-   // reference to physical database connection.
-   private Connection _connection = null;
-
-   // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
-
-   /**
-    * Creates a new instance of Messenger
-    *
-    * @param hostname the MySQL or PostgreSQL server hostname
-    * @param database the name of the database
-    * @param username the user name used to login to the database
-    * @param password the user login password
-    * @throws java.sql.SQLException when failed to make a connection.
-    */
-   public Messenger (String dbname, String dbport, String user, String passwd) throws SQLException {
-
-      System.out.print("Connecting to database...");
-      try{
-         // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-         System.out.println ("Connection URL: " + url + "\n");
-
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
-         System.out.println("Done");
-      }catch (Exception e){
-         System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
-         System.out.println("Make sure you started postgres on this machine");
-         System.exit(-1);
-      }//end catch
-   }//end Messenger
-
-   /**
-    * Method to execute an update SQL statement.  Update SQL instructions
-    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
-    *
-    * @param sql the input SQL string
-    * @throws java.sql.SQLException when update failed
-    */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
-
-      // close the instruction
-      stmt.close ();
-   }//end executeUpdate
-
-   /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and outputs the results to
-    * standard out.
-    *
-    * @param query the input query string
-    * @return the number of rows returned
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-   if(outputHeader){
-      for(int i = 1; i <= numCol; i++){
-    System.out.print(rsmd.getColumnName(i) + "\t");
-      }
-      System.out.println();
-      outputHeader = false;
-   }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
-   }//end executeQuery
-
-   /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the results as
-    * a list of records. Each record in turn is a list of attribute values
-    *
-    * @param query the input query string
-    * @return the query result as a list of records
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-      // creates a statement object 
-      Statement stmt = this._connection.createStatement (); 
- 
-      // issues the query instruction 
-      ResultSet rs = stmt.executeQuery (query); 
- 
-      /* 
-       ** obtains the metadata object for the returned result set.  The metadata 
-       ** contains row and column info. 
-       */ 
-      ResultSetMetaData rsmd = rs.getMetaData (); 
-      int numCol = rsmd.getColumnCount (); 
-      int rowCount = 0; 
- 
-      // iterates through the result set and saves the data returned by the query. 
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>(); 
-      while (rs.next()){
-          List<String> record = new ArrayList<String>(); 
-         for (int i=1; i<=numCol; ++i) 
-            record.add(rs.getString (i)); 
-         result.add(record); 
-      }//end while 
-      stmt.close (); 
-      return result; 
-   }//end executeQueryAndReturnResult
-
-   /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the number of results
-    *
-    * @param query the input query string
-    * @return the number of rows returned
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
-
-       int rowCount = 0;
-
-       // iterates through the result set and count nuber of results.
-       if(rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
-   }
-
-   /**
-    * Method to fetch the last value from sequence. This
-    * method issues the query to the DBMS and returns the current 
-    * value of sequence used for autogenerated keys
-    *
-    * @param sequence name of the DB sequence
-    * @return current value of a sequence
-    * @throws java.sql.SQLException when failed to execute the query
-    */
-   public int getCurrSeqVal(String sequence) throws SQLException {
-  Statement stmt = this._connection.createStatement ();
-  
-  ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-  if (rs.next())
-    return rs.getInt(1);
-  return -1;
-   }
-
-   /**
-    * Method to close the physical connection if it is open.
-    */
-   public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end trye
-   }//end cleanup
-
-   /**
-    * The main execution method
-    *
-    * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
-    */
-   public static void main (String[] args) {
-      if (args.length != 3) {
-         System.err.println (
-            "Usage: " +
-            "java [-classpath <classpath>] " +
-            Messenger.class.getName () +
-            " <dbname> <port> <user>");
-         return;
-      }//end if
-      
-      Greeting();
-      Messenger esql = null;
-      try{
-         // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
-         // instantiate the Messenger object and creates a physical
-         // connection.
-         String dbname = args[0];
-         String dbport = args[1];
-         String user = args[2];
-         esql = new Messenger (dbname, dbport, user, "");
-
-         boolean keepon = true;
-         while(keepon) {
-            // These are sample SQL statements
-            System.out.println("MAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("3. < EXIT");
-            String authorisedUser = null;
-            switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
-               case 3: keepon = false; break;
-               default : System.out.println("Please enter a number from 1-3. Thank you"); break;
-            }//end switch
-            if (authorisedUser != null) {
-              boolean usermenu = true;
-                mainMenu();
-                boolean canDelete = false;
-                while(usermenu){
-                switch (readChoice()){
-                   case 0: mainMenu(); break;
-                   case 1: AddToContact(esql, authorisedUser); break;
-                   case 2: AddToBlocked(esql, authorisedUser); break;
-                   case 3: ListContacts(esql, authorisedUser); break;
-                   case 4: ListBlocked(esql, authorisedUser); break;
-                   case 5: BrowseChats(esql, authorisedUser); break;
-                   case 6: BrowseMessages(esql, authorisedUser); break;
-                   case 7: CreateChat(esql, authorisedUser); break;
-                   case 8: AddtoChat(esql, authorisedUser); break;
-                   case 9: NewMessage(esql, authorisedUser); break;
-                   case 10: EditMessage(esql, authorisedUser); break;
-                   case 11: DeleteMessage(esql, authorisedUser); break;
-                   case 12: DeleteContact(esql, authorisedUser); break;
-                   case 13: DeleteBlocked(esql, authorisedUser); break;
-                   case 14: DeleteChat(esql, authorisedUser); break;
-                   case 15: canDelete = DeleteAccount(esql, authorisedUser);
-                        if(canDelete == true)
-                        {
-                                usermenu = false;
-                                 break;
-                        }
-                        else
-                            break;
-                   case 16: usermenu = false; break;
-                   case 17: usermenu = false; keepon = false; break;
-                   default : System.out.println("Please enter a number from 0-15. Thank you"); break;
-                }
-              }
-            }
-         }//end while
-      }catch(Exception e) {
-         System.err.println (e.getMessage ());
-      }finally{
-         // make sure to cleanup the created table and close the connection.
-         try{
-            if(esql != null) {
-               System.out.print("Disconnecting from database...");
-               esql.cleanup ();
-               System.out.println("Done\n\nBye !");
-            }//end if
-         }catch (Exception e) {
-            // ignored.
-         }//end try
-      }//end try
-   }//end main
-  
-   public static void Greeting(){
-      System.out.println(
-         "\n\n*******************************************************\n" +
-         "              User Interface                       \n" +
-         "*******************************************************\n");
-   }//end Greeting
-public static void mainMenu() {
-        System.out.println("MAIN MENU");
-        System.out.println("---------");
-        System.out.println("0. Redisplay Main Menu");
-        System.out.println("1. Add to contact list");
-        System.out.println("2. Add to blocked list");
-        System.out.println("3. Browse contact list");
-        System.out.println("4. Browse blocked list");
-        System.out.println("5. Browse chats");
-        System.out.println("6. Browse messages");
-        System.out.println("7. Start new chat");
-        System.out.println("8. Add to chat"); //new
-        System.out.println("9. New Message");
-        System.out.println("10. Edit Message");
-        System.out.println("11. Delete Message");
-        System.out.println("12. Delete user from contacts list");
-        System.out.println("13. Delete user from blocked list");
-        System.out.println("14. Delete chat");
-        System.out.println("15. Delete Account");
-        System.out.println(".........................");
-        System.out.println("16. Log out");
-        System.out.println("17. Exit program");
-}
-
-   /*
-    * Reads the users choice given from the keyboard
-    * @int
-    **/
-   public static int readChoice() {
-      int input;
-      // returns only if a correct value is given.
-      do {
-         System.out.print("Please make your choice: ");
-         try { // read the integer, parse it and break.
-            input = Integer.parseInt(in.readLine());
-            break;
-         }catch (Exception e) {
-            System.out.println("Your input is invalid!");
-            continue;
-         }//end try
-      }while (true);
-      return input;
-   }//end readChoice
-
-   /*
-    * Creates a new user with privided login, passowrd and phoneNum
-    * An empty block and contact list would be generated and associated with a user
-    **/
-   public static void CreateUser(Messenger esql){
-      try{
- System.out.print("\tEnter user login: ");
-         String login = in.readLine();
-         System.out.print("\tEnter user password: ");
-         String password = in.readLine();
-         System.out.print("\tEnter user phone: ");
-         String phone = in.readLine();
-
-        //check if user exists
-        String q2 = String.format("SELECT * FROM USR WHERE login = '%s'", login);
-        int chkUsr = esql.executeQuery(q2);
-
-        //if user is not taken
-        if(chkUsr > 0){
-                //Creating empty contact\block lists for a user     
-                esql.executeUpdate("INSERT INTO USER_LIST(list_type) VALUES ('block')");
-                int block_id = esql.getCurrSeqVal("user_list_list_id_seq");
-                esql.executeUpdate("INSERT INTO USER_LIST(list_type) VALUES ('contact')");
-                int contact_id = esql.getCurrSeqVal("user_list_list_id_seq");
-
-                String query = String.format("INSERT INTO USR (phoneNum, login, password, block_list, contact_list) VALUES ('%s','%s','%s',%s,%s)", phone, login, password, block_id, contact_id);
-
-                esql.executeUpdate(query);
-                System.out.println ("User successfully created!");
-        }
-        else{
-                System.out.println("User is already taken");
-        }
-
-      }catch(Exception e){
-         System.err.println (e.getMessage ());
-      }
-   }//end
-   
-   /*
-    * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
-    **/
-   public static String LogIn(Messenger esql){
-      try{
-         System.out.print("\tEnter user login: ");
-         String login = in.readLine();
-         System.out.print("\tEnter user password: ");
-         String password = in.readLine();
-        
-         String query = String.format("SELECT * FROM Usr WHERE login = '%s' AND password = '%s'", login, password);
-         int userNum = esql.executeQuery(query);
-   if (userNum > 0)
-    return login;
-         return null;
-      }catch(Exception e){
-         System.err.println (e.getMessage ());
-         return null;
-      }
-   }//end
-   
-
-   public static void AddToContact(Messenger esql, String currUser){
-       try{
-           System.out.print("Enter the login name of the user: ");
-           String contact = in.readLine();
-
-           if(currUser.equals(contact)){
-               System.out.print("\n---------------------\nYou cannot add yourself!\n---------------------\n\n");
-               return;
-           }
-
-           //Check if the user is in database
-           String q = String.format("SELECT * FROM Usr WHERE login = '%s'", contact);
-           int userNum = esql.executeQuery(q);
-
-           //If user is in database, then add to the current user's contact list 
-           if(userNum > 0){
-                //check if user in the block list
-               String q5 = String.format("SELECT list_member FROM USR, USER_LIST_CONTAINS WHERE list_member = '%s' AND block_list = list_id",contact);
-               int chkIfBlk = esql.executeQuery(q5);
-                //check if user is in the contact list already
-               String q6 = String.format("SELECT list_member FROM USR, USER_LIST_CONTAINS WHERE list_member = '%s' AND contact_list = list_id", contact);
-               int chkIfContact = esql.executeQuery(q6);
-
-                if(chkIfBlk > 0){
-                   System.out.println("\n----------------------------------------\n");
-                   System.out.println("This person is on your blocked list, please delete this person off your block list to add");
-                   System.out.println("\n----------------------------------------\n");
-                }
-               else if(chkIfContact > 0){
-                        System.out.println("\n----------------------------------------\n");
-                        System.out.println("This person is in your contact list. Cannot add.");
-                        System.out.println("\n----------------------------------------\n");
-                }
-               else{
-                   String q2 = String.format("SELECT contact_list FROM USR WHERE login = '%s'", currUser);
-                   List<List<String>> idQuery = esql.executeQueryAndReturnResult(q2);
-                   String ID = "";
-                   for(String s : idQuery.get(0)){
-                       ID += s + "\t";
-                   }
-                   //System.out.print("Contactid: " + ID + "\n");//ID.substring(1, ID.length()-1) + "\n");
-                   String q3 = String.format("INSERT INTO USER_LIST_CONTAINS(list_id, list_member) VALUES (%s,'%s')",ID, contact);
-                   esql.executeUpdate(q3);
-                   
-                   System.out.print("\n----------------------------------------\n");
-                   System.out.println("User successfully added!");
-                   System.out.print("----------------------------------------\n");
-               }
-           }
-           else{
-               System.out.print("\n----------------------------------------\n");
-               System.out.println("User does not exist!");
-               System.out.print("----------------------------------------\n");
-           }
-       }catch(Exception e){
-         System.err.println (e.getMessage ());
-         return;
-      }
-       
-   }//end
-   
-   public static void AddToBlocked(Messenger esql, String currUser){
-       try{
-           System.out.print("Enter the login name of the user: ");
-           String contact = in.readLine();
-           
-           if(currUser.equals(contact)){
-               System.out.print("\n---------------------\nYou cannot block yourself!\n---------------------\n\n");
-               return;
-           }
-           //Check if the user is in database
-           String q = String.format("SELECT * FROM Usr WHERE login = '%s'", contact);
-           int userNum = esql.executeQuery(q);
-    
-            
-           //If user is in database, then add to the current user's blocked list 
-           if(userNum > 0){
-                //check if contact is in contacts
-                String q4 = String.format("SELECT list_member FROM USR, USER_LIST_CONTAINS WHERE list_member = '%s' AND contact_list = list_id", contact);
-                int chkContact = esql.executeQuery(q4);
-
-                String q5 = String.format("SELECT list_member FROM USR, USER_LIST_CONTAINS WHERE list_member = '%s' AND block_list = list_id", contact);
-                int chkBlk = esql.executeQuery(q5);
-
-                //if it is in contact already, delete from contact and then add to blocked
-                if(chkContact > 0)
-                {
-                        String q6 = String.format("SELECT contact_List FROM USR WHERE login = '%s'", currUser);
-                        List<List<String>> idQuery = esql.executeQueryAndReturnResult(q6);
-                        String ID = "";
-                        for(String s : idQuery.get(0)){
-                                ID += s + "\t";
-                        }
-
-                        String q7 = String.format("SELECT list_member FROM USER_LIST_CONTAINS WHERE list_id = %s AND list_member = '%s'", ID, contact);
-                        int checkIfInList = esql.executeQuery(q7);
-
-                        if(checkIfInList > 0){
-                                String q8 = String.format("DELETE FROM USER_LIST_CONTAINS WHERE list_id = %s AND list_member = '%s'", ID, contact);
-                                esql.executeUpdate(q8);
-                        }
-
-                        String q9 = String.format("SELECT block_List FROM USR WHERE login = '%s'", currUser);
-                        List<List<String>> idQuery2 = esql.executeQueryAndReturnResult(q9);
-                        String ID2 = "";
-                        for(String s : idQuery2.get(0)){
-                                ID2 += s + "\t";
-                        }
-
-                        String q10 = String.format("INSERT INTO USER_LIST_CONTAINS(list_id, list_member) VALUES (%s,'%s')",ID2, contact);
-                        esql.executeUpdate(q10);
-
-                        System.out.print("\n----------------------------------------\n");
-                        System.out.println("User successfully added!");
-                        System.out.print("----------------------------------------\n");
-                }
-                else if(chkBlk > 0)
-                {
-                        System.out.println("\n----------------------------------------\n");
-                        System.out.println("This contact is already on your blocked list");
-                        System.out.println("\n----------------------------------------\n");
-                }
-    else{
-                String q2 = String.format("SELECT block_List FROM USR WHERE login = '%s'", currUser);
-                List<List<String>> idQuery = esql.executeQueryAndReturnResult(q2);
-                String ID = "";
-                for(String s : idQuery.get(0)){
-                    ID += s + "\t";
-                }
-            
-               String q3 = String.format("INSERT INTO USER_LIST_CONTAINS(list_id, list_member) VALUES (%s,'%s')",ID, contact);
-               esql.executeUpdate(q3);
-               
-               System.out.print("\n----------------------------------------\n");
-               System.out.println("User successfully added!");
-               System.out.print("----------------------------------------\n");
-    }
-           }
-           else{
-               System.out.print("\n----------------------------------------\n");
-               System.out.println("User does not exist!");
-               System.out.print("----------------------------------------\n");
-           }
-       }catch(Exception e){
-         System.err.println (e.getMessage ());
-         return;
-        }
-   }
-   
-   public static void ListContacts(Messenger esql, String currUser){
-       try{
-           System.out.print("\n----------------------------------------\n");
-           //Gets current user contact id
-           String q2 = String.format("SELECT contact_list FROM USR WHERE login = '%s'", currUser);
-           List<List<String>> idQuery = esql.executeQueryAndReturnResult(q2);
-           String ID = "";
-           for(String s : idQuery.get(0)){
-               ID += s + "\t";
-           }
-           
-           //Select contacts with current user id
-           String q = String.format("SELECT list_member as Contacts, status FROM USER_LIST_CONTAINS, USR WHERE list_id = %s and login = '%s'", ID, currUser);
-           esql.executeQueryAndPrintResult(q); 
-           System.out.print("----------------------------------------\n");
-       }catch(Exception e){
-           System.err.println(e.getMessage());
-           return;
-       }
-   }//end
-   
-   public static void ListBlocked(Messenger esql, String currUser){
-       try{
-           System.out.print("\n----------------------------------------\n");
-           //Gets current user contact id
-           String q2 = String.format("SELECT block_list FROM USR WHERE login = '%s'", currUser);
-           List<List<String>> idQuery = esql.executeQueryAndReturnResult(q2);
-           String ID = "";
-           for(String s : idQuery.get(0)){
-               ID += s + "\t";
-           }
-           
-           //Select blocked with current user id
-           String q = String.format("SELECT list_member as blocked FROM USER_LIST_CONTAINS WHERE list_id = %s", ID);
-           esql.executeQueryAndPrintResult(q); 
-           System.out.print("----------------------------------------\n");
-       }catch(Exception e){
-           System.err.println(e.getMessage());
-           return;
-       }
-   }
-   
-   public static void NewMessage(Messenger esql, String currUser){
-       try{
-           System.out.print("Enter a chat ID to send a message to: ");
-           String chatID = in.readLine();
-
-           //Check if the user is apart of the chatID 
-           String q = String.format("SELECT * FROM CHAT_LIST WHERE chat_id=%s AND member='%s'", chatID, currUser);
-           int chkUser = esql.executeQuery(q);
-
-           if(chkUser > 0){
-               System.out.print("Enter your message: ");
-               String msg = in.readLine();
-
-               //int MsgID = esql.getCurrSeqVal("Message_msg_id_seq"); //Message_msg_id_seq????
-               //System.out.println("Your message ID is: " + MsgID + "\n");
-
-               String timeStamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss Z").format(new Date());
-               System.out.println("msg: " + msg + " time: " +  timeStamp + " currUser: " + currUser + " chatID: " + chatID);
-               String q2 = String.format("INSERT INTO MESSAGE (msg_text, msg_timestamp, sender_login, chat_id) VALUES ('%s', '%s', '%s', %s)", msg, timeStamp, currUser, chatID);
-               esql.executeUpdate(q2);
-           }
-           else{
-               System.out.print("You are not apart of this chat!\n");
-           }
-       }catch(Exception e){
-           System.err.println(e.getMessage());
-           return;
-       }
-
-   }
-   
-   public static void addUserToChat(Messenger esql, String currUser, int chatID){
-       try{
-           
-           //Check if user is the inital sender
-           String q = String.format("SELECT * FROM CHAT WHERE chat_id=%s AND init_sender='%s'", chatID, currUser);
-           int chk = esql.executeQuery(q);
-           
-           if(chk > 0){
-               System.out.print("Enter in user (login name) that you want to add: ");
-               String userToAdd = in.readLine();
-               
-               //Check if user in db
-               String q2 = String.format("SELECT * FROM Usr WHERE login = '%s'", userToAdd);
-               int chkUser = esql.executeQuery(q2);
-               
-               if(chkUser > 0){
-                   String q3 = String.format("INSERT INTO CHAT_LIST(chat_id, member) VALUES (%s, '%s')", chatID, userToAdd);
-                   esql.executeUpdate(q3);
-                   System.out.print("User added to chat list!\n");
-               }
-               else{
-                   System.out.print("Invalid User!\n");
-               }
-           }
-           else{
-               System.out.println("Invalid chat ID or you are not the initial sender of this chat");
-           }
-           
-       }catch(Exception e){
-           System.err.println(e.getMessage());
-           return;
-       }
-   }
-   
-   public static void CreateChat(Messenger esql, String currUser){       
-       try{
-           int numPeople = 0;
-
-           String q1 = String.format("INSERT INTO CHAT(chat_type, init_sender) VALUES ('private', '%s')", currUser); 
-           esql.executeUpdate(q1);
-           int chatid = esql.getCurrSeqVal("chat_chat_id_seq"); //chat_chat_id_seq;
-           System.out.print("Your chat ID is: " + chatid + "\n");
-           
-           String q2 = String.format("INSERT INTO CHAT_LIST(chat_id, member) VALUES (%d, '%s')", chatid, currUser);
-           esql.executeUpdate(q2);
-           
-           boolean flg = true; 
-           while(flg){
-               addUserToChat(esql, currUser, chatid);
-               numPeople++;
-               if(numPeople == 2){
-                   String q3 = String.format("UPDATE CHAT SET chat_type='group' WHERE chat_id=%s", chatid);
-                   esql.executeUpdate(q3);
-               }
-               System.out.print("Are you done adding? ('y' or 'n'): ");
-               String yn = in.readLine();
-               if(yn.equals("y")){
-                   flg = false;
-               }
-           }
-           
-
-       }catch(Exception e){
-           System.err.println(e.getMessage());
-           return;
-       }
-       
-   }//end 
-
-   public static void BrowseChats(Messenger esql, String currUser){
-       try{
-           String q1 = String.format("SELECT chat_id as chats FROM CHAT_LIST WHERE member = '%s'", currUser);
-           esql.executeQueryAndPrintResult(q1);
-        
-       }catch(Exception e){
-           System.err.println(e.getMessage());
-           return;
-       }
-   }
-   
-   public static void EditMessage(Messenger esql, String currUser){ 
-        try{
-                //get the message Id that user wants to delete
-                System.out.println("Choose the message id you like to edit: ");
-                String msgID = in.readLine();
-
-                //check if message id exists
-                String q = String.format("SELECT * FROM MESSAGE WHERE msg_id = %s",msgID);
-                int chkMsg = esql.executeQuery(q);
-
-                //if chat id is valid
-                if(chkMsg > 0)
-                {
-                         //check if message is the sender
-                        String q2 = String.format("SELECT * FROM MESSAGE WHERE sender_login = '%s'", currUser);
-                        int chkUser = esql.executeQuery(q2);
-
-                        //if user is valid
-                        if(chkUser > 0){
-                                System.out.println("What would you like to update the message to? ");
-                                String newMsg = in.readLine();
-                                //select the message
-                                String q3 = String.format("UPDATE MESSAGE SET msg_text = '%s' WHERE msg_id = %s",newMsg,msgID);
-                                esql.executeUpdate(q3);
-                        }
-                        else{
-                                System.out.println("You are not the sender of this message!\n");
-                        }
-                }
-                else{
-                        System.out.println("This message does not exist!\n");
-                }
-        }catch(Exception e){
-                System.err.println(e.getMessage());
-                return;
-        }
-   }
-   
-   public static void BrowseMessages(Messenger esql, String currUser){
-
-         try{
-           
-           System.out.print("Enter a chat ID that you want to view messages of: ");
-           String chatid = in.readLine();
-           
-            //Check if the user is apart of the chatID 
-           String q3 = String.format("SELECT * FROM CHAT_LIST WHERE chat_id=%s AND member='%s'", chatid, currUser);
-           int chkUser = esql.executeQuery(q3);
-           
-           if(chkUser>0){
-               String q = String.format("SELECT msg_timestamp, msg_id, sender_login, msg_text AS messages FROM  MESSAGE WHERE chat_id=%s ORDER BY msg_timestamp DESC", chatid);
-               List<List<String>> listMsg = esql.executeQueryAndReturnResult(q);
-                
-               int numMsg = 0, num = 0;
-               boolean done = true;
-               
-               while(done){
-                   //numMsg += 10;
-                   if((listMsg.size() - numMsg) < 10){
-                       num = listMsg.size();
-                       //numMsg = 0;
-                   }
-                    else{
-                        num = 10 + numMsg;                    
-                    }
-                    
-                   for(int i = numMsg; i < num; i++){
-                       System.out.println("Msg ID: " + listMsg.get(i).get(1)); //Msg id
-                       System.out.println(listMsg.get(i).get(0)); //Timestamp
-                       System.out.println(listMsg.get(i).get(2)); //Username
-                       System.out.println(listMsg.get(i).get(3)); //Message text
-                   }
-                   
-                   if((listMsg.size() - (10+numMsg)) > 0){
-                       System.out.println("Do you want to load earlier messages? ('y' or 'n')");
-                       String ans = in.readLine();
-                       
-                       if(ans.equals("n")){
-                           System.out.println("No more messages to display!");
-                           done = false;
-                       }
-                       //num = listMsg.size() - 10  + numMsg;
-                   }
-                   else{
-                       //System.out.println("No more messages to display!");
-                        done = false;
-                    }
-                    numMsg += 10;
-               }
-           }
-           else{
-               System.out.println("Chat ID does not exist or you do not belong to this chat.");
-           }
-       }catch(Exception e){
-           System.err.println(e.getMessage());
-           return;
-       }
-   }
-
-   public static void DeleteContact(Messenger esql, String currUser){
-       try{
-           System.out.print("Enter the login name of the user: ");
-           String contact = in.readLine();
-
-           //Check if the user is in database
-           String q = String.format("SELECT * FROM Usr WHERE login = '%s'", contact);
-           int userNum = esql.executeQuery(q);
-            
-           //If user is in database, then delete them from
-           if(userNum > 0){
-               String q2 = String.format("SELECT contact_List FROM USR WHERE login = '%s'", currUser);
-               List<List<String>> idQuery = esql.executeQueryAndReturnResult(q2);
-               String ID = "";
-               for(String s : idQuery.get(0)){
-                   ID += s + "\t";
-               }
-               
-               String q4 = String.format("SELECT list_member FROM USER_LIST_CONTAINS WHERE list_id = %s AND list_member = '%s'", ID, contact);
-               int checkIfInList = esql.executeQuery(q4);
-               
-               if(checkIfInList > 0){
-                   String q3 = String.format("DELETE FROM USER_LIST_CONTAINS WHERE list_id = %s AND list_member = '%s'", ID, contact);
-                   esql.executeUpdate(q3);
-                   System.out.print("\n----------------------------------------\n");
-                   System.out.println("User successfully deleted from contacts list!");
-                   System.out.print("----------------------------------------\n");
-               }
-               else{
-                System.out.print("\n----------------------------------------\n");
-                System.out.println("User not found in contacts list!");
-                System.out.print("----------------------------------------\n");
-            }
-           }
-       }catch(Exception e){
-           System.err.println(e.getMessage());
-           return;
-       }
-   }
-
-   public static void DeleteBlocked(Messenger esql, String currUser){
-       try{
-           System.out.print("Enter the login name of the user: ");
-           String contact = in.readLine();
-
-           //Check if the user is in database
-           String q = String.format("SELECT * FROM Usr WHERE login = '%s'", contact);
-           int userNum = esql.executeQuery(q);
-            
-           //If user is in database, then delete them from
-           if(userNum > 0){
-               String q2 = String.format("SELECT block_List FROM USR WHERE login = '%s'", currUser);
-               List<List<String>> idQuery = esql.executeQueryAndReturnResult(q2);
-               String ID = "";
-               for(String s : idQuery.get(0)){
-                   ID += s + "\t";
-               }
-               
-               String q4 = String.format("SELECT list_member FROM USER_LIST_CONTAINS WHERE list_id = %s AND list_member = '%s'", ID, contact);
-               int checkIfInList = esql.executeQuery(q4);
-               
-               if(checkIfInList > 0){
-                   String q3 = String.format("DELETE FROM USER_LIST_CONTAINS WHERE list_id = %s AND list_member = '%s'", ID, contact);
-                   esql.executeUpdate(q3);
-                   System.out.print("\n----------------------------------------\n");
-                   System.out.println("User successfully deleted from blocked list!");
-                   System.out.print("----------------------------------------\n");
-               }
-               else{
-                System.out.print("\n----------------------------------------\n");
-                System.out.println("User not found in blocked list!");
-                System.out.print("----------------------------------------\n");
-            }
-           }
-       }catch(Exception e){
-           System.err.println(e.getMessage());
-           return;
-       }
-   }
-   
-   public static void DeleteChat(Messenger esql, String currUser){
-       try{
-           System.out.print("Enter the ID of the chat to delete: ");
-           String chatID = in.readLine();
-           
-           //Check if the current user is the one that made the chat
-           String q = String.format("SELECT * FROM CHAT WHERE chat_id=%s AND init_sender='%s'", chatID, currUser);
-           int chk = esql.executeQuery(q);
-           
-           //Deletes chat, chatlist and messages
-           if(chk > 0){
-               String q1 = String.format("DELETE FROM CHAT WHERE chat_id=%s", chatID);
-               String q2 = String.format("DELETE FROM CHAT_LIST WHERE chat_id=%s", chatID);
-               String q3 = String.format("DELETE FROM MESSAGE WHERE chat_id=%s", chatID);
-               
-               esql.executeUpdate(q3);
-               esql.executeUpdate(q2);
-               esql.executeUpdate(q1);
-           }
-           else{
-               System.out.print("You cannot delete this chat.\n");
-           }
-        
-       }catch(Exception e){
-           System.err.println(e.getMessage());
-           return;
-       }
-   }
-   
-   public static boolean DeleteAccount(Messenger esql, String currUser){
-         try{
-                // //check if there are still chat manager
-                boolean chatEmpty = false;
-                String q2 = String.format("SELECT *FROM CHAT WHERE init_sender = '%s'", currUser);
-                int userNum = esql.executeQuery(q2);
-
-                if(userNum == 0)
-                        chatEmpty = true;
-
-                //if there is no chat manager, then delete the account
-                if(chatEmpty)
-                {
-                        String q = String.format("DELETE FROM USR WHERE login = '%s'",currUser);
-                        String q3 = String.format("DELETE FROM CHAT_LIST WHERE member = '%s'", currUser);
-                        String q4 = String.format("DELETE FROM USER_LIST_CONTAINS WHERE list_id = '%s'", currUser);
-                        esql.executeUpdate(q3);
-                        esql.executeUpdate(q4);
-                        esql.executeUpdate(q);
-                        System.out.println("User is deleted!");
-                        return true;
-                }
-                //otherwise
-                else
-                {
-                        System.out.println("There are still chats not deleted. Please delete them first.");
-                        //list the chats still active
-                        String q5 = String.format("SELECT chat_id as chats FROM CHAT WHERE init_sender = '%s'", currUser);
-                        esql.executeQueryAndPrintResult(q5);
-                        return false;
-                }
-        }catch(Exception e){
-                System.err.println(e.getMessage());
-                return false;
-        }
-
-   }
-
-public static void DeleteMessage(Messenger esql, String currUser){
-        try{
-                //get the message Id that user wants to delete
-                System.out.println("Choose the message id you like to delete: ");
-                String msgID = in.readLine();
-
-                //check if message id exists
-                String q = String.format("SELECT * FROM MESSAGE WHERE msg_id = %s",msgID);
-                int chkMsg = esql.executeQuery(q);
-
-                //if chat id is valid
-                if(chkMsg > 0)
-                {
-                         //check if message is the sender
-                        String q2 = String.format("SELECT * FROM MESSAGE WHERE sender_login = '%s'", currUser);
-                        int chkUser = esql.executeQuery(q2);
-
-                        //if user is valid
-                        if(chkUser > 0){
-                                String q3 = String.format("DELETE FROM MESSAGE WHERE msg_id=%s", msgID);
-                                esql.executeUpdate(q3);
-                                System.out.println("Message has been deleted.");
-                        }
-                        else{
-                                System.out.println("You are not the sender of this message!\n");
-                        }
-                }
-                else{
-                        System.out.println("This message does not exist\n");
-                }
-        }catch(Exception e){
-                System.err.println(e.getMessage());
-                return;
-        }
-}
-
-public static void AddtoChat(Messenger esql, String currUser){
-        try{
-                //get the chatID that wants to be added
-                System.out.println("Enter the chatID: ");
-                String chatID = in.readLine();
-
-                //check if chatID is real
-                String q = String.format("SELECT * FROM CHAT_LIST WHERE chat_id = %s", chatID);
-                int chkChat = esql.executeQuery(q);
-
-                if(chkChat > 0){
-                        addUserToChat(esql, currUser, Integer.parseInt(chatID));
-                }
-                else{
-                        System.out.println("This chat does not exist!");
-                }
-        }catch(Exception e){
-                System.err.println(e.getMessage());
-                return;
-        }
-}
-
-}//end Messenger
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.io.File;
+import java.io.FileReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.ArrayList;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.text.*;
+
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.TransactionState;
+
+/**
+ * This class defines a simple embedded SQL utility class that is designed to
+ * work with PostgreSQL JDBC drivers.
+ *
+ */
+public class Messenger {
+
+   // pool of physical database connections, shared by every session
+   private ConnectionPool _pool = null;
+
+   // true when this instance created the pool and must close it in cleanup()
+   private boolean _ownsPool = false;
+
+   // connection pinned to this session for a multi-statement unit of work
+   private Connection _pinned = null;
+   private int _pinDepth = 0;
+   // the last statement that failed on it, handed to the pool with it
+   private SQLException _pinnedError = null;
+
+   // profile of the user logged in on this session, set by LogIn
+   private UserSession _session = null;
+
+   // pushes new messages of the user's chats to the terminal, see followChats
+   private MessageFeed _feed = null;
+   private MessageFeed.Listener _feedPrinter = null;
+
+   // nesting depth of begin() calls; only the outermost one commits
+   private int _txDepth = 0;
+   private boolean _rollbackOnly = false;
+
+   // the session wrote since _writeLsn was taken
+   private boolean _wrote = false;
+   // WAL position of the primary after the session's last write, 0 if it
+   // wrote nothing, so that reader() sees the write
+   private long _writeLsn = 0;
+
+   // session on the pool's standby, created by reader()
+   private Messenger _reader = null;
+
+   // the pages of a chat read since its first page, see markRead
+   private Browse _browse = null;
+
+   // number of rows the driver fetches per round trip for this session
+   private int _fetchSize = Integer.getInteger("messenger.fetchSize", 100);
+
+   // number of messages shown per page in BrowseMessages
+   static final int PAGE_SIZE = 10;
+
+   // span of history read first by fetchMessagePage, so that only the
+   // newest partitions of MESSAGE are scanned for it
+   static final long RECENT_MILLIS = Long.getLong("messenger.recentDays", 7L) * 24L * 60L * 60L * 1000L;
+
+   // messages moved out of MESSAGE by MessageArchiver, read by
+   // fetchMessagePage after the oldest one left in MESSAGE; null unless
+   // messenger.archiveDir is set
+   static final MessageArchive ARCHIVE = MessageArchive.fromSystemProperties();
+
+   // number of logins looked up per query when validating chat members
+   static final int LOOKUP_CHUNK = 256;
+
+   // number of newest matches SearchMessages ranks
+   static final int SEARCH_CANDIDATES = Integer.getInteger("messenger.search.candidates", 1000);
+
+   /**
+    * Outcome of a menu operation, so that operations can be called without
+    * the keyboard menu and the caller decides what to print.
+    */
+   public enum Status {
+      OK,
+      TAKEN,             // login already used
+      SELF,              // the user named themselves
+      USER_NOT_FOUND,
+      BLOCKED,           // the other user is on the blocked list
+      ALREADY_CONTACT,
+      ALREADY_BLOCKED,
+      NOT_IN_LIST,
+      NOT_MEMBER,        // not a member of the chat
+      NOT_OWNER,         // not the initial sender of the chat
+      CHAT_NOT_FOUND,
+      MESSAGE_NOT_FOUND,
+      NOT_SENDER,        // not the sender of the message
+      HAS_CHATS          // still owns chats
+   }//end Status
+
+   /**
+    * Receives the rows of a streamed query one at a time. The ResultSet is
+    * positioned on the current row and must not be advanced or kept.
+    */
+   public interface RowCallback {
+      void row (ResultSet rs) throws SQLException;
+   }//end RowCallback
+
+   /**
+    * Turns the current row of a ResultSet into a typed value.
+    */
+   public interface RowMapper<T> {
+      T map (ResultSet rs) throws SQLException;
+   }//end RowMapper
+
+   /**
+    * Maps every column of a row to a trimmed string (char(n) columns come
+    * back padded with blanks).
+    */
+   public static final RowMapper<List<String>> TRIMMED_ROW = new RowMapper<List<String>>() {
+      public List<String> map (ResultSet rs) throws SQLException {
+         int numCol = rs.getMetaData ().getColumnCount ();
+         List<String> record = new ArrayList<String>(numCol);
+         for (int i = 1; i <= numCol; ++i)
+            record.add(trimmed(rs, i));
+         return record;
+      }
+   };
+
+   /**
+    * Maps the first column of a row to an int.
+    */
+   public static final RowMapper<Integer> FIRST_INT = new RowMapper<Integer>() {
+      public Integer map (ResultSet rs) throws SQLException {
+         return rs.getInt(1);
+      }
+   };
+
+   /**
+    * One row of a chat's message history.
+    */
+   public static class Message {
+      private final int id;
+      private final Timestamp timestamp;
+      private final String sender;
+      private final String text;
+
+      Message (ResultSet rs) throws SQLException {
+         this.timestamp = rs.getTimestamp(1);
+         this.id = rs.getInt(2);
+         this.sender = trimmed(rs, 3);
+         this.text = trimmed(rs, 4);
+      }
+
+      Message (Timestamp timestamp, int id, String sender, String text) {
+         this.timestamp = timestamp;
+         this.id = id;
+         this.sender = sender;
+         this.text = text;
+      }
+
+      public int getId (){ return this.id; }
+      public Timestamp getTimestamp (){ return this.timestamp; }
+      public String getSender (){ return this.sender; }
+      public String getText (){ return this.text; }
+   }//end Message
+
+   /**
+    * One line of a user's inbox, read from CHAT_SUMMARY.
+    */
+   public static class ChatSummary {
+      private final int chatId;
+      private final Timestamp lastTimestamp;
+      private final String lastSender;
+      private final String lastText;
+      private final int messageCount;
+      private final int memberCount;
+      private final int unread;
+
+      ChatSummary (ResultSet rs) throws SQLException {
+         this.chatId = rs.getInt(1);
+         this.lastTimestamp = rs.getTimestamp(2);
+         this.lastSender = trimmed(rs, 3);
+         this.lastText = trimmed(rs, 4);
+         this.messageCount = rs.getInt(5);
+         this.memberCount = rs.getInt(6);
+         this.unread = rs.getInt(7);
+      }
+
+      public int getChatId (){ return this.chatId; }
+      public Timestamp getLastTimestamp (){ return this.lastTimestamp; }   // null if the chat has no message
+      public String getLastSender (){ return this.lastSender; }
+      public String getLastText (){ return this.lastText; }
+      public int getMessageCount (){ return this.messageCount; }
+      public int getMemberCount (){ return this.memberCount; }
+      public int getUnread (){ return this.unread; }
+   }//end ChatSummary
+
+   /**
+    * Progress of a user through the pages of one chat, from its first
+    * page back towards the read cursor.
+    */
+   private static class Browse {
+      final int chatId;
+      final int userId;
+      final Message cursor;   // the read cursor when the first page was fetched
+      final Message newest;   // newest message shown
+      Message oldest;         // oldest message shown, the next page starts before it
+      int read = 0;           // messages of others after the cursor shown so far
+
+      Browse (int chatId, int userId, Message cursor, Message newest){
+         this.chatId = chatId;
+         this.userId = userId;
+         this.cursor = cursor;
+         this.newest = newest;
+      }
+   }//end Browse
+
+   /**
+    * One result of SearchMessages.
+    */
+   public static class SearchHit {
+      private final int chatId;
+      private final int msgId;
+      private final String sender;
+      private final Timestamp timestamp;
+      private final String text;
+      private final double rank;
+      private final boolean limited;
+
+      SearchHit (ResultSet rs) throws SQLException {
+         this.chatId = rs.getInt(1);
+         this.msgId = rs.getInt(2);
+         this.sender = trimmed(rs, 3);
+         this.timestamp = rs.getTimestamp(4);
+         this.text = trimmed(rs, 5);
+         this.rank = rs.getDouble(6);
+         this.limited = rs.getBoolean(7);
+      }
+
+      public int getChatId (){ return this.chatId; }
+      public int getMsgId (){ return this.msgId; }
+      public String getSender (){ return this.sender; }
+      public Timestamp getTimestamp (){ return this.timestamp; }
+      public String getText (){ return this.text; }
+      public double getRank (){ return this.rank; }   // the keyset of the next page, with getMsgId()
+      public boolean isLimited (){ return this.limited; }   // older matches were not ranked
+   }//end SearchHit
+
+   static final RowMapper<SearchHit> SEARCH_HIT = new RowMapper<SearchHit>() {
+      public SearchHit map (ResultSet rs) throws SQLException {
+         return new SearchHit(rs);
+      }
+   };
+
+   // maps rows of the inbox query in fetchInbox
+   static final RowMapper<ChatSummary> CHAT_SUMMARY = new RowMapper<ChatSummary>() {
+      public ChatSummary map (ResultSet rs) throws SQLException {
+         return new ChatSummary(rs);
+      }
+   };
+
+   // maps rows of msg_timestamp, msg_id, sender login, msg_text
+   static final RowMapper<Message> MESSAGE = new RowMapper<Message>() {
+      public Message map (ResultSet rs) throws SQLException {
+         return new Message(rs);
+      }
+   };
+
+   /**
+    * Maps a read cursor, (last_read_ts, last_read_id), to the key of the
+    * message it points at.
+    */
+   static final RowMapper<Message> READ_CURSOR = new RowMapper<Message>() {
+      public Message map (ResultSet rs) throws SQLException {
+         return new Message(rs.getTimestamp(1), rs.getInt(2), null, null);
+      }
+   };
+
+   // handling the keyboard inputs through a BufferedReader
+   // This variable can be global for convenience.
+   // Time spent waiting for a line is left out of the action's metrics.
+   static BufferedReader in = new BufferedReader(
+                                new InputStreamReader(System.in)) {
+      public String readLine() throws IOException {
+         long start = System.nanoTime();
+         try{
+            return super.readLine();
+         }finally{
+            Metrics.exclude(start);
+         }
+      }
+   };
+
+   // names of the actions of the main menu and the user menu in the
+   // metrics (see Metrics), by choice; null for choices without queries
+   static final String[] LOGIN_ACTIONS = {null, "CreateUser", "LogIn", null};
+   static final String[] USER_ACTIONS = {null, "AddToContact", "AddToBlocked", "ListContacts", "ListBlocked",
+                                         "BrowseChats", "BrowseMessages", "CreateChat", "AddtoChat", "NewMessage",
+                                         "EditMessage", "DeleteMessage", "DeleteContact", "DeleteBlocked",
+                                         "DeleteChat", "DeleteAccount", null, null, "SearchMessages"};
+
+   /**
+    * Creates a new instance of Messenger
+    *
+    * @param hostname the MySQL or PostgreSQL server hostname
+    * @param database the name of the database
+    * @param username the user name used to login to the database
+    * @param password the user login password
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public Messenger (String dbname, String dbport, String user, String passwd) throws SQLException {
+
+      System.out.print("Connecting to database...");
+      try{
+         // constructs the connection URL
+         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+         System.out.println ("Connection URL: " + url + "\n");
+
+         // open the connection pool (sized by the messenger.pool.* properties)
+         this._pool = ConnectionPool.fromSystemProperties(url, user, passwd);
+         this._ownsPool = true;
+         System.out.println("Done");
+      }catch (Exception e){
+         System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
+         System.out.println("Make sure you started postgres on this machine");
+         System.exit(-1);
+      }//end catch
+   }//end Messenger
+
+   /**
+    * Creates a new session on top of an existing connection pool, so that
+    * many logged-in users can share the same physical connections.
+    *
+    * @param pool the shared connection pool
+    */
+   public Messenger (ConnectionPool pool) {
+      this._pool = pool;
+   }//end Messenger
+
+   /**
+    * @return the connection pool used by this session
+    */
+   public ConnectionPool getPool () {
+      return this._pool;
+   }
+
+   /**
+    * Returns the session that read-only queries of this session run on:
+    * one on the pool's standby (see Replica) when it is within the
+    * staleness bound and has replayed the last write of this session,
+    * else this session. The first call after a write takes the primary's
+    * WAL position, one round trip. Inside a transaction or with a pinned connection
+    * reads stay on this session. The returned session is only for
+    * queries; the session cache (getSession) stays on this one.
+    *
+    * @return the session to read from
+    */
+   public Messenger reader () {
+      Replica replica = this._pool.getReplica();
+      if (replica == null || this._pinned != null)
+         return this;
+      if (this._wrote){
+         try{
+            this._writeLsn = queryFirst (Replica.WAL_POSITION, new RowMapper<Long>() {
+               public Long map (ResultSet rs) throws SQLException {
+                  return rs.getLong(1);
+               }
+            });
+            this._wrote = false;
+         }catch (SQLException e){
+            // position unknown, the next read tries again
+            return this;
+         }//end try
+      }//end if
+      if (!replica.covers(this._writeLsn))
+         return this;
+      if (this._reader == null || this._reader._pool != replica.getPool())
+         this._reader = new Messenger(replica.getPool());
+      this._reader._fetchSize = this._fetchSize;
+      return this._reader;
+   }//end reader
+
+   /**
+    * Records that this session has just written, for statements whose
+    * writes the query helpers cannot see, e.g. a SELECT calling a
+    * function that writes, or a message sent through the MessageWriter.
+    */
+   public void markWrite () {
+      this._wrote = true;
+   }
+
+   /**
+    * Sets how many rows the driver fetches per round trip for queries run
+    * by this session.
+    *
+    * @param rows the fetch size, 0 for the driver default
+    */
+   public void setFetchSize (int rows) {
+      this._fetchSize = rows;
+   }
+
+   /**
+    * Returns the cached profile of a user, reading it from USR if it was
+    * not loaded by LogIn, belongs to another user or was invalidated.
+    *
+    * @param login the logged-in user
+    * @return the user's profile
+    * @throws java.sql.SQLException when the user does not exist or the query fails
+    */
+   public UserSession getSession (String login) throws SQLException {
+      UserSession s = this._session;
+      if (s != null && s.isValid() && s.getLogin().equals(login))
+         return s;
+      s = UserSession.load(this, login);
+      if (s == null)
+         throw new SQLException("User " + login + " does not exist");
+      this._session = s;
+      return s;
+   }//end getSession
+
+   /**
+    * Drops the cached profile, e.g. when the user logs out.
+    */
+   public void endSession () {
+      if (this._session != null)
+         this._session.invalidate();
+      this._session = null;
+   }//end endSession
+
+   /**
+    * Binds one connection to this session until the matching
+    * unpinConnection() call. Statements that depend on session state on the
+    * server (e.g. currval) must run while the connection is pinned.
+    *
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public void pinConnection () throws SQLException {
+      if (this._pinDepth == 0)
+         this._pinned = this._pool.borrow();
+      this._pinDepth++;
+   }//end pinConnection
+
+   /**
+    * Releases the connection pinned by pinConnection() back to the pool.
+    */
+   public void unpinConnection () {
+      if (this._pinDepth == 0)
+         return;
+      if (--this._pinDepth == 0){
+         this._pool.release(this._pinned, this._pinnedError);
+         this._pinned = null;
+         this._pinnedError = null;
+      }//end if
+   }//end unpinConnection
+
+   /**
+    * Starts a transaction on a pinned connection. Every statement of the
+    * session runs in it until the matching commit() or rollback(). Nested
+    * calls join the outer transaction. Use as
+    *
+    *    esql.begin();
+    *    boolean done = false;
+    *    try{ ...; done = true; }finally{ if (done) esql.commit(); else esql.rollback(); }
+    *
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public void begin () throws SQLException {
+      pinConnection ();
+      if (this._txDepth == 0){
+         try{
+            // sends nothing yet, the driver puts BEGIN in front of the next statement
+            this._pinned.setAutoCommit (false);
+         }catch (SQLException e){
+            unpinConnection ();
+            throw e;
+         }
+         this._rollbackOnly = false;
+      }//end if
+      this._txDepth++;
+   }//end begin
+
+   /**
+    * Ends one begin() level. The outermost level commits, unless a nested
+    * level was rolled back.
+    *
+    * @throws java.sql.SQLException when the commit fails or a nested level rolled back
+    */
+   public void commit () throws SQLException {
+      if (this._txDepth == 0)
+         return;
+      if (this._txDepth > 1){
+         this._txDepth--;
+         unpinConnection ();
+         return;
+      }//end if
+      long start = System.nanoTime();
+      long trips = endTrips ();
+      try{
+         if (this._rollbackOnly){
+            this._pinned.rollback ();
+            throw new SQLException("Transaction rolled back by a nested unit of work");
+         }//end if
+         this._pinned.commit ();
+         markWrite ();
+      }finally{
+         Metrics.statement (this._rollbackOnly ? "rollback" : "commit", start, trips, 0, 0);
+         endTransaction ();
+      }
+   }//end commit
+
+   /**
+    * Ends one begin() level and discards the transaction. A nested level
+    * only marks it, the outermost level rolls it back.
+    */
+   public void rollback () {
+      if (this._txDepth == 0)
+         return;
+      if (this._txDepth > 1){
+         this._rollbackOnly = true;
+         this._txDepth--;
+         unpinConnection ();
+         return;
+      }//end if
+      long start = System.nanoTime();
+      long trips = endTrips ();
+      try{
+         this._pinned.rollback ();
+      }catch (SQLException e){
+         // the pool rolls back again when the connection is released
+      }finally{
+         Metrics.statement ("rollback", start, trips, 0, 0);
+         endTransaction ();
+      }
+   }//end rollback
+
+   /**
+    * @return the round trips of ending the transaction: none if no
+    * statement ran in it, since the driver then has not sent BEGIN and
+    * sends no COMMIT or ROLLBACK either
+    */
+   private long endTrips () {
+      try{
+         return this._pinned.unwrap (BaseConnection.class).getTransactionState () == TransactionState.IDLE ? 0 : 1;
+      }catch (SQLException e){
+         return 1;
+      }
+   }//end endTrips
+
+   private void endTransaction () {
+      try{
+         // sends nothing, commit() or rollback() already ended the transaction
+         this._pinned.setAutoCommit (true);
+      }catch (SQLException e){
+         // the pool resets auto-commit when the connection is released
+      }finally{
+         this._txDepth = 0;
+         this._rollbackOnly = false;
+         unpinConnection ();
+      }
+   }//end endTransaction
+
+   /**
+    * Returns the pinned connection, or borrows one for a single statement.
+    */
+   private Connection acquire () throws SQLException {
+      if (this._pinned != null)
+         return this._pinned;
+      return this._pool.borrow();
+   }//end acquire
+
+   /**
+    * Hands a connection obtained by acquire() back, unless it is pinned.
+    *
+    * @param error what the statement on it failed with, or null
+    */
+   private void release (Connection conn, SQLException error) {
+      if (conn != this._pinned)
+         this._pool.release(conn, error);
+      else if (error != null)
+         this._pinnedError = error;
+   }//end release
+
+   /**
+    * Counts the round trips of a query read to its end. The driver reads
+    * through a portal only with auto-commit off and a fetch size: the
+    * execute brings the first batch of fetch size rows, and while a batch
+    * comes back full it fetches once more, so a result of exactly n
+    * batches takes a last fetch that finds no row. Otherwise the execute
+    * brings the whole result.
+    *
+    * @param conn the connection the query ran on
+    * @param rows the rows it returned
+    * @return the round trips the query waited for
+    */
+   private long roundTrips (Connection conn, long rows) {
+      int fetchSize = this._fetchSize;
+      try{
+         if (fetchSize <= 0 || conn.getAutoCommit ())
+            return 1;
+      }catch (SQLException e){
+         return 1;
+      }
+      return 1 + rows / fetchSize;
+   }
+
+   /**
+    * Looks up the cached PreparedStatement for a SQL template on the given
+    * connection and binds the parameters to its ? placeholders in order.
+    *
+    * @param conn the connection obtained from acquire()
+    * @param sql the SQL template
+    * @param params values for the ? placeholders
+    * @return a statement owned by the connection's cache (do not close it)
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   private PreparedStatement prepare (Connection conn, String sql, Object[] params) throws SQLException {
+      PreparedStatement stmt = this._pool.statementCache(conn).prepare(sql);
+      stmt.setFetchSize(this._fetchSize);
+      for (int i = 0; i < params.length; ++i)
+         stmt.setObject(i + 1, params[i]);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Creates an SQL array to bind to a ? placeholder, so that a statement
+    * taking any number of values, e.g. with = ANY (?) or unnest(?), keeps
+    * one template.
+    *
+    * @param type the element type, e.g. int4, varchar or timestamp
+    * @param elements the values
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public Array createArray (String type, Object[] elements) throws SQLException {
+      Connection conn = acquire ();
+      SQLException error = null;
+      try{
+         return conn.createArrayOf (type, elements);
+      }catch (SQLException e){
+         error = e;
+         throw e;
+      }finally{
+         release (conn, error);
+      }
+   }//end createArray
+
+   /**
+    * Method to execute an update SQL statement.  Update SQL instructions
+    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    *
+    * @param sql the input SQL template with ? placeholders
+    * @param params values for the placeholders
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      int rowCount = 0;
+      Connection conn = acquire ();
+      SQLException error = null;
+      try{
+         // issues the update instruction on the cached statement
+         rowCount = prepare (conn, sql, params).executeUpdate ();
+         return rowCount;
+      }catch (SQLException e){
+         error = e;
+         throw e;
+      }finally{
+         release (conn, error);
+         markWrite ();
+         Metrics.statement ("executeUpdate", start, 1, rowCount, 0);
+      }
+   }//end executeUpdate
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and outputs the results to
+    * standard out.
+    *
+    * @param query the input query template with ? placeholders
+    * @param params values for the placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      int rowCount = 0;
+      long bytes = 0;
+      Connection conn = acquire ();
+      SQLException error = null;
+      try{
+         // issues the query instruction
+         ResultSet rs = prepare (conn, query, params).executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and output them to standard out.
+         boolean outputHeader = true;
+         while (rs.next()){
+            if(outputHeader){
+               for(int i = 1; i <= numCol; i++){
+                  System.out.print(rsmd.getColumnName(i) + "\t");
+               }
+               System.out.println();
+               outputHeader = false;
+            }
+            for (int i=1; i<=numCol; ++i){
+               String value = rs.getString (i);
+               System.out.print (value + "\t");
+               bytes += value == null ? 0 : value.length ();
+            }//end for
+            System.out.println ();
+            ++rowCount;
+         }//end while
+         rs.close ();
+         return rowCount;
+      }catch (SQLException e){
+         error = e;
+         throw e;
+      }finally{
+         long trips = roundTrips (conn, rowCount);
+         release (conn, error);
+         Metrics.statement ("executeQueryAndPrintResult", start, trips, rowCount, bytes);
+      }
+   }//end executeQuery
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the results as
+    * a list of records. Each record in turn is a list of attribute values
+    *
+    * @param query the input query template with ? placeholders
+    * @param params values for the placeholders
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      int rowCount = 0;
+      long bytes = 0;
+      Connection conn = acquire ();
+      SQLException error = null;
+      try{
+         // issues the query instruction
+         ResultSet rs = prepare (conn, query, params).executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and saves the data returned by the query.
+         List<List<String>> result  = new ArrayList<List<String>>();
+         while (rs.next()){
+            List<String> record = new ArrayList<String>();
+            for (int i=1; i<=numCol; ++i){
+               String value = rs.getString (i);
+               record.add(value);
+               bytes += value == null ? 0 : value.length ();
+            }//end for
+            result.add(record);
+            ++rowCount;
+         }//end while
+         rs.close ();
+         return result;
+      }catch (SQLException e){
+         error = e;
+         throw e;
+      }finally{
+         long trips = roundTrips (conn, rowCount);
+         release (conn, error);
+         Metrics.statement ("executeQueryAndReturnResult", start, trips, rowCount, bytes);
+      }
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the number of results
+    *
+    * @param query the input query template with ? placeholders
+    * @param params values for the placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      int rowCount = 0;
+      long bytes = 0;
+      Connection conn = acquire ();
+      SQLException error = null;
+      try{
+         // issues the query instruction
+         ResultSet rs = prepare (conn, query, params).executeQuery ();
+
+         // iterates through the result set and count nuber of results.
+         if(rs.next()){
+            bytes = Metrics.rowBytes (rs, rs.getMetaData ().getColumnCount ());
+            rowCount++;
+         }//end if
+         rs.close ();
+         return rowCount;
+      }catch (SQLException e){
+         error = e;
+         throw e;
+      }finally{
+         release (conn, error);
+         Metrics.statement ("executeQuery", start, 1, rowCount, bytes);
+      }
+   }//end executeQuery
+
+   /**
+    * Method to hand the rows of a query to a callback without building a
+    * result list. Between begin() and commit()/rollback() the driver runs
+    * the query as a portal and fetches it in batches of the session's
+    * fetch size (see setFetchSize), one round trip each, so memory stays
+    * bounded however many rows the query returns. Outside a transaction,
+    * or with a fetch size of 0, the driver reads the whole result before
+    * the first callback.
+    *
+    * @param query the input query template with ? placeholders
+    * @param callback called once per row
+    * @param params values for the placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int forEach (String query, RowCallback callback, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      int rowCount = 0;
+      long bytes = 0;
+      Connection conn = acquire ();
+      SQLException error = null;
+      try{
+         ResultSet rs = prepare (conn, query, params).executeQuery ();
+         try{
+            int numCol = Metrics.ENABLED ? rs.getMetaData ().getColumnCount () : 0;
+            while (rs.next()){
+               bytes += Metrics.rowBytes (rs, numCol);
+               callback.row (rs);
+               ++rowCount;
+            }//end while
+         }finally{
+            rs.close ();
+         }
+         return rowCount;
+      }catch (SQLException e){
+         error = e;
+         throw e;
+      }finally{
+         long trips = roundTrips (conn, rowCount);
+         release (conn, error);
+         Metrics.statement ("forEach", start, trips, rowCount, bytes);
+      }
+   }//end forEach
+
+   /**
+    * Method to run a query and map every row to a typed value.
+    *
+    * @param query the input query template with ? placeholders
+    * @param mapper converts the current row
+    * @param params values for the placeholders
+    * @return the mapped rows, in order
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> List<T> query (String query, final RowMapper<T> mapper, Object... params) throws SQLException {
+      final List<T> result = new ArrayList<T>();
+      forEach (query, new RowCallback() {
+         public void row (ResultSet rs) throws SQLException {
+            result.add (mapper.map (rs));
+         }
+      }, params);
+      return result;
+   }//end query
+
+   /**
+    * Method to map the first row of a query.
+    *
+    * @param query the input query template with ? placeholders
+    * @param mapper converts the row
+    * @param params values for the placeholders
+    * @return the mapped first row, or null if the query returns no row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> T queryFirst (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      int rowCount = 0;
+      long bytes = 0;
+      Connection conn = acquire ();
+      SQLException error = null;
+      try{
+         ResultSet rs = prepare (conn, query, params).executeQuery ();
+         try{
+            if (!rs.next ())
+               return null;
+            rowCount = 1;
+            bytes = Metrics.rowBytes (rs, rs.getMetaData ().getColumnCount ());
+            return mapper.map (rs);
+         }finally{
+            rs.close ();
+         }
+      }catch (SQLException e){
+         error = e;
+         throw e;
+      }finally{
+         release (conn, error);
+         Metrics.statement ("queryFirst", start, 1, rowCount, bytes);
+      }
+   }//end queryFirst
+
+   /**
+    * @return the column as a string without the blank padding of char(n), or null
+    */
+   public static String trimmed (ResultSet rs, int column) throws SQLException {
+      String v = rs.getString (column);
+      return v == null ? null : v.trim ();
+   }
+
+   /**
+    * Method to check whether a query returns any row. The query is sent as
+    * SELECT EXISTS (query), so only a boolean comes back however wide the
+    * matching rows are.
+    *
+    * @param query the input query template with ? placeholders
+    * @param params values for the placeholders
+    * @return true if the query returns at least one row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean exists (String query, Object... params) throws SQLException {
+      return exists (new String[] {query}, params)[0];
+   }//end exists
+
+   /**
+    * Method to run several existence checks in one round trip, as
+    * SELECT EXISTS (q1), EXISTS (q2), ...
+    *
+    * @param queries the query templates with ? placeholders
+    * @param params values for the placeholders of all queries, in order
+    * @return one flag per query, true if it returns at least one row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean[] exists (String[] queries, Object... params) throws SQLException {
+      StringBuilder sql = new StringBuilder("SELECT ");
+      for (int i = 0; i < queries.length; ++i){
+         if (i > 0)
+            sql.append(", ");
+         sql.append("EXISTS (").append(queries[i]).append(')');
+      }//end for
+
+      long start = System.nanoTime();
+      Connection conn = acquire ();
+      SQLException error = null;
+      try{
+         ResultSet rs = prepare (conn, sql.toString(), params).executeQuery ();
+         boolean[] result = new boolean[queries.length];
+         if (rs.next()){
+            for (int i = 0; i < queries.length; ++i)
+               result[i] = rs.getBoolean (i + 1);
+         }//end if
+         rs.close ();
+         return result;
+      }catch (SQLException e){
+         error = e;
+         throw e;
+      }finally{
+         release (conn, error);
+         Metrics.statement ("exists", start, 1, 1, queries.length);
+      }
+   }//end exists
+
+   /**
+    * Method to fetch the last value from sequence. This
+    * method issues the query to the DBMS and returns the current 
+    * value of sequence used for autogenerated keys. currval is session
+    * local, so the caller must hold a pinned connection (see pinConnection)
+    * across the insert and this call.
+    *
+    * @param sequence name of the DB sequence
+    * @return current value of a sequence
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int getCurrSeqVal(String sequence) throws SQLException {
+      long start = System.nanoTime();
+      Connection conn = acquire ();
+      SQLException error = null;
+      try{
+         ResultSet rs = prepare (conn, String.format("Select currval('%s')", sequence), new Object[0]).executeQuery ();
+         int val = -1;
+         if (rs.next())
+            val = rs.getInt(1);
+         rs.close ();
+         return val;
+      }catch (SQLException e){
+         error = e;
+         throw e;
+      }finally{
+         release (conn, error);
+         Metrics.statement ("getCurrSeqVal", start, 1, 1, 0);
+      }
+   }
+
+   /**
+    * Method to call a server-side function of sql/src/functions.sql that
+    * returns the name of a Status value.
+    *
+    * @param call the SELECT calling the function, with ? placeholders
+    * @param params values for the placeholders
+    * @return the status returned by the function
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Status callStatus (String call, Object... params) throws SQLException {
+      List<String> row;
+      try{
+         row = queryFirst (call, TRIMMED_ROW, params);
+      }finally{
+         markWrite ();
+      }
+      return Status.valueOf (row.get (0));
+   }//end callStatus
+
+   /**
+    * @return hit/miss counters of the prepared statement caches
+    */
+   public StatementCache.Stats getStatementCacheStats () {
+      return this._pool.getStatementCacheStats ();
+   }
+
+   /**
+    * Prints the messages other users send to the chats of the logged-in
+    * user as they arrive, through the MessageFeed shared by the sessions of
+    * the pool. The feed pushes them as they commit; it waits at most
+    * messenger.feed.pollMillis milliseconds (default 1000, 0 turns the
+    * feed off) between two looks at its connection.
+    *
+    * @param currUser the logged-in user
+    */
+   public void followChats (final String currUser) {
+      try{
+         if (this._feed == null)
+            this._feed = MessageFeed.shared(this._pool);
+         if (this._feed == null)
+            return;
+         unfollowChats ();
+         this._feedPrinter = new MessageFeed.Listener() {
+            public void onMessage (int chatId, Message m) {
+               if (!m.getSender().equals(currUser))
+                  System.out.println("\n[chat " + chatId + "] " + m.getSender() + ": " + m.getText());
+            }
+         };
+         this._feed.subscribeAll(this, currUser, this._feedPrinter);
+      }catch (SQLException e){
+         System.err.println("Live messages are off: " + e.getMessage());
+      }//end try
+   }//end followChats
+
+   /**
+    * Stops printing new messages, e.g. when the user logs out.
+    */
+   public void unfollowChats () {
+      if (this._feed == null || this._feedPrinter == null)
+         return;
+      try{
+         this._feed.unsubscribeAll(this._feedPrinter);
+      }catch (SQLException e){
+         System.err.println(e.getMessage());
+      }//end try
+      this._feedPrinter = null;
+   }//end unfollowChats
+
+   /**
+    * Returns the group-commit writer shared by the sessions of this pool
+    * (see MessageWriter). A session inside begin() writes directly, so
+    * that its messages commit or roll back with its transaction.
+    *
+    * @return the writer, or null if messages are inserted directly
+    */
+   public MessageWriter messageWriter () {
+      return this._txDepth == 0 ? MessageWriter.shared(this._pool) : null;
+   }
+
+   /**
+    * Method to hand back any pinned connection and, if this session opened
+    * the pool, to close the physical connections.
+    */
+   public void cleanup(){
+      unfollowChats ();
+      this._feed = null;
+      this._reader = null;
+      while (this._txDepth > 0)
+         rollback ();
+      while (this._pinDepth > 0)
+         unpinConnection ();
+      if (this._ownsPool && this._pool != null){
+         MessageFeed.closeShared (this._pool);
+         MessageWriter.closeShared (this._pool);
+         this._pool.close ();
+      }//end if
+   }//end cleanup
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+    */
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Messenger.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+      
+      Greeting();
+      Messenger esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         // instantiate the Messenger object and creates a physical
+         // connection.
+         String dbname = args[0];
+         String dbport = args[1];
+         String user = args[2];
+         esql = new Messenger (dbname, dbport, user, "");
+
+         boolean keepon = true;
+         while(keepon) {
+            // These are sample SQL statements
+            System.out.println("MAIN MENU");
+            System.out.println("---------");
+            System.out.println("1. Create user");
+            System.out.println("2. Log in");
+            System.out.println("3. < EXIT");
+            String authorisedUser = null;
+            int choice = readChoice();
+            Metrics.beginAction();
+            switch (choice){
+               case 1: CreateUser(esql); break;
+               case 2: authorisedUser = LogIn(esql); break;
+               case 3: keepon = false; break;
+               default : System.out.println("Please enter a number from 1-3. Thank you"); break;
+            }//end switch
+            Metrics.endAction(choice >= 0 && choice < LOGIN_ACTIONS.length ? LOGIN_ACTIONS[choice] : null);
+            if (authorisedUser != null) {
+              esql.followChats(authorisedUser);
+              ShowUnread(esql, authorisedUser);
+              boolean usermenu = true;
+                mainMenu();
+                boolean canDelete = false;
+                while(usermenu){
+                int action = readChoice();
+                Metrics.beginAction();
+                switch (action){
+                   case 0: mainMenu(); break;
+                   case 1: AddToContact(esql, authorisedUser); break;
+                   case 2: AddToBlocked(esql, authorisedUser); break;
+                   case 3: ListContacts(esql, authorisedUser); break;
+                   case 4: ListBlocked(esql, authorisedUser); break;
+                   case 5: BrowseChats(esql, authorisedUser); break;
+                   case 6: BrowseMessages(esql, authorisedUser); break;
+                   case 7: CreateChat(esql, authorisedUser); break;
+                   case 8: AddtoChat(esql, authorisedUser); break;
+                   case 9: NewMessage(esql, authorisedUser); break;
+                   case 10: EditMessage(esql, authorisedUser); break;
+                   case 11: DeleteMessage(esql, authorisedUser); break;
+                   case 12: DeleteContact(esql, authorisedUser); break;
+                   case 13: DeleteBlocked(esql, authorisedUser); break;
+                   case 14: DeleteChat(esql, authorisedUser); break;
+                   case 15: canDelete = DeleteAccount(esql, authorisedUser);
+                        if(canDelete == true)
+                        {
+                                usermenu = false;
+                                 break;
+                        }
+                        else
+                            break;
+                   case 16: usermenu = false; esql.endSession(); break;
+                   case 17: usermenu = false; keepon = false; esql.endSession(); break;
+                   case 18: SearchMessages(esql, authorisedUser); break;
+                   default : System.out.println("Please enter a number from 0-18. Thank you"); break;
+                }
+                Metrics.endAction(action >= 0 && action < USER_ACTIONS.length ? USER_ACTIONS[action] : null);
+              }
+              esql.unfollowChats();
+            }
+         }//end while
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         // make sure to cleanup the created table and close the connection.
+         try{
+            if(esql != null) {
+               System.out.print("Disconnecting from database...");
+               esql.cleanup ();
+               System.out.println("Done\n\nBye !");
+            }//end if
+         }catch (Exception e) {
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
+  
+   public static void Greeting(){
+      System.out.println(
+         "\n\n*******************************************************\n" +
+         "              User Interface                       \n" +
+         "*******************************************************\n");
+   }//end Greeting
+public static void mainMenu() {
+        System.out.println("MAIN MENU");
+        System.out.println("---------");
+        System.out.println("0. Redisplay Main Menu");
+        System.out.println("1. Add to contact list");
+        System.out.println("2. Add to blocked list");
+        System.out.println("3. Browse contact list");
+        System.out.println("4. Browse blocked list");
+        System.out.println("5. Browse chats");
+        System.out.println("6. Browse messages");
+        System.out.println("7. Start new chat");
+        System.out.println("8. Add to chat"); //new
+        System.out.println("9. New Message");
+        System.out.println("10. Edit Message");
+        System.out.println("11. Delete Message");
+        System.out.println("12. Delete user from contacts list");
+        System.out.println("13. Delete user from blocked list");
+        System.out.println("14. Delete chat");
+        System.out.println("15. Delete Account");
+        System.out.println("18. Search messages");
+        System.out.println(".........................");
+        System.out.println("16. Log out");
+        System.out.println("17. Exit program");
+}
+
+   /*
+    * Reads the users choice given from the keyboard
+    * @int
+    **/
+   public static int readChoice() {
+      int input;
+      // returns only if a correct value is given.
+      do {
+         System.out.print("Please make your choice: ");
+         try { // read the integer, parse it and break.
+            input = Integer.parseInt(in.readLine());
+            break;
+         }catch (Exception e) {
+            System.out.println("Your input is invalid!");
+            continue;
+         }//end try
+      }while (true);
+      return input;
+   }//end readChoice
+
+   /*
+    * Creates a new user with privided login, passowrd and phoneNum
+    * An empty block and contact list would be generated and associated with a user
+    **/
+   public static void CreateUser(Messenger esql){
+      try{
+         System.out.print("\tEnter user login: ");
+         String login = in.readLine();
+         System.out.print("\tEnter user password: ");
+         String password = in.readLine();
+         System.out.print("\tEnter user phone: ");
+         String phone = in.readLine();
+
+         if(CreateUser(esql, login, password, phone) == Status.OK){
+                System.out.println ("User successfully created!");
+         }
+         else{
+                System.out.println("User is already taken");
+         }
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }
+   }//end
+
+   /*
+    * Creates a new user without reading from the keyboard
+    * @return OK, or TAKEN if the login is already used
+    **/
+   public static Status CreateUser(Messenger esql, String login, String password, String phone) throws SQLException {
+        //checks the login and creates the user with empty contact\block lists
+        return esql.callStatus("SELECT create_user(?, ?, ?)", login, password, phone);
+   }//end
+   
+   /*
+    * Check log in credentials for an existing user
+    * @return User login or null is the user does not exist
+    **/
+   public static String LogIn(Messenger esql){
+      try{
+         System.out.print("\tEnter user login: ");
+         String login = in.readLine();
+         System.out.print("\tEnter user password: ");
+         String password = in.readLine();
+         return LogIn(esql, login, password);
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         return null;
+      }
+   }//end
+
+   /*
+    * Check log in credentials without reading from the keyboard
+    * @return User login or null is the user does not exist
+    **/
+   public static String LogIn(Messenger esql, String login, String password) throws SQLException {
+      //read the profile with the credential check, it is kept for the session
+      List<String> userRow = esql.queryFirst("SELECT " + UserSession.COLUMNS + " FROM Usr WHERE login = ? AND password = ?", TRIMMED_ROW, login, password);
+      esql.endSession();
+      if (userRow == null)
+         return null;
+      esql._session = new UserSession(login, userRow);
+      return login;
+   }//end
+
+   public static void AddToContact(Messenger esql, String currUser){
+       try{
+           System.out.print("Enter the login name of the user: ");
+           String contact = in.readLine();
+
+           switch(AddToContact(esql, currUser, contact)){
+               case SELF:
+                   System.out.print("\n---------------------\nYou cannot add yourself!\n---------------------\n\n");
+                   break;
+               case BLOCKED:
+                   System.out.println("\n----------------------------------------\n");
+                   System.out.println("This person is on your blocked list, please delete this person off your block list to add");
+                   System.out.println("\n----------------------------------------\n");
+                   break;
+               case ALREADY_CONTACT:
+                   System.out.println("\n----------------------------------------\n");
+                   System.out.println("This person is in your contact list. Cannot add.");
+                   System.out.println("\n----------------------------------------\n");
+                   break;
+               case OK:
+                   System.out.print("\n----------------------------------------\n");
+                   System.out.println("User successfully added!");
+                   System.out.print("----------------------------------------\n");
+                   break;
+               default:
+                   System.out.print("\n----------------------------------------\n");
+                   System.out.println("User does not exist!");
+                   System.out.print("----------------------------------------\n");
+                   break;
+           }
+       }catch(Exception e){
+         System.err.println (e.getMessage ());
+         return;
+      }
+   }//end
+
+   /*
+    * Adds a user to the current user's contact list
+    * @return OK, SELF, USER_NOT_FOUND, BLOCKED or ALREADY_CONTACT
+    **/
+   public static Status AddToContact(Messenger esql, String currUser, String contact) throws SQLException {
+       if(currUser.equals(contact))
+           return Status.SELF;
+
+       UserSession session = esql.getSession(currUser);
+       //check if user in the block list
+       if(session.isBlocked(esql, contact))
+           return Status.BLOCKED;
+       //check if user is in the contact list already
+       if(session.isContact(esql, contact))
+           return Status.ALREADY_CONTACT;
+
+       //inserts nothing if the user is not in database
+       int added = esql.executeUpdate("INSERT INTO USER_LIST_CONTAINS(list_id, member_id) SELECT ?, user_id FROM USR WHERE login = ?", session.getContactListId(), contact);
+       if(added == 0)
+           return Status.USER_NOT_FOUND;
+       session.contactChanged(contact, true);
+       return Status.OK;
+   }//end
+   
+   public static void AddToBlocked(Messenger esql, String currUser){
+       try{
+           System.out.print("Enter the login name of the user: ");
+           String contact = in.readLine();
+
+           switch(AddToBlocked(esql, currUser, contact)){
+               case SELF:
+                   System.out.print("\n---------------------\nYou cannot block yourself!\n---------------------\n\n");
+                   break;
+               case ALREADY_BLOCKED:
+                   System.out.println("\n----------------------------------------\n");
+                   System.out.println("This contact is already on your blocked list");
+                   System.out.println("\n----------------------------------------\n");
+                   break;
+               case OK:
+                   System.out.print("\n----------------------------------------\n");
+                   System.out.println("User successfully added!");
+                   System.out.print("----------------------------------------\n");
+                   break;
+               default:
+                   System.out.print("\n----------------------------------------\n");
+                   System.out.println("User does not exist!");
+                   System.out.print("----------------------------------------\n");
+                   break;
+           }
+       }catch(Exception e){
+         System.err.println (e.getMessage ());
+         return;
+        }
+   }
+
+   /*
+    * Adds a user to the current user's blocked list, removing them from
+    * the contact list first if needed
+    * @return OK, SELF, USER_NOT_FOUND or ALREADY_BLOCKED
+    **/
+   public static Status AddToBlocked(Messenger esql, String currUser, String contact) throws SQLException {
+       if(currUser.equals(contact))
+           return Status.SELF;
+
+       UserSession session = esql.getSession(currUser);
+       if(session.isBlocked(esql, contact))
+           return Status.ALREADY_BLOCKED;
+
+       //checks the user, deletes them from contact and then adds to blocked
+       Status st = esql.callStatus("SELECT block_user(?, ?, ?)", session.getBlockListId(), session.getContactListId(), contact);
+       if(st == Status.OK){
+           session.contactChanged(contact, false);
+           session.blockedChanged(contact, true);
+       }
+       return st;
+   }
+   
+   public static void ListContacts(Messenger esql, String currUser){
+       try{
+           System.out.print("\n----------------------------------------\n");
+           printResult(new String[] {"contacts", "status"}, fetchContacts(esql, currUser));
+           System.out.print("----------------------------------------\n");
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+           return;
+       }
+   }//end
+
+   /*
+    * @return rows of contact login and status
+    **/
+   public static List<List<String>> fetchContacts(Messenger esql, String currUser) throws SQLException {
+       //Gets current user contact id
+       int ID = esql.getSession(currUser).getContactListId();
+
+       //Select contacts with their status
+       return esql.reader().query("SELECT u.login as Contacts, u.status FROM USER_LIST_CONTAINS c, USR u WHERE c.list_id = ? AND u.user_id = c.member_id", TRIMMED_ROW, ID);
+   }//end
+   
+   public static void ListBlocked(Messenger esql, String currUser){
+       try{
+           System.out.print("\n----------------------------------------\n");
+           printResult(new String[] {"blocked"}, fetchBlocked(esql, currUser));
+           System.out.print("----------------------------------------\n");
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+           return;
+       }
+   }
+
+   /*
+    * @return rows of blocked logins
+    **/
+   public static List<List<String>> fetchBlocked(Messenger esql, String currUser) throws SQLException {
+       //Gets current user block id
+       int ID = esql.getSession(currUser).getBlockListId();
+
+       //Select blocked with current user id
+       return esql.reader().query("SELECT u.login as blocked FROM USER_LIST_CONTAINS c, USR u WHERE c.list_id = ? AND u.user_id = c.member_id", TRIMMED_ROW, ID);
+   }
+   
+   public static void NewMessage(Messenger esql, String currUser){
+       try{
+           System.out.print("Enter a chat ID to send a message to: ");
+           int chatID = Integer.parseInt(in.readLine());
+
+           //Check if the user is apart of the chatID 
+           boolean chkUser = esql.reader().exists("SELECT 1 FROM CHAT_LIST WHERE chat_id=? AND member_id=?", chatID, userId(esql, currUser));
+
+           if(chkUser){
+               System.out.print("Enter your message: ");
+               String msg = in.readLine();
+
+               insertMessage(esql, currUser, chatID, msg);
+           }
+           else{
+               System.out.print("You are not apart of this chat!\n");
+           }
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+           return;
+       }
+
+   }
+
+   /*
+    * Sends a message to a chat the current user belongs to
+    * @return OK or NOT_MEMBER
+    **/
+   public static Status NewMessage(Messenger esql, String currUser, int chatID, String msg) throws SQLException {
+       //inserts nothing if the user is not apart of the chatID
+       Timestamp timeStamp = new Timestamp(System.currentTimeMillis());
+       MessageWriter writer = esql.messageWriter();
+       if(writer != null){
+           int sent = writer.send(userId(esql, currUser), chatID, msg, timeStamp);
+           esql.markWrite();
+           return sent > 0 ? Status.OK : Status.NOT_MEMBER;
+       }
+       int sent = esql.executeUpdate("INSERT INTO MESSAGE (msg_text, msg_timestamp, sender_id, chat_id) SELECT ?, ?, member_id, chat_id FROM CHAT_LIST WHERE chat_id=? AND member_id=?", msg, timeStamp, chatID, userId(esql, currUser));
+       return sent > 0 ? Status.OK : Status.NOT_MEMBER;
+   }
+
+   private static void insertMessage(Messenger esql, String currUser, int chatID, String msg) throws SQLException {
+       Timestamp timeStamp = new Timestamp(System.currentTimeMillis());
+       MessageWriter writer = esql.messageWriter();
+       if(writer != null){
+           writer.send(userId(esql, currUser), chatID, msg, timeStamp);
+           esql.markWrite();
+       }else
+           esql.executeUpdate("INSERT INTO MESSAGE (msg_text, msg_timestamp, sender_id, chat_id) VALUES (?, ?, ?, ?)", msg, timeStamp, userId(esql, currUser), chatID);
+   }
+   
+   public static void addUserToChat(Messenger esql, String currUser, int chatID){
+       try{
+           
+           //Check if user is the inital sender
+           boolean chk = esql.exists("SELECT 1 FROM CHAT WHERE chat_id=? AND init_sender_id=?", chatID, userId(esql, currUser));
+           
+           if(chk){
+               System.out.print("Enter in user (login name) that you want to add: ");
+               String userToAdd = in.readLine();
+               
+               if(addMember(esql, chatID, userToAdd) == Status.OK){
+                   System.out.print("User added to chat list!\n");
+               }
+               else{
+                   System.out.print("Invalid User!\n");
+               }
+           }
+           else{
+               System.out.println("Invalid chat ID or you are not the initial sender of this chat");
+           }
+           
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+           return;
+       }
+   }
+
+   /*
+    * Adds a user to a chat started by the current user
+    * @return OK, NOT_OWNER or USER_NOT_FOUND
+    **/
+   public static Status addUserToChat(Messenger esql, String currUser, int chatID, String userToAdd) throws SQLException {
+       //adds the user if they exist and the current user is the inital sender
+       int owner = userId(esql, currUser);
+       int added = esql.executeUpdate("INSERT INTO CHAT_LIST(chat_id, member_id) SELECT chat_id, user_id FROM CHAT, USR WHERE chat_id=? AND init_sender_id=? AND login=?", chatID, owner, userToAdd);
+       if(added > 0)
+           return Status.OK;
+       if(!esql.exists("SELECT 1 FROM CHAT WHERE chat_id=? AND init_sender_id=?", chatID, owner))
+           return Status.NOT_OWNER;
+       return Status.USER_NOT_FOUND;
+   }
+
+   private static Status addMember(Messenger esql, int chatID, String userToAdd) throws SQLException {
+       //inserts nothing if the user is not in db
+       int added = esql.executeUpdate("INSERT INTO CHAT_LIST(chat_id, member_id) SELECT ?, user_id FROM USR WHERE login = ?", chatID, userToAdd);
+       return added > 0 ? Status.OK : Status.USER_NOT_FOUND;
+   }
+   
+   public static void CreateChat(Messenger esql, String currUser){       
+       try{
+           int numPeople = 0;
+
+           int chatid = CreateChat(esql, currUser, new ArrayList<String>());
+           System.out.print("Your chat ID is: " + chatid + "\n");
+           
+           boolean flg = true; 
+           while(flg){
+               addUserToChat(esql, currUser, chatid);
+               numPeople++;
+               if(numPeople == 2){
+                   markGroupChat(esql, chatid);
+               }
+               System.out.print("Are you done adding? ('y' or 'n'): ");
+               String yn = in.readLine();
+               if(yn.equals("y")){
+                   flg = false;
+               }
+           }
+           
+
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+           return;
+       }
+       
+   }//end 
+
+   /*
+    * Starts a new chat with the current user and the given members. Logins
+    * that do not exist are skipped. A chat with two or more added members
+    * becomes a group chat.
+    * @return the new chat ID
+    **/
+   public static int CreateChat(Messenger esql, String currUser, List<String> members) throws SQLException {
+       if(members.isEmpty()){
+           int chatid = esql.queryFirst("SELECT create_chat(?, 'private')", FIRST_INT, userId(esql, currUser));
+           esql.markWrite();
+           return chatid;
+       }
+       return CreateGroupChat(esql, currUser, members, null);
+   }//end
+
+   /*
+    * Starts a chat with any number of members in one transaction: all logins
+    * are validated with set-based lookups, the chat is created with its
+    * final type and the members are inserted with one INSERT ... SELECT per
+    * LOOKUP_CHUNK logins. Duplicates and the current user are ignored in
+    * the member list.
+    * @param notFound receives the logins that do not exist, may be null
+    * @return the new chat ID
+    **/
+   public static int CreateGroupChat(Messenger esql, String currUser, Collection<String> members, List<String> notFound) throws SQLException {
+       Set<String> wanted = new LinkedHashSet<String>();
+       for(String member : members)
+           wanted.add(member.trim());
+       wanted.remove(currUser);
+
+       esql.begin();
+       boolean done = false;
+       try{
+           Map<String, Integer> existing = existingUsers(esql, wanted);
+           if(notFound != null)
+               for(String member : wanted)
+                   if(!existing.containsKey(member))
+                       notFound.add(member);
+
+           String type = existing.size() >= 2 ? "group" : "private";
+           int chatid = esql.queryFirst("SELECT create_chat(?, ?)", FIRST_INT, userId(esql, currUser), type);
+           String insert = "INSERT INTO CHAT_LIST(chat_id, member_id) SELECT ?, user_id FROM USR WHERE login IN " + LOGIN_LIST;
+           for(Object[] chunk : loginChunks(existing.keySet())){
+               Object[] params = new Object[LOOKUP_CHUNK + 1];
+               params[0] = chatid;
+               System.arraycopy(chunk, 0, params, 1, LOOKUP_CHUNK);
+               esql.executeUpdate(insert, params);
+           }
+           done = true;
+           return chatid;
+       }finally{
+           if(done) esql.commit(); else esql.rollback();
+       }
+   }//end
+
+   // "(?, ?, ...)" with LOOKUP_CHUNK placeholders
+   private static final String LOGIN_LIST;
+   static {
+       StringBuilder list = new StringBuilder("(?");
+       for(int i = 1; i < LOOKUP_CHUNK; i++)
+           list.append(", ?");
+       LOGIN_LIST = list.append(')').toString();
+   }
+
+   /*
+    * Splits logins into chunks of LOOKUP_CHUNK for a "login IN LOGIN_LIST"
+    * condition. The last chunk is padded with its first login, so that every
+    * chunk binds the same statement.
+    **/
+   private static List<Object[]> loginChunks(Collection<String> logins) {
+       List<Object[]> chunks = new ArrayList<Object[]>();
+       Object[] chunk = new Object[LOOKUP_CHUNK];
+       int n = 0;
+       for(String login : logins){
+           chunk[n++] = login;
+           if(n == LOOKUP_CHUNK){
+               chunks.add(chunk);
+               chunk = new Object[LOOKUP_CHUNK];
+               n = 0;
+           }
+       }
+       if(n > 0){
+           Arrays.fill(chunk, n, LOOKUP_CHUNK, chunk[0]);
+           chunks.add(chunk);
+       }
+       return chunks;
+   }//end
+
+   /*
+    * Looks logins up LOOKUP_CHUNK at a time with SELECT ... WHERE login IN (...).
+    * @return the user_id of each login that exists
+    **/
+   private static Map<String, Integer> existingUsers(Messenger esql, Collection<String> logins) throws SQLException {
+       final Map<String, Integer> existing = new HashMap<String, Integer>();
+       Messenger.RowCallback collect = new Messenger.RowCallback() {
+           public void row(ResultSet rs) throws SQLException {
+               existing.put(trimmed(rs, 1), rs.getInt(2));
+           }
+       };
+       for(Object[] chunk : loginChunks(logins))
+           esql.forEach("SELECT login, user_id FROM USR WHERE login IN " + LOGIN_LIST, collect, chunk);
+       return existing;
+   }//end
+
+   /*
+    * Turns a private chat into a group chat
+    **/
+   public static void markGroupChat(Messenger esql, int chatid) throws SQLException {
+       esql.executeUpdate("UPDATE CHAT SET chat_type='group' WHERE chat_id=?", chatid);
+   }
+
+   public static void BrowseChats(Messenger esql, String currUser){
+       try{
+           List<ChatSummary> inbox = fetchInbox(esql, currUser, 0);
+           if(!inbox.isEmpty())
+               System.out.println("chats\tlast activity\tmessages\tmembers\tunread\tlast message");
+           for(ChatSummary c : inbox){
+               System.out.print(c.getChatId() + "\t");
+               System.out.print((c.getLastTimestamp() == null ? "-" : c.getLastTimestamp().toString()) + "\t");
+               System.out.print(c.getMessageCount() + "\t" + c.getMemberCount() + "\t" + c.getUnread() + "\t");
+               System.out.println(c.getLastSender() == null ? "" : c.getLastSender() + ": " + c.getLastText());
+           }
+        
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+           return;
+       }
+   }
+
+   /*
+    * Lists the current user's chats by last activity, most recent first,
+    * from the summaries kept by the triggers of triggers.sql, so the cost
+    * does not depend on how many messages the chats hold
+    * @param limit maximum number of chats, 0 for all
+    * @return the chat summaries with the user's unread counts
+    **/
+   public static List<ChatSummary> fetchInbox(Messenger esql, String currUser, int limit) throws SQLException {
+       return esql.reader().query("SELECT s.chat_id, s.last_msg_ts, u.login, s.last_text, s.msg_count, s.member_count, l.unread FROM CHAT_LIST l, CHAT_SUMMARY s LEFT JOIN USR u ON u.user_id = s.last_sender_id WHERE l.member_id = ? AND s.chat_id = l.chat_id ORDER BY s.last_msg_ts DESC NULLS LAST, s.chat_id DESC LIMIT ?", CHAT_SUMMARY, userId(esql, currUser), limit > 0 ? limit : Integer.MAX_VALUE);
+   }
+
+   /*
+    * @return IDs of the chats the current user belongs to
+    **/
+   public static List<Integer> fetchChats(Messenger esql, String currUser) throws SQLException {
+       return esql.query("SELECT chat_id as chats FROM CHAT_LIST WHERE member_id = ?", FIRST_INT, userId(esql, currUser));
+   }
+   
+   public static void EditMessage(Messenger esql, String currUser){ 
+        try{
+                //get the message Id that user wants to delete
+                System.out.println("Choose the message id you like to edit: ");
+                int msgID = Integer.parseInt(in.readLine());
+
+                //check if message id exists and if the user is its sender
+                boolean[] chk = esql.exists(new String[] {
+                        "SELECT 1 FROM MESSAGE WHERE msg_id = ?",
+                        "SELECT 1 FROM MESSAGE WHERE msg_id = ? AND sender_id = ?"}, msgID, msgID, userId(esql, currUser));
+
+                //if chat id is valid
+                if(chk[0])
+                {
+                        //if user is valid
+                        if(chk[1]){
+                                System.out.println("What would you like to update the message to? ");
+                                String newMsg = in.readLine();
+                                //select the message
+                                esql.executeUpdate("UPDATE MESSAGE SET msg_text = ? WHERE msg_id = ?", newMsg, msgID);
+                        }
+                        else{
+                                System.out.println("You are not the sender of this message!\n");
+                        }
+                }
+                else{
+                        System.out.println("This message does not exist!\n");
+                }
+        }catch(Exception e){
+                System.err.println(e.getMessage());
+                return;
+        }
+   }
+
+   /*
+    * Replaces the text of a message sent by the current user
+    * @return OK, MESSAGE_NOT_FOUND or NOT_SENDER
+    **/
+   public static Status EditMessage(Messenger esql, String currUser, int msgID, String newMsg) throws SQLException {
+        //updates nothing unless the user is the sender
+        if(esql.executeUpdate("UPDATE MESSAGE SET msg_text = ? WHERE msg_id = ? AND sender_id = ?", newMsg, msgID, userId(esql, currUser)) > 0)
+                return Status.OK;
+        return messageCheckFailed(esql, msgID);
+   }
+   
+   public static void BrowseMessages(Messenger esql, String currUser){
+
+         try{
+           
+           System.out.print("Enter a chat ID that you want to view messages of: ");
+           int chatid = Integer.parseInt(in.readLine());
+           
+           Timestamp beforeTs = null;
+           int beforeId = 0;
+           boolean done = true;
+
+           while(done){
+               //fetch one row more than a page to know if earlier messages exist
+               List<Message> listMsg = BrowseMessages(esql, currUser, chatid, beforeTs, beforeId, PAGE_SIZE + 1);
+               if(listMsg == null){
+                   System.out.println("Chat ID does not exist or you do not belong to this chat.");
+                   return;
+               }
+               int num = Math.min(listMsg.size(), PAGE_SIZE);
+
+               for(int i = 0; i < num; i++){
+                   Message m = listMsg.get(i);
+                   System.out.println("Msg ID: " + m.getId()); //Msg id
+                   System.out.println(m.getTimestamp()); //Timestamp
+                   System.out.println(m.getSender()); //Username
+                   System.out.println(m.getText()); //Message text
+               }
+
+               if(listMsg.size() > PAGE_SIZE){
+                   System.out.println("Do you want to load earlier messages? ('y' or 'n')");
+                   String ans = in.readLine();
+
+                   if(ans.equals("n")){
+                       System.out.println("No more messages to display!");
+                       done = false;
+                   }
+                   //continue after the last message shown
+                   beforeTs = listMsg.get(num - 1).getTimestamp();
+                   beforeId = listMsg.get(num - 1).getId();
+               }
+               else{
+                    done = false;
+                }
+           }
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+           return;
+       }
+   }
+
+   /*
+    * Fetches one page of messages of a chat the current user belongs to.
+    * Like every caller, ask for one message more than is shown: the last
+    * message of a full page only tells whether earlier ones exist, and
+    * whether the shown ones reach back to the user's read cursor (see
+    * markRead). Later pages continue before the last message shown.
+    * @return the page (see fetchMessagePage), or null if the user is not a member
+    **/
+   public static List<Message> BrowseMessages(Messenger esql, String currUser, int chatid, Timestamp beforeTs, int beforeId, int pageSize) throws SQLException {
+       //Check if the user is apart of the chatID, reading the read cursor on the way
+       Messenger reader = esql.reader();
+       Message cursor = reader.queryFirst("SELECT last_read_ts, last_read_id FROM CHAT_LIST WHERE chat_id=? AND member_id=?", READ_CURSOR, chatid, userId(esql, currUser));
+       if(cursor == null)
+           return null;
+       List<Message> page = fetchMessagePage(reader, chatid, beforeTs, beforeId, pageSize);
+       markRead(esql, currUser, chatid, cursor, beforeTs == null ? null : new Message(beforeTs, beforeId, null, null), page, pageSize);
+       return page;
+   }
+
+   /*
+    * Follows the session's browse of a chat, which starts at its first page
+    * and goes on with each page right before the last one shown, and moves
+    * the current user's read cursor to the newest message shown once the
+    * shown messages reach back to the cursor: they are then all the
+    * messages after it, so those sent by others are exactly what the
+    * unread count drops by. If the browse stops or jumps before that, or
+    * the cursor moved meanwhile, the cursor and the count stay.
+    * @param cursor the read cursor when the page was fetched
+    * @param before the last message of the previous page, null for the first page
+    * @param page the messages fetched, newest first; the last one of a full
+    * page was not shown
+    * @param pageSize the number of messages asked for
+    **/
+   private static void markRead(Messenger esql, String currUser, int chatid, Message cursor, Message before, List<Message> page, int pageSize) throws SQLException {
+       int user = userId(esql, currUser);
+       int shown = page.size() < pageSize ? page.size() : pageSize - 1;
+       Browse b = esql._browse;
+       if(before == null)
+           b = shown > 0 && after(page.get(0), cursor) ? new Browse(chatid, user, cursor, page.get(0)) : null;
+       else if(b != null && (b.chatId != chatid || b.userId != user || !same(b.cursor, cursor) || !same(b.oldest, before)))
+           b = null;
+       esql._browse = b;
+       if(b == null)
+           return;
+       for(Message m : page.subList(0, shown))
+           if(after(m, cursor) && !currUser.equals(m.getSender()))
+               b.read++;
+       if(shown > 0)
+           b.oldest = page.get(shown - 1);
+       //the first message not shown, if any, must be read already
+       if(page.size() == pageSize && after(page.get(shown), cursor))
+           return;
+       esql._browse = null;
+       esql.executeQuery("SELECT mark_read(?, ?, ?, ?, ?, ?, ?)", chatid, user,
+                         cursor.getTimestamp(), cursor.getId(), b.newest.getTimestamp(), b.newest.getId(), b.read);
+       esql.markWrite();
+   }
+
+   /*
+    * @return true if message a comes after message b in the
+    * (msg_timestamp, msg_id) order of the pages and read cursors
+    **/
+   private static boolean after(Message a, Message b) {
+       int c = a.getTimestamp().compareTo(b.getTimestamp());
+       return c > 0 || (c == 0 && a.getId() > b.getId());
+   }
+
+   private static boolean same(Message a, Message b) {
+       return a.getId() == b.getId() && a.getTimestamp().equals(b.getTimestamp());
+   }
+
+   public static void ShowUnread(Messenger esql, String currUser){
+       try{
+           Map<Integer, Integer> unread = fetchUnreadChats(esql, currUser);
+           if(unread.isEmpty())
+               return;
+           System.out.println("\nYou have unread messages:");
+           for(Map.Entry<Integer, Integer> e : unread.entrySet())
+               System.out.println("\tchat " + e.getKey() + ": " + e.getValue() + " unread");
+           System.out.println();
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+       }
+   }
+
+   /*
+    * Reads the counters kept by the triggers of triggers.sql, through the
+    * partial index on unread chats
+    * @return unread message count per chat ID, only chats with unread messages
+    **/
+   public static Map<Integer, Integer> fetchUnreadChats(Messenger esql, String currUser) throws SQLException {
+       final Map<Integer, Integer> unread = new LinkedHashMap<Integer, Integer>();
+       esql.reader().forEach("SELECT chat_id, unread FROM CHAT_LIST WHERE member_id = ? AND unread > 0 ORDER BY chat_id", new RowCallback() {
+           public void row(ResultSet rs) throws SQLException {
+               unread.put(rs.getInt(1), rs.getInt(2));
+           }
+       }, userId(esql, currUser));
+       return unread;
+   }
+
+   /*
+    * Fetches one page of a chat's messages, newest first. Pages are keyed on
+    * the (msg_timestamp, msg_id) of the last message of the previous page
+    * instead of an offset, so a deep page costs the same as the first one.
+    * The RECENT_MILLIS before the page are read first with explicit bounds
+    * on msg_timestamp, which lets the planner skip all other partitions of
+    * MESSAGE; older history is only read when they do not fill the page,
+    * and the archive (see MessageArchive) once MESSAGE has no older rows.
+    * @param beforeTs timestamp of the last message already shown, or null for the first page
+    * @param beforeId msg_id of the last message already shown
+    * @return the messages of the page, newest first
+    **/
+   public static List<Message> fetchMessagePage(Messenger esql, int chatid, Timestamp beforeTs, int beforeId, int pageSize) throws SQLException {
+       Timestamp recent = new Timestamp((beforeTs != null ? beforeTs.getTime() : System.currentTimeMillis()) - RECENT_MILLIS);
+       List<Message> page;
+       if(beforeTs == null){
+           page = esql.query("SELECT m.msg_timestamp, m.msg_id, u.login, m.msg_text AS messages FROM MESSAGE m LEFT JOIN USR u ON u.user_id = m.sender_id WHERE m.chat_id=? AND m.msg_timestamp > ? ORDER BY m.msg_timestamp DESC, m.msg_id DESC LIMIT ?", MESSAGE, chatid, recent, pageSize);
+       }else{
+           page = esql.query("SELECT m.msg_timestamp, m.msg_id, u.login, m.msg_text AS messages FROM MESSAGE m LEFT JOIN USR u ON u.user_id = m.sender_id WHERE m.chat_id=? AND m.msg_timestamp > ? AND m.msg_timestamp <= ? AND (m.msg_timestamp, m.msg_id) < (?, ?) ORDER BY m.msg_timestamp DESC, m.msg_id DESC LIMIT ?", MESSAGE, chatid, recent, beforeTs, beforeTs, beforeId, pageSize);
+       }
+       //the recent window is exhausted, continue before it
+       if(page.size() < pageSize)
+           page.addAll(esql.query("SELECT m.msg_timestamp, m.msg_id, u.login, m.msg_text AS messages FROM MESSAGE m LEFT JOIN USR u ON u.user_id = m.sender_id WHERE m.chat_id=? AND m.msg_timestamp <= ? ORDER BY m.msg_timestamp DESC, m.msg_id DESC LIMIT ?", MESSAGE, chatid, recent, pageSize - page.size()));
+       //MESSAGE is exhausted too, continue in the archived messages, which are all older
+       if(page.size() < pageSize && ARCHIVE != null){
+           Message last = page.isEmpty() ? null : page.get(page.size() - 1);
+           try{
+               page.addAll(ARCHIVE.page(chatid, last != null ? last.getTimestamp() : beforeTs, last != null ? last.getId() : beforeId, pageSize - page.size()));
+           }catch(IOException e){
+               throw new SQLException("Cannot read the archive of chat " + chatid + ": " + e.getMessage(), e);
+           }
+       }
+       return page;
+   }
+
+   public static void SearchMessages(Messenger esql, String currUser){
+       try{
+           System.out.print("Enter the words to search for: ");
+           String terms = in.readLine();
+
+           double beforeRank = Double.MAX_VALUE;
+           int beforeId = Integer.MAX_VALUE;
+           boolean more = true;
+           while(more){
+               //fetch one row more than a page to know if there are more results
+               List<SearchHit> hits = SearchMessages(esql, currUser, terms, beforeRank, beforeId, PAGE_SIZE + 1);
+               if(hits.isEmpty() && beforeId == Integer.MAX_VALUE){
+                   System.out.println("No messages found.");
+                   return;
+               }
+               if(beforeId == Integer.MAX_VALUE && hits.get(0).isLimited())
+                   System.out.println("Only the newest " + SEARCH_CANDIDATES + " matching messages are searched; add words to find older ones.");
+               int num = Math.min(hits.size(), PAGE_SIZE);
+               for(int i = 0; i < num; i++){
+                   SearchHit h = hits.get(i);
+                   System.out.println("Chat ID: " + h.getChatId() + "  Msg ID: " + h.getMsgId());
+                   System.out.println(h.getTimestamp() + "  " + h.getSender());
+                   System.out.println(h.getText());
+               }
+
+               more = false;
+               if(hits.size() > PAGE_SIZE){
+                   System.out.println("Do you want to see more results? ('y' or 'n')");
+                   if(in.readLine().equals("y")){
+                       more = true;
+                       beforeRank = hits.get(num - 1).getRank();
+                       beforeId = hits.get(num - 1).getMsgId();
+                   }
+               }
+           }
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+           return;
+       }
+   }
+
+   /*
+    * Searches the messages of the chats the current user belongs to, best
+    * match first. The words are matched as an English full-text query
+    * through the GIN index on to_tsvector('english', msg_text) (see
+    * create_indexes.sql), never with LIKE; the chats are passed as an
+    * array so that the index is combined with the chat index. Only the
+    * SEARCH_CANDIDATES newest matches (messenger.search.candidates, default
+    * 1000) are ranked, so common words cost no more than rare ones; older
+    * matches are not found, which every hit tells with isLimited(). Pages
+    * are keyed on the (rank, msg_id) of the last hit of the previous page.
+    * @param beforeRank rank of the last hit already shown, Double.MAX_VALUE for the first page
+    * @param beforeId msg_id of the last hit already shown, Integer.MAX_VALUE for the first page
+    * @return hits of chat_id, msg_id, sender login, msg_timestamp, msg_text, rank and
+    * whether there were more matches than were ranked
+    **/
+   public static List<SearchHit> SearchMessages(Messenger esql, String currUser, String terms, double beforeRank, int beforeId, int pageSize) throws SQLException {
+       // one candidate more than are ranked tells whether older matches were left out
+       return esql.reader().query("SELECT page.chat_id, page.msg_id, u.login, page.msg_timestamp, page.msg_text, page.rank, page.found > ? FROM (SELECT * FROM ("
+           + "SELECT c.chat_id, c.msg_id, c.sender_id, c.msg_timestamp, c.msg_text, "
+           + "CAST(ts_rank(to_tsvector('english', c.msg_text), q) AS float8) AS rank, "
+           + "row_number() OVER (ORDER BY c.msg_timestamp DESC, c.msg_id DESC) AS pos, COUNT(*) OVER () AS found "
+           + "FROM plainto_tsquery('english', ?) q, LATERAL ("
+           + "SELECT m.chat_id, m.msg_id, m.sender_id, m.msg_timestamp, m.msg_text FROM MESSAGE m "
+           + "WHERE to_tsvector('english', m.msg_text) @@ q "
+           + "AND m.chat_id = ANY (ARRAY(SELECT chat_id FROM CHAT_LIST WHERE member_id = ?)) "
+           + "ORDER BY m.msg_timestamp DESC, m.msg_id DESC LIMIT ?) c) hits "
+           + "WHERE pos <= ? AND (rank, msg_id) < (?, ?) ORDER BY rank DESC, msg_id DESC LIMIT ?) page "
+           + "LEFT JOIN USR u ON u.user_id = page.sender_id ORDER BY page.rank DESC, page.msg_id DESC",
+           SEARCH_HIT, SEARCH_CANDIDATES, terms, userId(esql, currUser), SEARCH_CANDIDATES + 1, SEARCH_CANDIDATES,
+           beforeRank, beforeId, pageSize);
+   }
+
+   public static void DeleteContact(Messenger esql, String currUser){
+       try{
+           System.out.print("Enter the login name of the user: ");
+           String contact = in.readLine();
+
+           Status st = DeleteContact(esql, currUser, contact);
+           if(st == Status.OK){
+               System.out.print("\n----------------------------------------\n");
+               System.out.println("User successfully deleted from contacts list!");
+               System.out.print("----------------------------------------\n");
+           }
+           else if(st == Status.NOT_IN_LIST){
+               System.out.print("\n----------------------------------------\n");
+               System.out.println("User not found in contacts list!");
+               System.out.print("----------------------------------------\n");
+           }
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+           return;
+       }
+   }
+
+   /*
+    * Removes a user from the current user's contact list
+    * @return OK, USER_NOT_FOUND or NOT_IN_LIST
+    **/
+   public static Status DeleteContact(Messenger esql, String currUser, String contact) throws SQLException {
+       UserSession session = esql.getSession(currUser);
+       if(!session.isContact(esql, contact)){
+           //Check if the user is in database
+           if(!esql.reader().exists("SELECT 1 FROM Usr WHERE login = ?", contact))
+               return Status.USER_NOT_FOUND;
+           return Status.NOT_IN_LIST;
+       }
+
+       int deleted = esql.executeUpdate("DELETE FROM USER_LIST_CONTAINS WHERE list_id = ? AND member_id = (SELECT user_id FROM USR WHERE login = ?)", session.getContactListId(), contact);
+       session.contactChanged(contact, false);
+       //the member may have deleted their account in the meantime
+       return deleted > 0 ? Status.OK : Status.USER_NOT_FOUND;
+   }
+
+
+   public static void DeleteBlocked(Messenger esql, String currUser){
+       try{
+           System.out.print("Enter the login name of the user: ");
+           String contact = in.readLine();
+
+           Status st = DeleteBlocked(esql, currUser, contact);
+           if(st == Status.OK){
+               System.out.print("\n----------------------------------------\n");
+               System.out.println("User successfully deleted from blocked list!");
+               System.out.print("----------------------------------------\n");
+           }
+           else if(st == Status.NOT_IN_LIST){
+               System.out.print("\n----------------------------------------\n");
+               System.out.println("User not found in blocked list!");
+               System.out.print("----------------------------------------\n");
+           }
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+           return;
+       }
+   }
+
+   /*
+    * Removes a user from the current user's blocked list
+    * @return OK, USER_NOT_FOUND or NOT_IN_LIST
+    **/
+   public static Status DeleteBlocked(Messenger esql, String currUser, String contact) throws SQLException {
+       UserSession session = esql.getSession(currUser);
+       if(!session.isBlocked(esql, contact)){
+           //Check if the user is in database
+           if(!esql.reader().exists("SELECT 1 FROM Usr WHERE login = ?", contact))
+               return Status.USER_NOT_FOUND;
+           return Status.NOT_IN_LIST;
+       }
+
+       int deleted = esql.executeUpdate("DELETE FROM USER_LIST_CONTAINS WHERE list_id = ? AND member_id = (SELECT user_id FROM USR WHERE login = ?)", session.getBlockListId(), contact);
+       session.blockedChanged(contact, false);
+       //the member may have deleted their account in the meantime
+       return deleted > 0 ? Status.OK : Status.USER_NOT_FOUND;
+   }
+
+   
+   public static void DeleteChat(Messenger esql, String currUser){
+       try{
+           System.out.print("Enter the ID of the chat to delete: ");
+           int chatID = Integer.parseInt(in.readLine());
+           
+           if(DeleteChat(esql, currUser, chatID) != Status.OK){
+               System.out.print("You cannot delete this chat.\n");
+           }
+        
+       }catch(Exception e){
+           System.err.println(e.getMessage());
+           return;
+       }
+   }
+
+   /*
+    * Deletes a chat started by the current user, with its members and messages
+    * @return OK or NOT_OWNER
+    **/
+   public static Status DeleteChat(Messenger esql, String currUser, int chatID) throws SQLException {
+       //Checks that the current user made the chat, then deletes chat, chatlist and messages
+       Status status = esql.callStatus("SELECT delete_chat(?, ?)", chatID, userId(esql, currUser));
+       if(status == Status.OK && ARCHIVE != null)
+           ARCHIVE.delete(chatID);
+       return status;
+   }
+   
+   public static boolean DeleteAccount(Messenger esql, String currUser){
+         try{
+                //if there is no chat manager, then delete the account
+                if(removeAccount(esql, currUser) == Status.OK)
+                {
+                        System.out.println("User is deleted!");
+                        return true;
+                }
+                //otherwise
+                else
+                {
+                        System.out.println("There are still chats not deleted. Please delete them first.");
+                        //list the chats still active
+                        esql.executeQueryAndPrintResult("SELECT chat_id as chats FROM CHAT WHERE init_sender_id = ?", userId(esql, currUser));
+                        return false;
+                }
+        }catch(Exception e){
+                System.err.println(e.getMessage());
+                return false;
+        }
+
+   }
+
+   /*
+    * @return IDs of the chats started by the current user
+    **/
+   public static List<Integer> fetchOwnedChats(Messenger esql, String currUser) throws SQLException {
+        return esql.query("SELECT chat_id as chats FROM CHAT WHERE init_sender_id = ?", FIRST_INT, userId(esql, currUser));
+   }
+
+   /*
+    * Deletes the current user's account if they no longer own any chat
+    * @return OK or HAS_CHATS
+    **/
+   public static Status removeAccount(Messenger esql, String currUser) throws SQLException {
+        //checks if there are still chat manager, then deletes the account
+        Status st = esql.callStatus("SELECT delete_account(?)", userId(esql, currUser));
+        if(st == Status.OK)
+                esql.endSession();
+        return st;
+   }
+
+public static void DeleteMessage(Messenger esql, String currUser){
+        try{
+                //get the message Id that user wants to delete
+                System.out.println("Choose the message id you like to delete: ");
+                int msgID = Integer.parseInt(in.readLine());
+
+                Status st = DeleteMessage(esql, currUser, msgID);
+                if(st == Status.OK){
+                        System.out.println("Message has been deleted.");
+                }
+                else if(st == Status.NOT_SENDER){
+                        System.out.println("You are not the sender of this message!\n");
+                }
+                else{
+                        System.out.println("This message does not exist\n");
+                }
+        }catch(Exception e){
+                System.err.println(e.getMessage());
+                return;
+        }
+}
+
+   /*
+    * Deletes a message sent by the current user
+    * @return OK, MESSAGE_NOT_FOUND or NOT_SENDER
+    **/
+   public static Status DeleteMessage(Messenger esql, String currUser, int msgID) throws SQLException {
+        //deletes nothing unless the user is the sender
+        if(esql.executeUpdate("DELETE FROM MESSAGE WHERE msg_id = ? AND sender_id = ?", msgID, userId(esql, currUser)) > 0)
+                return Status.OK;
+        return messageCheckFailed(esql, msgID);
+   }
+
+   /*
+    * @return the user_id of the current user, from the session profile
+    **/
+   private static int userId(Messenger esql, String currUser) throws SQLException {
+        return esql.getSession(currUser).getUserId();
+   }
+
+   /*
+    * Tells why an update or delete restricted to the sender matched nothing
+    * @return MESSAGE_NOT_FOUND or NOT_SENDER
+    **/
+   private static Status messageCheckFailed(Messenger esql, int msgID) throws SQLException {
+        if(!esql.reader().exists("SELECT 1 FROM MESSAGE WHERE msg_id = ?", msgID))
+                return Status.MESSAGE_NOT_FOUND;
+        return Status.NOT_SENDER;
+   }
+
+public static void AddtoChat(Messenger esql, String currUser){
+        try{
+                //get the chatID that wants to be added
+                System.out.println("Enter the chatID: ");
+                int chatID = Integer.parseInt(in.readLine());
+
+                //check if chatID is real
+                boolean chkChat = esql.exists("SELECT 1 FROM CHAT WHERE chat_id = ?", chatID);
+
+                if(chkChat){
+                        addUserToChat(esql, currUser, chatID);
+                }
+                else{
+                        System.out.println("This chat does not exist!");
+                }
+        }catch(Exception e){
+                System.err.println(e.getMessage());
+                return;
+        }
+}
+
+   /*
+    * Adds a user to an existing chat started by the current user
+    * @return OK, CHAT_NOT_FOUND, NOT_OWNER or USER_NOT_FOUND
+    **/
+   public static Status AddtoChat(Messenger esql, String currUser, int chatID, String userToAdd) throws SQLException {
+        Status st = addUserToChat(esql, currUser, chatID, userToAdd);
+        //check if chatID is real
+        if(st == Status.NOT_OWNER && !esql.reader().exists("SELECT 1 FROM CHAT WHERE chat_id = ?", chatID))
+                return Status.CHAT_NOT_FOUND;
+        return st;
+   }
+
+   /*
+    * Prints rows the way executeQueryAndPrintResult does: a header line
+    * followed by one tab separated line per row, nothing if there are no rows
+    **/
+   public static void printResult(String[] header, List<List<String>> rows){
+        if(rows.isEmpty())
+                return;
+        for(String h : header)
+                System.out.print(h + "\t");
+        System.out.println();
+        for(List<String> row : rows){
+                for(String v : row)
+                        System.out.print(v + "\t");
+                System.out.println();
+        }
+   }
+
+}//end Messenger
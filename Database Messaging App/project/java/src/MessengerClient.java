@@ -0,0 +1,410 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * This class is the keyboard menu of Messenger as a client of a
+ * MessengerServer: it holds no database connection, sends one request per
+ * action and prints the response. Messages other users send to the
+ * user's chats are printed as they arrive.
+ *
+ */
+public class MessengerClient {
+
+   /**
+    * A status and its rows.
+    */
+   static class Response {
+      final String status;
+      final List<String[]> rows = new ArrayList<String[]>();
+
+      Response (String[] statusLine){
+         this.status = statusLine[0];
+         if (statusLine[0].equals("ERROR"))
+            System.err.println(statusLine.length > 1 ? statusLine[1] : "Request failed");
+      }
+
+      boolean ok (){
+         return status.equals("OK");
+      }
+   }//end Response
+
+   // marks the end of the connection in the response queue
+   private static final String EOF = new String("EOF");
+
+   private final Socket socket;
+   private final Writer out;
+   private final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+
+   /**
+    * Connects and starts the thread that reads the server's lines.
+    */
+   public MessengerClient (String host, int port) throws IOException {
+      this.socket = new Socket(host, port);
+      this.out = new OutputStreamWriter(socket.getOutputStream(), MessengerServer.UTF8);
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), MessengerServer.UTF8));
+      Thread t = new Thread(new Runnable(){
+         public void run(){
+            try{
+               for (String line = reader.readLine(); line != null; line = reader.readLine()){
+                  if (line.startsWith("*\t")){
+                     // chat, msg_id, timestamp, sender, text
+                     String[] f = MessengerServer.split(line.substring(2));
+                     System.out.println("\n[chat " + f[0] + "] " + f[3] + ": " + f[4]);
+                  }else
+                     lines.add(line);
+               }//end for
+            }catch (IOException e){
+               // the connection is closed
+            }//end try
+            lines.add(EOF);
+         }
+      }, "messenger-client");
+      t.setDaemon(true);
+      t.start();
+   }//end MessengerClient
+
+   /**
+    * Sends one request and reads its response.
+    *
+    * @param fields the command and its arguments
+    */
+   public Response request (Object... fields) throws IOException {
+      out.write(MessengerServer.join(fields));
+      out.write('\n');
+      out.flush();
+      Response r = null;
+      while (true){
+         String line;
+         try{
+            line = lines.take();
+         }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+         }//end try
+         if (line == EOF){
+            lines.add(EOF);
+            throw new IOException("The server closed the connection");
+         }//end if
+         if (r == null)
+            r = new Response(MessengerServer.split(line));
+         else if (line.equals("."))
+            return r;
+         else
+            r.rows.add(MessengerServer.split(line));
+      }//end while
+   }//end request
+
+   public void close (){
+      try{
+         request("QUIT");
+         socket.close();
+      }catch (IOException e){
+         // closed anyway
+      }//end try
+   }//end close
+
+   private static String prompt (String text) throws IOException {
+      System.out.print(text);
+      return Messenger.in.readLine();
+   }//end prompt
+
+   private static void boxed (String text){
+      System.out.print("\n----------------------------------------\n");
+      System.out.println(text);
+      System.out.print("----------------------------------------\n");
+   }//end boxed
+
+   private static void print (String[] header, List<String[]> rows){
+      List<List<String>> table = new ArrayList<List<String>>();
+      for (String[] row : rows){
+         List<String> r = new ArrayList<String>();
+         for (String v : row)
+            r.add(v);
+         table.add(r);
+      }//end for
+      Messenger.printResult(header, table);
+   }//end print
+
+   private void createUser () throws IOException {
+      String login = prompt("\tEnter user login: ");
+      String password = prompt("\tEnter user password: ");
+      String phone = prompt("\tEnter user phone: ");
+      Response r = request("CREATE_USER", login, password, phone);
+      if (r.ok())
+         System.out.println ("User successfully created!");
+      else if (r.status.equals("TAKEN"))
+         System.out.println("User is already taken");
+   }//end createUser
+
+   private String logIn () throws IOException {
+      String login = prompt("\tEnter user login: ");
+      String password = prompt("\tEnter user password: ");
+      Response r = request("LOGIN", login, password);
+      if (!r.ok())
+         return null;
+      if (!r.rows.isEmpty()){
+         System.out.println("\nYou have unread messages:");
+         for (String[] row : r.rows)
+            System.out.println("\tchat " + row[0] + ": " + row[1] + " unread");
+         System.out.println();
+      }//end if
+      return login;
+   }//end logIn
+
+   private void addToList (String command, String self, String already) throws IOException {
+      Response r = request(command, prompt("Enter the login name of the user: "));
+      if (r.status.equals("SELF"))
+         System.out.print("\n---------------------\n" + self + "\n---------------------\n\n");
+      else if (r.status.equals("BLOCKED"))
+         boxed("This person is on your blocked list, please delete this person off your block list to add");
+      else if (r.status.equals("ALREADY_CONTACT") || r.status.equals("ALREADY_BLOCKED"))
+         boxed(already);
+      else if (r.ok())
+         boxed("User successfully added!");
+      else if (r.status.equals("USER_NOT_FOUND"))
+         boxed("User does not exist!");
+   }//end addToList
+
+   private void deleteFromList (String command, String list) throws IOException {
+      Response r = request(command, prompt("Enter the login name of the user: "));
+      if (r.ok())
+         boxed("User successfully deleted from " + list + "!");
+      else if (r.status.equals("NOT_IN_LIST"))
+         boxed("User not found in " + list + "!");
+      else if (r.status.equals("USER_NOT_FOUND"))
+         boxed("User does not exist!");
+   }//end deleteFromList
+
+   private void list (String command, String[] header) throws IOException {
+      Response r = request(command);
+      System.out.print("\n----------------------------------------\n");
+      print(header, r.rows);
+      System.out.print("----------------------------------------\n");
+   }//end list
+
+   private void browseChats () throws IOException {
+      Response r = request("INBOX");
+      if (!r.rows.isEmpty())
+         System.out.println("chats\tlast activity\tmessages\tmembers\tunread\tlast message");
+      for (String[] c : r.rows)
+         System.out.println(c[0] + "\t" + (c[1] == null ? "-" : c[1]) + "\t" + c[2] + "\t" + c[3] + "\t" + c[4] + "\t"
+                            + (c[5] == null ? "" : c[5] + ": " + c[6]));
+   }//end browseChats
+
+   private void browseMessages () throws IOException {
+      int chatId = Integer.parseInt(prompt("Enter a chat ID that you want to view messages of: "));
+      String beforeTs = null;
+      String beforeId = "0";
+      while (true){
+         //fetch one row more than a page to know if earlier messages exist
+         Response r = request("MESSAGES", chatId, beforeTs, beforeId, Messenger.PAGE_SIZE + 1);
+         if (r.status.equals("NOT_MEMBER")){
+            System.out.println("Chat ID does not exist or you do not belong to this chat.");
+            return;
+         }//end if
+         int num = Math.min(r.rows.size(), Messenger.PAGE_SIZE);
+         for (int i = 0; i < num; i++){
+            String[] m = r.rows.get(i);
+            System.out.println("Msg ID: " + m[0]);
+            System.out.println(m[1]);
+            System.out.println(m[2]);
+            System.out.println(m[3]);
+         }//end for
+         if (r.rows.size() <= Messenger.PAGE_SIZE)
+            return;
+         if (prompt("Do you want to load earlier messages? ('y' or 'n')\n").equals("n")){
+            System.out.println("No more messages to display!");
+            return;
+         }//end if
+         //continue after the last message shown
+         beforeTs = r.rows.get(num - 1)[1];
+         beforeId = r.rows.get(num - 1)[0];
+      }//end while
+   }//end browseMessages
+
+   private void createChat () throws IOException {
+      List<Object> request = new ArrayList<Object>();
+      request.add("CREATE_CHAT");
+      do{
+         request.add(prompt("Enter in user (login name) that you want to add: "));
+      }while (!prompt("Are you done adding? ('y' or 'n'): ").equals("y"));
+      Response r = request(request.toArray());
+      if (!r.ok())
+         return;
+      System.out.print("Your chat ID is: " + r.rows.get(0)[0] + "\n");
+      for (int i = 1; i < r.rows.size(); ++i)
+         System.out.print("Invalid User! (" + r.rows.get(i)[0] + ")\n");
+   }//end createChat
+
+   private void addToChat () throws IOException {
+      int chatId = Integer.parseInt(prompt("Enter the chatID: \n"));
+      Response r = request("ADD_MEMBER", chatId, prompt("Enter in user (login name) that you want to add: "));
+      if (r.ok())
+         System.out.print("User added to chat list!\n");
+      else if (r.status.equals("CHAT_NOT_FOUND"))
+         System.out.println("This chat does not exist!");
+      else if (r.status.equals("NOT_OWNER"))
+         System.out.println("Invalid chat ID or you are not the initial sender of this chat");
+      else if (r.status.equals("USER_NOT_FOUND"))
+         System.out.print("Invalid User!\n");
+   }//end addToChat
+
+   private void newMessage () throws IOException {
+      int chatId = Integer.parseInt(prompt("Enter a chat ID to send a message to: "));
+      Response r = request("SEND", chatId, prompt("Enter your message: "));
+      if (r.status.equals("NOT_MEMBER"))
+         System.out.print("You are not apart of this chat!\n");
+   }//end newMessage
+
+   private void changeMessage (boolean edit) throws IOException {
+      int msgId = Integer.parseInt(prompt("Choose the message id you like to " + (edit ? "edit" : "delete") + ": \n"));
+      Response r = edit ? request("EDIT", msgId, prompt("What would you like to update the message to? \n"))
+                        : request("DELETE_MSG", msgId);
+      if (r.ok() && !edit)
+         System.out.println("Message has been deleted.");
+      else if (r.status.equals("NOT_SENDER"))
+         System.out.println("You are not the sender of this message!\n");
+      else if (r.status.equals("MESSAGE_NOT_FOUND"))
+         System.out.println("This message does not exist!\n");
+   }//end changeMessage
+
+   private void deleteChat () throws IOException {
+      Response r = request("DELETE_CHAT", Integer.parseInt(prompt("Enter the ID of the chat to delete: ")));
+      if (r.status.equals("NOT_OWNER"))
+         System.out.print("You cannot delete this chat.\n");
+   }//end deleteChat
+
+   private boolean deleteAccount () throws IOException {
+      Response r = request("DELETE_ACCOUNT");
+      if (r.ok()){
+         System.out.println("User is deleted!");
+         return true;
+      }//end if
+      if (r.status.equals("HAS_CHATS")){
+         System.out.println("There are still chats not deleted. Please delete them first.");
+         print(new String[] {"chats"}, r.rows);
+      }//end if
+      return false;
+   }//end deleteAccount
+
+   private void searchMessages () throws IOException {
+      String terms = prompt("Enter the words to search for: ");
+      Object beforeRank = Double.MAX_VALUE;
+      Object beforeId = Integer.MAX_VALUE;
+      boolean first = true;
+      while (true){
+         //fetch one row more than a page to know if there are more results
+         Response r = request("SEARCH", terms, beforeRank, beforeId, Messenger.PAGE_SIZE + 1);
+         if (r.rows.isEmpty() && first){
+            System.out.println("No messages found.");
+            return;
+         }//end if
+         if (first && !r.rows.isEmpty() && r.rows.get(0)[6].equals("true"))
+            System.out.println("Only the newest matching messages are searched; add words to find older ones.");
+         int num = Math.min(r.rows.size(), Messenger.PAGE_SIZE);
+         for (int i = 0; i < num; i++){
+            String[] h = r.rows.get(i);
+            System.out.println("Chat ID: " + h[0] + "  Msg ID: " + h[1]);
+            System.out.println(h[2] + "  " + h[3]);
+            System.out.println(h[4]);
+         }//end for
+         if (r.rows.size() <= Messenger.PAGE_SIZE
+             || !prompt("Do you want to see more results? ('y' or 'n')\n").equals("y"))
+            return;
+         first = false;
+         beforeRank = r.rows.get(num - 1)[5];
+         beforeId = r.rows.get(num - 1)[1];
+      }//end while
+   }//end searchMessages
+
+   /**
+    * Runs the menus until the user exits.
+    */
+   public void run () throws IOException {
+      boolean keepon = true;
+      while(keepon) {
+         System.out.println("MAIN MENU");
+         System.out.println("---------");
+         System.out.println("1. Create user");
+         System.out.println("2. Log in");
+         System.out.println("3. < EXIT");
+         String authorisedUser = null;
+         switch (Messenger.readChoice()){
+            case 1: createUser(); break;
+            case 2: authorisedUser = logIn(); break;
+            case 3: keepon = false; break;
+            default : System.out.println("Please enter a number from 1-3. Thank you"); break;
+         }//end switch
+         if (authorisedUser == null)
+            continue;
+         Messenger.mainMenu();
+         boolean usermenu = true;
+         while(usermenu){
+            try{
+               switch (Messenger.readChoice()){
+                  case 0: Messenger.mainMenu(); break;
+                  case 1: addToList("ADD_CONTACT", "You cannot add yourself!", "This person is in your contact list. Cannot add."); break;
+                  case 2: addToList("ADD_BLOCKED", "You cannot block yourself!", "This contact is already on your blocked list"); break;
+                  case 3: list("CONTACTS", new String[] {"contacts", "status"}); break;
+                  case 4: list("BLOCKED", new String[] {"blocked"}); break;
+                  case 5: browseChats(); break;
+                  case 6: browseMessages(); break;
+                  case 7: createChat(); break;
+                  case 8: addToChat(); break;
+                  case 9: newMessage(); break;
+                  case 10: changeMessage(true); break;
+                  case 11: changeMessage(false); break;
+                  case 12: deleteFromList("DEL_CONTACT", "contacts list"); break;
+                  case 13: deleteFromList("DEL_BLOCKED", "blocked list"); break;
+                  case 14: deleteChat(); break;
+                  case 15: usermenu = !deleteAccount(); break;
+                  case 16: usermenu = false; request("LOGOUT"); break;
+                  case 17: usermenu = false; keepon = false; request("LOGOUT"); break;
+                  case 18: searchMessages(); break;
+                  default : System.out.println("Please enter a number from 0-18. Thank you"); break;
+               }//end switch
+            }catch (NumberFormatException e){
+               System.err.println(e.getMessage());
+            }//end try
+         }//end while
+      }//end while
+   }//end run
+
+   /**
+    * The main execution method
+    *
+    * @param args <host> <port> of a MessengerServer
+    */
+   public static void main (String[] args) {
+      if (args.length != 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            MessengerClient.class.getName () +
+            " <host> <port>");
+         return;
+      }//end if
+      Messenger.Greeting();
+      MessengerClient client = null;
+      try{
+         client = new MessengerClient(args[0], Integer.parseInt(args[1]));
+         client.run();
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (client != null){
+            client.close();
+            System.out.println("Bye !");
+         }//end if
+      }//end try
+   }//end main
+
+}//end MessengerClient
@@ -0,0 +1,635 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class serves the Messenger operations to many clients over a
+ * local TCP port (see MessengerClient for the menu that uses it).
+ *
+ * One selector thread accepts the connections and does all socket I/O
+ * without blocking, so an idle client costs a buffer and no thread. The
+ * requests, which block on JDBC, run on a fixed set of worker threads
+ * sharing one connection pool. Each client has its own Messenger session;
+ * its requests run one at a time in the order they were sent.
+ *
+ * The protocol is line based UTF-8. A request is one line of tab
+ * separated fields, the command first. A response is a status line (a
+ * Messenger.Status name, or ERROR and a message), any number of tab
+ * separated row lines and a line holding a single dot. A logged-in client
+ * also receives lines starting with '*' between responses, one for every
+ * message sent to its chats by another user. In fields, backslash,
+ * tab, newline and carriage return are escaped as \\, \t, \n and \r, and
+ * \N stands for null. A request line longer than 64 KiB is answered
+ * with ERROR and the connection is closed.
+ *
+ * Commands (arguments in order):
+ *   CREATE_USER login password phone      LOGIN login password
+ *   LOGOUT                                QUIT
+ *   ADD_CONTACT login                     ADD_BLOCKED login
+ *   DEL_CONTACT login                     DEL_BLOCKED login
+ *   CONTACTS                              BLOCKED
+ *   INBOX                                 UNREAD
+ *   MESSAGES chat beforeTs beforeId size  SEARCH words beforeRank beforeId size
+ *   CREATE_CHAT [login ...]               ADD_MEMBER chat login
+ *   SEND chat text                        EDIT msg text
+ *   DELETE_MSG msg                        DELETE_CHAT chat
+ *   DELETE_ACCOUNT
+ *
+ */
+public class MessengerServer {
+
+   static final Charset UTF8 = Charset.forName("UTF-8");
+
+   // longest request line accepted, in bytes
+   private static final int MAX_LINE = 64 * 1024;
+
+   // queued in place of a line longer than MAX_LINE, compared by identity
+   // so that no line read can be taken for it
+   private static final String TOO_LONG = new String("TOO_LONG");
+
+   // requests a client may send ahead before the server stops reading
+   private static final int MAX_PENDING = 64;
+
+   /**
+    * The state of one client.
+    */
+   private class Client {
+      final SocketChannel channel;
+      final Messenger esql = new Messenger(pool);
+      final ByteArrayOutputStream line = new ByteArrayOutputStream();
+      final Queue<String> requests = new ArrayDeque<String>();
+      final Queue<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+      boolean busy = false;        // a worker is running its requests
+      boolean closing = false;     // close once the output is written
+      SelectionKey key;
+      String user = null;
+      MessageFeed.Listener listener = null;
+
+      Client (SocketChannel channel){
+         this.channel = channel;
+      }
+
+      /**
+       * Queues output and has the selector thread write it.
+       */
+      void send (String text){
+         synchronized (this){
+            out.add(ByteBuffer.wrap(text.getBytes(UTF8)));
+         }
+         changed.add(this);
+         selector.wakeup();
+      }//end send
+   }//end Client
+
+   private final ConnectionPool pool;
+   private final MessageFeed feed;
+   private final ExecutorService workers;
+   private final Selector selector;
+   private final ServerSocketChannel server;
+
+   // clients whose output or interest changed, for the selector thread
+   private final Queue<Client> changed = new ConcurrentLinkedQueue<Client>();
+
+   // feed listeners of the logged-in clients, by login
+   private final Map<String, List<MessageFeed.Listener>> online = new HashMap<String, List<MessageFeed.Listener>>();
+
+   /**
+    * @param pool the pool shared by all clients
+    * @param port the local port to listen on
+    * @param workers number of threads running requests
+    * @param pollMillis the longest the message feed waits between two looks at its connection, 0 for no feed
+    */
+   public MessengerServer (ConnectionPool pool, int port, int workers, long pollMillis) throws IOException, SQLException {
+      this.pool = pool;
+      this.feed = pollMillis > 0 ? new MessageFeed(pool, pollMillis) : null;
+      this.workers = Executors.newFixedThreadPool(workers);
+      this.selector = Selector.open();
+      this.server = ServerSocketChannel.open();
+      this.server.socket().bind(new InetSocketAddress("localhost", port));
+      this.server.configureBlocking(false);
+      this.server.register(selector, SelectionKey.OP_ACCEPT);
+   }//end MessengerServer
+
+   /**
+    * Runs the selector loop until the thread is interrupted.
+    */
+   public void serve () throws IOException {
+      while (!Thread.currentThread().isInterrupted()){
+         selector.select();
+         for (Client c = changed.poll(); c != null; c = changed.poll())
+            updateInterest(c);
+         Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+         while (it.hasNext()){
+            SelectionKey key = it.next();
+            it.remove();
+            try{
+               if (!key.isValid())
+                  continue;
+               if (key.isAcceptable())
+                  accept();
+               else{
+                  Client c = (Client) key.attachment();
+                  if (key.isReadable())
+                     read(c);
+                  if (key.isValid() && key.isWritable())
+                     write(c);
+               }//end if
+            }catch (IOException e){
+               if (key.attachment() != null)
+                  close((Client) key.attachment());
+            }//end try
+         }//end while
+      }//end while
+   }//end serve
+
+   private void accept () throws IOException {
+      SocketChannel ch = server.accept();
+      if (ch == null)
+         return;
+      ch.configureBlocking(false);
+      Client c = new Client(ch);
+      c.key = ch.register(selector, SelectionKey.OP_READ, c);
+   }//end accept
+
+   private void read (Client c) throws IOException {
+      ByteBuffer buf = ByteBuffer.allocate(8192);
+      int n = c.channel.read(buf);
+      if (n < 0){
+         close(c);
+         return;
+      }//end if
+      buf.flip();
+      boolean dispatch = false;
+      while (buf.hasRemaining()){
+         byte b = buf.get();
+         if (b == '\n'){
+            String request = new String(c.line.toByteArray(), UTF8);
+            c.line.reset();
+            synchronized (c){
+               c.requests.add(request.endsWith("\r") ? request.substring(0, request.length() - 1) : request);
+               if (!c.busy){
+                  c.busy = true;
+                  dispatch = true;
+               }//end if
+            }
+         }else if (c.line.size() < MAX_LINE){
+            c.line.write(b);
+         }else{
+            // answered with an error after the requests before it, then
+            // the client is closed without reading the rest
+            c.line.reset();
+            synchronized (c){
+               c.requests.add(TOO_LONG);
+               c.closing = true;
+               if (!c.busy){
+                  c.busy = true;
+                  dispatch = true;
+               }//end if
+            }
+            break;
+         }//end if
+      }//end while
+      updateInterest(c);
+      if (dispatch)
+         dispatch(c);
+   }//end read
+
+   private void write (Client c) throws IOException {
+      synchronized (c){
+         while (!c.out.isEmpty()){
+            ByteBuffer b = c.out.peek();
+            c.channel.write(b);
+            if (b.hasRemaining())
+               break;
+            c.out.poll();
+         }//end while
+      }
+      updateInterest(c);
+   }//end write
+
+   /**
+    * Reads while the client has room for requests, writes while it has
+    * output, and closes it once a QUIT has been answered.
+    */
+   private void updateInterest (Client c){
+      if (!c.key.isValid())
+         return;
+      int ops;
+      boolean done;
+      synchronized (c){
+         ops = (c.requests.size() < MAX_PENDING && !c.closing ? SelectionKey.OP_READ : 0)
+             | (c.out.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+         done = c.closing && c.out.isEmpty() && !c.busy;
+      }
+      if (done)
+         close(c);
+      else
+         c.key.interestOps(ops);
+   }//end updateInterest
+
+   /**
+    * Runs a client's queued requests on a worker, one after the other.
+    */
+   private void dispatch (final Client c){
+      workers.execute(new Runnable(){
+         public void run(){
+            boolean closed = false;
+            boolean drained = false;
+            try{
+               while (true){
+                  String request;
+                  synchronized (c){
+                     closed = !c.channel.isOpen();
+                     request = closed ? null : c.requests.poll();
+                     if (request == null){
+                        c.busy = false;
+                        drained = true;
+                        break;
+                     }//end if
+                  }
+                  if (request == TOO_LONG){
+                     c.send(error("Request line longer than " + MAX_LINE + " bytes"));
+                     continue;
+                  }//end if
+                  String[] f = split(request);
+                  // unknown commands and requests without one are not actions
+                  String action = null;
+                  String response;
+                  Metrics.beginAction();
+                  try{
+                     response = handle(c, f);
+                     if (f[0] != null && !response.startsWith("ERROR\tUnknown command"))
+                        action = "server." + f[0];
+                  }finally{
+                     Metrics.endAction(action);
+                  }//end try
+                  c.send(response);
+               }//end while
+            }finally{
+               if (!drained){
+                  // whatever broke the loop, the client must not stay busy
+                  // forever; the selector closes it
+                  synchronized (c){
+                     c.busy = false;
+                     c.closing = true;
+                  }
+                  changed.add(c);
+                  selector.wakeup();
+               }//end if
+            }//end try
+            if (closed){
+               // the client went away while its requests ran
+               logOut(c);
+               c.esql.cleanup();
+            }else{
+               changed.add(c);
+               selector.wakeup();
+            }//end if
+         }
+      });
+   }//end dispatch
+
+   private void close (Client c){
+      try{
+         c.key.cancel();
+         c.channel.close();
+      }catch (IOException e){
+         // closed anyway
+      }//end try
+      synchronized (c){
+         // a busy worker cleans up after its current request
+         if (c.busy)
+            return;
+      }
+      logOut(c);
+      c.esql.cleanup();
+   }//end close
+
+   /**
+    * Runs one request.
+    *
+    * @return the whole response
+    */
+   String handle (Client c, String[] f){
+      try{
+         String cmd = f[0];
+         if (cmd == null)
+            return error("Missing command");
+         if (cmd.equals("QUIT")){
+            synchronized (c){
+               c.closing = true;
+            }
+            return response("OK", null);
+         }else if (cmd.equals("CREATE_USER")){
+            return response(Messenger.CreateUser(c.esql, f[1], f[2], f[3]), null);
+         }else if (cmd.equals("LOGIN")){
+            logOut(c);
+            c.user = Messenger.LogIn(c.esql, f[1], f[2]);
+            if (c.user == null)
+               return response(Messenger.Status.USER_NOT_FOUND, null);
+            follow(c);
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (Map.Entry<Integer, Integer> e : Messenger.fetchUnreadChats(c.esql, c.user).entrySet())
+               rows.add(new Object[] {e.getKey(), e.getValue()});
+            return response("OK", rows);
+         }//end if
+
+         if (c.user == null)
+            return error("Not logged in");
+         Messenger esql = c.esql;
+         String user = c.user;
+         if (cmd.equals("LOGOUT")){
+            logOut(c);
+            return response("OK", null);
+         }else if (cmd.equals("ADD_CONTACT")){
+            return response(Messenger.AddToContact(esql, user, f[1]), null);
+         }else if (cmd.equals("ADD_BLOCKED")){
+            return response(Messenger.AddToBlocked(esql, user, f[1]), null);
+         }else if (cmd.equals("DEL_CONTACT")){
+            return response(Messenger.DeleteContact(esql, user, f[1]), null);
+         }else if (cmd.equals("DEL_BLOCKED")){
+            return response(Messenger.DeleteBlocked(esql, user, f[1]), null);
+         }else if (cmd.equals("CONTACTS")){
+            return response("OK", rows(Messenger.fetchContacts(esql, user)));
+         }else if (cmd.equals("BLOCKED")){
+            return response("OK", rows(Messenger.fetchBlocked(esql, user)));
+         }else if (cmd.equals("INBOX")){
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (Messenger.ChatSummary s : Messenger.fetchInbox(esql, user, 0))
+               rows.add(new Object[] {s.getChatId(), s.getLastTimestamp(), s.getMessageCount(), s.getMemberCount(),
+                                      s.getUnread(), s.getLastSender(), s.getLastText()});
+            return response("OK", rows);
+         }else if (cmd.equals("UNREAD")){
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (Map.Entry<Integer, Integer> e : Messenger.fetchUnreadChats(esql, user).entrySet())
+               rows.add(new Object[] {e.getKey(), e.getValue()});
+            return response("OK", rows);
+         }else if (cmd.equals("MESSAGES")){
+            List<Messenger.Message> page = Messenger.BrowseMessages(esql, user, Integer.parseInt(f[1]),
+               f[2] == null ? null : Timestamp.valueOf(f[2]), Integer.parseInt(f[3]), Integer.parseInt(f[4]));
+            if (page == null)
+               return response(Messenger.Status.NOT_MEMBER, null);
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (Messenger.Message m : page)
+               rows.add(new Object[] {m.getId(), m.getTimestamp(), m.getSender(), m.getText()});
+            return response("OK", rows);
+         }else if (cmd.equals("SEARCH")){
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (Messenger.SearchHit h : Messenger.SearchMessages(esql, user, f[1], Double.parseDouble(f[2]),
+                                                                    Integer.parseInt(f[3]), Integer.parseInt(f[4])))
+               rows.add(new Object[] {h.getChatId(), h.getMsgId(), h.getTimestamp(), h.getSender(), h.getText(), h.getRank(),
+                                      h.isLimited()});
+            return response("OK", rows);
+         }else if (cmd.equals("CREATE_CHAT")){
+            List<String> notFound = new ArrayList<String>();
+            int chatId = Messenger.CreateGroupChat(esql, user, Arrays.asList(f).subList(1, f.length), notFound);
+            List<Object[]> rows = new ArrayList<Object[]>();
+            rows.add(new Object[] {chatId});
+            for (String login : notFound)
+               rows.add(new Object[] {login});
+            List<String> members = new ArrayList<String>(Arrays.asList(f).subList(1, f.length));
+            members.removeAll(notFound);
+            members.add(user);
+            subscribeMembers(chatId, members);
+            return response("OK", rows);
+         }else if (cmd.equals("ADD_MEMBER")){
+            int chatId = Integer.parseInt(f[1]);
+            Messenger.Status st = Messenger.AddtoChat(esql, user, chatId, f[2]);
+            if (st == Messenger.Status.OK)
+               subscribeMembers(chatId, Arrays.asList(f[2]));
+            return response(st, null);
+         }else if (cmd.equals("SEND")){
+            return response(Messenger.NewMessage(esql, user, Integer.parseInt(f[1]), f[2]), null);
+         }else if (cmd.equals("EDIT")){
+            return response(Messenger.EditMessage(esql, user, Integer.parseInt(f[1]), f[2]), null);
+         }else if (cmd.equals("DELETE_MSG")){
+            return response(Messenger.DeleteMessage(esql, user, Integer.parseInt(f[1])), null);
+         }else if (cmd.equals("DELETE_CHAT")){
+            return response(Messenger.DeleteChat(esql, user, Integer.parseInt(f[1])), null);
+         }else if (cmd.equals("DELETE_ACCOUNT")){
+            List<Integer> owned = Messenger.fetchOwnedChats(esql, user);
+            Messenger.Status st = Messenger.removeAccount(esql, user);
+            if (st == Messenger.Status.OK){
+               logOut(c);
+               return response(st, null);
+            }//end if
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (int chatId : owned)
+               rows.add(new Object[] {chatId});
+            return response(st, rows);
+         }//end if
+         return error("Unknown command " + cmd);
+      }catch (ArrayIndexOutOfBoundsException e){
+         return error("Missing arguments");
+      }catch (IllegalArgumentException e){
+         return error("Invalid argument: " + e.getMessage());
+      }catch (SQLException e){
+         return error(e.getMessage());
+      }catch (RuntimeException e){
+         // e.g. \N where an operation needs a value; the client gets an
+         // answer and its later requests still run
+         System.err.println(f[0] + ": " + e);
+         return error("Internal error");
+      }//end try
+   }//end handle
+
+   /**
+    * Pushes the messages other users send to the client's chats.
+    */
+   private void follow (final Client c) throws SQLException {
+      if (feed == null)
+         return;
+      if (c.listener != null)
+         feed.unsubscribeAll(c.listener);
+      final String user = c.user;
+      c.listener = new MessageFeed.Listener() {
+         public void onMessage (int chatId, Messenger.Message m) {
+            if (!user.equals(m.getSender()))
+               c.send("*\t" + join(new Object[] {chatId, m.getId(), m.getTimestamp(), m.getSender(), m.getText()}) + "\n");
+         }
+      };
+      synchronized (online){
+         List<MessageFeed.Listener> ls = online.get(user);
+         if (ls == null){
+            ls = new ArrayList<MessageFeed.Listener>();
+            online.put(user, ls);
+         }//end if
+         ls.add(c.listener);
+      }
+      feed.subscribeAll(c.esql, user, c.listener);
+   }//end follow
+
+   /**
+    * Pushes a chat's messages to the members logged in on this server,
+    * e.g. after they were added to it.
+    */
+   private void subscribeMembers (int chatId, List<String> logins) throws SQLException {
+      if (feed == null)
+         return;
+      for (String login : logins){
+         List<MessageFeed.Listener> ls;
+         synchronized (online){
+            ls = online.get(login);
+            if (ls == null)
+               continue;
+            ls = new ArrayList<MessageFeed.Listener>(ls);
+         }
+         for (MessageFeed.Listener l : ls){
+            feed.subscribe(chatId, l);
+            // logged out meanwhile, its unsubscribeAll may have run first
+            boolean gone;
+            synchronized (online){
+               gone = !online.containsKey(login) || !online.get(login).contains(l);
+            }
+            if (gone)
+               feed.unsubscribe(chatId, l);
+         }//end for
+      }//end for
+   }//end subscribeMembers
+
+   private void logOut (Client c){
+      if (c.listener != null){
+         synchronized (online){
+            List<MessageFeed.Listener> ls = online.get(c.user);
+            if (ls != null){
+               ls.remove(c.listener);
+               if (ls.isEmpty())
+                  online.remove(c.user);
+            }//end if
+         }
+         try{
+            feed.unsubscribeAll(c.listener);
+         }catch (SQLException e){
+            System.err.println(e.getMessage());
+         }//end try
+         c.listener = null;
+      }//end if
+      c.user = null;
+      c.esql.endSession();
+   }//end logOut
+
+   private static List<Object[]> rows (List<List<String>> table){
+      List<Object[]> rows = new ArrayList<Object[]>(table.size());
+      for (List<String> row : table)
+         rows.add(row.toArray());
+      return rows;
+   }//end rows
+
+   private static String response (Object status, List<Object[]> rows){
+      StringBuilder sb = new StringBuilder(escape(String.valueOf(status))).append('\n');
+      if (rows != null)
+         for (Object[] row : rows)
+            sb.append(join(row)).append('\n');
+      return sb.append(".\n").toString();
+   }//end response
+
+   private static String error (String message){
+      return "ERROR\t" + escape(String.valueOf(message)) + "\n.\n";
+   }//end error
+
+   static String join (Object[] fields){
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < fields.length; ++i){
+         if (i > 0)
+            sb.append('\t');
+         sb.append(fields[i] == null ? "\\N" : escape(String.valueOf(fields[i])));
+      }//end for
+      return sb.toString();
+   }//end join
+
+   static String escape (String s){
+      StringBuilder sb = new StringBuilder(s.length());
+      for (int i = 0; i < s.length(); ++i){
+         char ch = s.charAt(i);
+         switch (ch){
+            case '\\': sb.append("\\\\"); break;
+            case '\t': sb.append("\\t"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            default: sb.append(ch);
+         }//end switch
+      }//end for
+      return sb.toString();
+   }//end escape
+
+   /**
+    * Splits a line into its unescaped fields; \N becomes null.
+    */
+   static String[] split (String line){
+      String[] raw = line.split("\t", -1);
+      String[] fields = new String[raw.length];
+      for (int i = 0; i < raw.length; ++i){
+         if (raw[i].equals("\\N"))
+            continue;
+         StringBuilder sb = new StringBuilder(raw[i].length());
+         for (int j = 0; j < raw[i].length(); ++j){
+            char ch = raw[i].charAt(j);
+            if (ch == '\\' && j + 1 < raw[i].length()){
+               char next = raw[i].charAt(++j);
+               sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            }else
+               sb.append(ch);
+         }//end for
+         fields[i] = sb.toString();
+      }//end for
+      return fields;
+   }//end split
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> <listen port>
+    */
+   public static void main (String[] args) {
+      if (args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] [-Dmessenger.server.workers=N] " +
+            MessengerServer.class.getName () +
+            " <dbname> <port> <user> <listen port>");
+         return;
+      }//end if
+
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      ConnectionPool pool = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         // open the connection pool (sized by the messenger.pool.* properties)
+         pool = ConnectionPool.fromSystemProperties(url, args[2], "");
+         MessengerServer server = new MessengerServer(pool, Integer.parseInt(args[3]),
+                                                      Integer.getInteger("messenger.server.workers", 32),
+                                                      Long.getLong("messenger.feed.pollMillis", 1000L));
+         System.out.println("Serving on localhost:" + args[3]);
+         server.serve();
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }finally{
+         if (pool != null){
+            MessageWriter.closeShared(pool);
+            pool.close();
+         }//end if
+      }//end try
+   }//end main
+
+}//end MessengerServer
@@ -0,0 +1,319 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * This class counts where the time of the application goes, per operation:
+ *
+ *   statement  one call of a Messenger query helper (executeUpdate,
+ *              forEach, exists, ...), a commit or rollback, or a connection
+ *              check of the ConnectionPool
+ *   action     one menu action, server command or load driver action,
+ *              between beginAction() and endAction() on the same thread,
+ *              with the statements the thread ran in between
+ *
+ * Every operation has a LatencyHistogram and counts its statements,
+ * database round trips, rows fetched and bytes fetched. Bytes are the
+ * characters of the values in text form, which is how the driver's
+ * protocol transfers them. Time spent reading the keyboard (see
+ * exclude()) does not count towards an action.
+ *
+ * The figures are on when the messenger.metrics property is true. Each
+ * operation is then an MBean named Messenger:type=action|statement,name=X
+ * holding the totals since start, and every messenger.metrics.intervalMillis
+ * (default 10000) one line per operation used in the interval is
+ * appended to messenger.metrics.file (default messenger-metrics.log). The
+ * prepared statement cache of every ConnectionPool is an MBean named
+ * Messenger:type=statementCache,name="<url>" and has a line with its
+ * totals in each report.
+ *
+ */
+public class Metrics {
+
+   public static final boolean ENABLED = Boolean.getBoolean("messenger.metrics");
+
+   /**
+    * The attributes of an operation's MBean, totals since start.
+    */
+   public interface OperationMBean {
+      long getCount ();
+      double getMeanMicros ();
+      long getP50Micros ();
+      long getP99Micros ();
+      long getP999Micros ();
+      long getMaxMicros ();
+      long getStatements ();
+      long getRoundTrips ();
+      long getRows ();
+      long getBytes ();
+      double getRoundTripsPerCall ();
+   }//end OperationMBean
+
+   /**
+    * The figures of one statement kind or action.
+    */
+   public static class Operation implements OperationMBean {
+      final String type;
+      final String name;
+      private final LatencyHistogram latency = new LatencyHistogram();
+      // the latencies since the last line of the metrics file
+      private final LatencyHistogram interval = new LatencyHistogram();
+      private final AtomicLong statements = new AtomicLong();
+      private final AtomicLong roundTrips = new AtomicLong();
+      private final AtomicLong rows = new AtomicLong();
+      private final AtomicLong bytes = new AtomicLong();
+
+      // the counters at the last line of the metrics file
+      private long lastStatements, lastRoundTrips, lastRows, lastBytes;
+
+      Operation (String type, String name){
+         this.type = type;
+         this.name = name;
+      }
+
+      void record (long micros, long statements, long roundTrips, long rows, long bytes){
+         this.latency.record(micros);
+         this.interval.record(micros);
+         this.statements.addAndGet(statements);
+         this.roundTrips.addAndGet(roundTrips);
+         this.rows.addAndGet(rows);
+         this.bytes.addAndGet(bytes);
+      }//end record
+
+      public long getCount (){ return latency.getCount(); }
+      public double getMeanMicros (){ return latency.getMean(); }
+      public long getP50Micros (){ return latency.getPercentile(0.5); }
+      public long getP99Micros (){ return latency.getPercentile(0.99); }
+      public long getP999Micros (){ return latency.getPercentile(0.999); }
+      public long getMaxMicros (){ return latency.getMax(); }
+      public long getStatements (){ return statements.get(); }
+      public long getRoundTrips (){ return roundTrips.get(); }
+      public long getRows (){ return rows.get(); }
+      public long getBytes (){ return bytes.get(); }
+
+      public double getRoundTripsPerCall (){
+         long n = latency.getCount();
+         return n == 0 ? 0.0 : (double) roundTrips.get() / n;
+      }
+
+      /**
+       * @return the line of the metrics file for the interval since the
+       * previous one, or null if the operation was not used in it
+       */
+      String intervalLine (){
+         LatencyHistogram h = interval.copyAndReset();
+         long n = h.getCount();
+         long st = statements.get(), rt = roundTrips.get(), r = rows.get(), b = bytes.get();
+         String line = n == 0 ? null : String.format(
+            "%s %s calls=%d p50=%dus p99=%dus p999=%dus max=%dus stmts/call=%.1f rtt/call=%.1f rows/call=%.1f bytes/call=%.0f",
+            type, name, n, h.getPercentile(0.5), h.getPercentile(0.99), h.getPercentile(0.999), h.getMax(),
+            (double) (st - lastStatements) / n, (double) (rt - lastRoundTrips) / n,
+            (double) (r - lastRows) / n, (double) (b - lastBytes) / n);
+         lastStatements = st;
+         lastRoundTrips = rt;
+         lastRows = r;
+         lastBytes = b;
+         return line;
+      }//end intervalLine
+   }//end Operation
+
+   /**
+    * The running action of a thread.
+    */
+   private static class Action {
+      final long start = System.nanoTime();
+      long excluded, statements, roundTrips, rows, bytes;
+   }//end Action
+
+   private static final ThreadLocal<Action> CURRENT = new ThreadLocal<Action>();
+
+   // by type, then name, the order of the lines in the metrics file
+   private static final ConcurrentSkipListMap<String, Operation> OPERATIONS =
+      new ConcurrentSkipListMap<String, Operation>();
+
+   // statement cache counters of the pools, by URL
+   private static final ConcurrentSkipListMap<String, StatementCache.Stats> CACHES =
+      new ConcurrentSkipListMap<String, StatementCache.Stats>();
+
+   static {
+      if (ENABLED){
+         final String file = System.getProperty("messenger.metrics.file", "messenger-metrics.log");
+         long period = Long.getLong("messenger.metrics.intervalMillis", 10000L);
+         Timer reporter = new Timer("metrics-reporter", true);
+         reporter.schedule(new TimerTask(){
+            public void run(){
+               report(file);
+            }
+         }, period, period);
+         // the last interval
+         Runtime.getRuntime().addShutdownHook(new Thread("metrics-report"){
+            public void run(){
+               report(file);
+            }
+         });
+      }//end if
+   }
+
+   private Metrics (){
+   }
+
+   /**
+    * Starts an action on this thread, dropping one that was not ended.
+    */
+   public static void beginAction (){
+      if (ENABLED)
+         CURRENT.set(new Action());
+   }
+
+   /**
+    * Ends the action of this thread and records it.
+    *
+    * @param name the action, or null to drop it
+    */
+   public static void endAction (String name){
+      if (!ENABLED)
+         return;
+      Action a = CURRENT.get();
+      CURRENT.remove();
+      if (a == null || name == null)
+         return;
+      long micros = (System.nanoTime() - a.start - a.excluded) / 1000L;
+      operation("action", name).record(micros, a.statements, a.roundTrips, a.rows, a.bytes);
+   }//end endAction
+
+   /**
+    * Takes time the thread spent waiting for the user out of its action.
+    *
+    * @param startNanos the System.nanoTime() value taken before the wait
+    */
+   public static void exclude (long startNanos){
+      if (!ENABLED)
+         return;
+      Action a = CURRENT.get();
+      if (a != null)
+         a.excluded += System.nanoTime() - startNanos;
+   }//end exclude
+
+   /**
+    * Records one statement, also in the action of this thread.
+    *
+    * @param kind the helper that ran it
+    * @param startNanos the System.nanoTime() value taken before it
+    * @param roundTrips messages the statement waited for the server
+    * @param rows rows fetched or changed
+    * @param bytes bytes fetched
+    */
+   public static void statement (String kind, long startNanos, long roundTrips, long rows, long bytes){
+      if (!ENABLED)
+         return;
+      operation("statement", kind).record((System.nanoTime() - startNanos) / 1000L, 1, roundTrips, rows, bytes);
+      Action a = CURRENT.get();
+      if (a != null){
+         a.statements++;
+         a.roundTrips += roundTrips;
+         a.rows += rows;
+         a.bytes += bytes;
+      }//end if
+   }//end statement
+
+   /**
+    * @param columns the column count of the result set
+    * @return the bytes of the current row, 0 when the figures are off
+    */
+   public static long rowBytes (ResultSet rs, int columns) throws SQLException {
+      if (!ENABLED)
+         return 0;
+      long bytes = 0;
+      for (int i = 1; i <= columns; ++i){
+         String v = rs.getString(i);
+         if (v != null)
+            bytes += v.length();
+      }//end for
+      return bytes;
+   }//end rowBytes
+
+   /**
+    * Reports the statement cache counters of a pool, replacing those of an
+    * earlier pool with the same URL.
+    */
+   public static void statementCache (String url, StatementCache.Stats stats){
+      if (!ENABLED)
+         return;
+      CACHES.put(url, stats);
+      try{
+         register(new StandardMBean(stats, StatementCache.StatsMBean.class),
+                  new ObjectName("Messenger:type=statementCache,name=" + ObjectName.quote(url)));
+      }catch (JMException e){
+         System.err.println("Statement cache of " + url + " is not on JMX: " + e.getMessage());
+      }//end try
+   }//end statementCache
+
+   private static void register (StandardMBean mbean, ObjectName name) throws JMException {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      synchronized (Metrics.class){
+         if (server.isRegistered(name))
+            server.unregisterMBean(name);
+         server.registerMBean(mbean, name);
+      }
+   }//end register
+
+   /**
+    * @return the operation, created and registered as an MBean on first use
+    */
+   static Operation operation (String type, String name){
+      String key = type + " " + name;
+      Operation op = OPERATIONS.get(key);
+      if (op != null)
+         return op;
+      op = new Operation(type, name);
+      Operation other = OPERATIONS.putIfAbsent(key, op);
+      if (other != null)
+         return other;
+      try{
+         register(new StandardMBean(op, OperationMBean.class), new ObjectName("Messenger:type=" + type + ",name=" + name));
+      }catch (JMException e){
+         System.err.println("Metrics of " + key + " are not on JMX: " + e.getMessage());
+      }//end try
+      return op;
+   }//end operation
+
+   /**
+    * Appends a line per operation used since the previous call.
+    */
+   static synchronized void report (String file){
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      PrintWriter out = null;
+      try{
+         out = new PrintWriter(new FileWriter(file, true));
+         for (Map.Entry<String, Operation> e : OPERATIONS.entrySet()){
+            String line = e.getValue().intervalLine();
+            if (line != null)
+               out.println(now + " " + line);
+         }//end for
+         for (Map.Entry<String, StatementCache.Stats> e : CACHES.entrySet()){
+            StatementCache.Stats c = e.getValue();
+            out.println(String.format("%s statementCache %s hits=%d misses=%d evictions=%d hitRatio=%.3f",
+                                      now, e.getKey(), c.getHits(), c.getMisses(), c.getEvictions(), c.getHitRatio()));
+         }//end for
+      }catch (IOException e){
+         System.err.println("Cannot write metrics to " + file + ": " + e.getMessage());
+      }finally{
+         if (out != null)
+            out.close();
+      }//end try
+   }//end report
+
+}//end Metrics
@@ -0,0 +1,201 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class is a read-only standby of the database, kept up to date by
+ * streaming replication, that Messenger.reader() sends read-only queries
+ * to. A background thread asks the standby every messenger.replica.checkMillis
+ * up to which WAL position it has replayed and how far its replay is
+ * behind in time.
+ *
+ * A session that wrote takes the primary's WAL position after the write
+ * (pg_current_wal_lsn()), and its reads go to the standby only once the
+ * replayed position is at or past it, so that it always reads its own
+ * writes. Besides, reads go to the standby only while its data is at
+ * most messenger.replica.maxLagMillis old. Otherwise, and while the
+ * standby cannot be reached, they stay on the primary.
+ *
+ * Each check first takes the primary's WAL position. A standby that has
+ * replayed up to it has all data as of the start of the check; else its
+ * lag is the age of the last transaction it replayed, so a standby whose
+ * WAL receiver lost the primary falls behind as soon as the primary
+ * writes. Both ends are assumed to have synchronized clocks; the clocks
+ * only matter for the staleness bound, never for reading one's writes.
+ *
+ */
+public class Replica {
+
+   private static final String LAG =
+      "SELECT pg_is_in_recovery(), pg_last_wal_replay_lsn() - '0/0'::pg_lsn, "
+      + "EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000";
+
+   private final ConnectionPool primary;
+   private final ConnectionPool pool;
+   private final long maxLagMillis;
+
+   /**
+    * The query giving the WAL position of the primary, in bytes, to pass
+    * to covers() after a write.
+    */
+   public static final String WAL_POSITION = "SELECT pg_current_wal_lsn() - '0/0'::pg_lsn";
+
+   // WAL position the standby has replayed up to, in bytes, -1 while the
+   // standby is unusable
+   private volatile long replayedLsn = -1;
+   // the standby's data is as of this time
+   private volatile long replayedUntil = Long.MIN_VALUE;
+   private volatile double lagMillis = -1;
+
+   // background thread that measures the lag
+   private final Timer prober;
+
+   /**
+    * @param primary connections to the primary the standby follows
+    * @param pool connections to the standby
+    * @param maxLagMillis how far behind the primary reads may be
+    * @param checkMillis time between two lag checks
+    */
+   public Replica (ConnectionPool primary, ConnectionPool pool, long maxLagMillis, long checkMillis) {
+      this.primary = primary;
+      this.pool = pool;
+      this.maxLagMillis = maxLagMillis;
+      probe();
+      this.prober = new Timer("replica-lag-probe", true);
+      this.prober.schedule(new TimerTask(){
+         public void run(){
+            probe();
+         }
+      }, checkMillis, checkMillis);
+   }//end Replica
+
+   /**
+    * Connects to the standby named by the messenger.replica.url property
+    * (e.g. jdbc:postgresql://localhost:5433/mydb), with a pool sized by the
+    * messenger.pool.* properties.
+    *
+    * @param primary connections to the primary the standby follows
+    * @param user the user name used to login to the standby
+    * @param passwd the user login password
+    * @return the standby, or null if the property is not set
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public static Replica fromSystemProperties (ConnectionPool primary, String user, String passwd) throws SQLException {
+      String url = System.getProperty("messenger.replica.url");
+      if (url == null)
+         return null;
+      ConnectionPool pool = new ConnectionPool(url, user, passwd,
+                                               Integer.getInteger("messenger.pool.min", 1),
+                                               Integer.getInteger("messenger.pool.max", 10),
+                                               Long.getLong("messenger.pool.idleTimeout", 60000L),
+                                               Long.getLong("messenger.pool.borrowTimeout", 30000L));
+      return new Replica(primary, pool, Long.getLong("messenger.replica.maxLagMillis", 1000L),
+                         Long.getLong("messenger.replica.checkMillis", 200L));
+   }//end fromSystemProperties
+
+   public ConnectionPool getPool (){
+      return this.pool;
+   }
+
+   /**
+    * @param writeLsn WAL position of the primary (see WAL_POSITION) after
+    * the reader's last write, 0 if it wrote nothing
+    * @return true if a read on the standby is within the staleness bound
+    * and sees the write
+    */
+   public boolean covers (long writeLsn){
+      // read before the position: a probe between the two reads only
+      // makes the check stricter
+      long until = this.replayedUntil;
+      long lsn = this.replayedLsn;
+      return lsn >= 0 && writeLsn <= lsn
+         && System.currentTimeMillis() - until <= this.maxLagMillis;
+   }//end covers
+
+   /**
+    * @return the lag measured last, in milliseconds, -1 while the standby
+    * is unusable
+    */
+   public double getLagMillis (){
+      return this.lagMillis;
+   }
+
+   /**
+    * Measures the lag and moves replayedLsn and replayedUntil forward.
+    */
+   private void probe (){
+      long start = System.currentTimeMillis();
+      Connection conn = null;
+      SQLException error = null;
+      try{
+         long primaryLsn = primaryPosition();
+         conn = this.pool.borrow();
+         Statement stmt = conn.createStatement();
+         try{
+            ResultSet rs = stmt.executeQuery(LAG);
+            rs.next();
+            // a standby that was promoted no longer follows the primary
+            boolean standby = rs.getBoolean(1);
+            long lsn = rs.getLong(2);
+            boolean known = !rs.wasNull();
+            double lag = rs.getDouble(3);
+            if (lsn >= primaryLsn)
+               lag = 0;
+            else
+               known = known && !rs.wasNull();
+            rs.close();
+            if (standby && known){
+               this.lagMillis = lag;
+               this.replayedUntil = start - (long) Math.ceil(lag);
+               this.replayedLsn = lsn;
+               return;
+            }//end if
+         }finally{
+            stmt.close();
+         }//end try
+      }catch (SQLException e){
+         // unreachable, reads stay on the primary until it answers again
+         error = e;
+      }finally{
+         this.pool.release(conn, error);
+      }//end try
+      this.lagMillis = -1;
+      this.replayedLsn = -1;
+      this.replayedUntil = Long.MIN_VALUE;
+   }//end probe
+
+   /**
+    * @return the WAL position of the primary, in bytes
+    */
+   private long primaryPosition () throws SQLException {
+      Connection conn = this.primary.borrow();
+      SQLException error = null;
+      try{
+         Statement stmt = conn.createStatement();
+         try{
+            ResultSet rs = stmt.executeQuery(WAL_POSITION);
+            rs.next();
+            return rs.getLong(1);
+         }finally{
+            stmt.close();
+         }//end try
+      }catch (SQLException e){
+         error = e;
+         throw e;
+      }finally{
+         this.primary.release(conn, error);
+      }//end try
+   }//end primaryPosition
+
+   /**
+    * Stops the lag checks and closes the connections to the standby.
+    */
+   public void close (){
+      this.prober.cancel();
+      this.pool.close();
+   }//end close
+
+}//end Replica
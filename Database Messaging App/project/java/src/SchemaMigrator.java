@@ -0,0 +1,375 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class copies a v1 database into the v2 tables created by
+ * sql/src/migrate_v2.sql (see sql/scripts/migrate_v2.sh) while the
+ * application keeps running on v1.
+ *
+ * copy walks every v1 table in primary key order and inserts one batch of
+ * rows per transaction, skipping rows the mirror triggers have already
+ * written; a batch that fails, e.g. on a deadlock with a user action, is
+ * retried, and a stopped run can simply be started again. It ends by
+ * checking that every v1 table and its v2 copy hold the same number of
+ * rows, which holds at any moment once the copy is complete because the
+ * triggers change both in the same transaction.
+ *
+ * report prints the size of every table and its indexes in both schemas,
+ * and times the joins of the common actions on both.
+ *
+ */
+public class SchemaMigrator {
+
+   /**
+    * How one v1 table is copied.
+    */
+   static class Step {
+      final String table;
+      final String[] keys;       // v1 primary key, in index order
+      final String insert;       // INSERT INTO v2... SELECT ... FROM %s t ..., %s being the locked batch
+
+      Step(String table, String[] keys, String insert){
+         this.table = table;
+         this.keys = keys;
+         this.insert = insert;
+      }
+
+      private String keyList (String prefix){
+         StringBuilder sb = new StringBuilder();
+         for (int i = 0; i < keys.length; ++i)
+            sb.append(i > 0 ? ", " : "").append(prefix).append(keys[i]);
+         return sb.toString();
+      }
+
+      private String placeholders (){
+         StringBuilder sb = new StringBuilder("?");
+         for (int i = 1; i < keys.length; ++i)
+            sb.append(", ?");
+         return sb.toString();
+      }
+
+      private String after (boolean first){
+         return first ? "true" : "(" + keyList("") + ") > (" + placeholders() + ")";
+      }
+
+      /**
+       * @return the query returning the key of the last row of the next batch
+       */
+      String boundSql (boolean first){
+         String desc = keyList("").replace(",", " DESC,") + " DESC";
+         return "SELECT " + keyList("") + " FROM (SELECT " + keyList("") + " FROM public." + table
+            + " WHERE " + after(first) + " ORDER BY " + keyList("") + " LIMIT ?) b ORDER BY " + desc + " LIMIT 1";
+      }
+
+      /**
+       * @return the statement copying the rows up to a bound
+       */
+      String copySql (boolean first){
+         return String.format(insert, "(SELECT * FROM public." + table + " WHERE " + after(first)
+            + " AND (" + keyList("") + ") <= (" + placeholders() + ") FOR SHARE)");
+      }
+   }//end Step
+
+   /**
+    * The v1 tables in foreign key order. Users are matched on their
+    * trimmed login; v2 assigns the user IDs in login order.
+    */
+   static List<Step> steps(){
+      List<Step> steps = new ArrayList<Step>();
+      steps.add(new Step("USER_LIST", new String[] {"list_id"},
+         "INSERT INTO v2.USER_LIST(list_id, list_type) SELECT t.list_id, rtrim(t.list_type) FROM %s t "
+         + "WHERE NOT EXISTS (SELECT 1 FROM v2.USER_LIST v WHERE v.list_id = t.list_id)"));
+      steps.add(new Step("USR", new String[] {"login"},
+         "INSERT INTO v2.USR(login, phoneNum, password, status, block_list, contact_list) "
+         + "SELECT rtrim(t.login), rtrim(t.phoneNum), rtrim(t.password), rtrim(t.status), t.block_list, t.contact_list FROM %s t "
+         + "WHERE NOT EXISTS (SELECT 1 FROM v2.USR v WHERE v.login = rtrim(t.login))"));
+      steps.add(new Step("USER_LIST_CONTAINS", new String[] {"list_id", "list_member"},
+         "INSERT INTO v2.USER_LIST_CONTAINS(list_id, member_id) SELECT t.list_id, u.user_id FROM %s t, v2.USR u "
+         + "WHERE u.login = rtrim(t.list_member) "
+         + "AND NOT EXISTS (SELECT 1 FROM v2.USER_LIST_CONTAINS v WHERE v.list_id = t.list_id AND v.member_id = u.user_id)"));
+      steps.add(new Step("CHAT", new String[] {"chat_id"},
+         "INSERT INTO v2.CHAT(chat_id, chat_type, init_sender_id) SELECT t.chat_id, rtrim(t.chat_type), u.user_id "
+         + "FROM %s t LEFT JOIN v2.USR u ON u.login = rtrim(t.init_sender) "
+         + "WHERE NOT EXISTS (SELECT 1 FROM v2.CHAT v WHERE v.chat_id = t.chat_id)"));
+      steps.add(new Step("CHAT_LIST", new String[] {"chat_id", "member"},
+         "INSERT INTO v2.CHAT_LIST(chat_id, member_id, last_read_ts, last_read_id, unread) "
+         + "SELECT t.chat_id, u.user_id, t.last_read_ts, t.last_read_id, t.unread FROM %s t, v2.USR u "
+         + "WHERE u.login = rtrim(t.member) "
+         + "AND NOT EXISTS (SELECT 1 FROM v2.CHAT_LIST v WHERE v.chat_id = t.chat_id AND v.member_id = u.user_id)"));
+      steps.add(new Step("MESSAGE", new String[] {"msg_id"},
+         "INSERT INTO v2.MESSAGE(msg_id, msg_text, msg_timestamp, sender_id, chat_id) "
+         + "SELECT t.msg_id, rtrim(t.msg_text), t.msg_timestamp, u.user_id, t.chat_id "
+         + "FROM %s t LEFT JOIN v2.USR u ON u.login = rtrim(t.sender_login) "
+         + "WHERE NOT EXISTS (SELECT 1 FROM v2.MESSAGE v WHERE v.msg_id = t.msg_id)"));
+      steps.add(new Step("CHAT_SUMMARY", new String[] {"chat_id"},
+         "INSERT INTO v2.CHAT_SUMMARY(chat_id, last_msg_id, last_msg_ts, last_sender_id, last_text, msg_count, member_count) "
+         + "SELECT t.chat_id, t.last_msg_id, t.last_msg_ts, u.user_id, rtrim(t.last_text), t.msg_count, t.member_count "
+         + "FROM %s t LEFT JOIN v2.USR u ON u.login = rtrim(t.last_sender) "
+         + "WHERE NOT EXISTS (SELECT 1 FROM v2.CHAT_SUMMARY v WHERE v.chat_id = t.chat_id)"));
+      return steps;
+   }//end steps
+
+   /**
+    * The same read written for each schema, timed by report.
+    */
+   static class Join {
+      final String name;
+      final String v1;
+      final String v2;
+
+      Join(String name, String v1, String v2){
+         this.name = name;
+         this.v1 = v1;
+         this.v2 = v2;
+      }
+   }//end Join
+
+   // parameters: user login (v1) or user_id (v2)
+   static final Join INBOX = new Join("inbox",
+      "SELECT s.chat_id, s.last_sender, s.last_text, l.unread FROM public.CHAT_LIST l, public.CHAT_SUMMARY s "
+      + "WHERE l.member = ? AND s.chat_id = l.chat_id",
+      "SELECT s.chat_id, u.login, s.last_text, l.unread FROM v2.CHAT_LIST l, v2.CHAT_SUMMARY s "
+      + "LEFT JOIN v2.USR u ON u.user_id = s.last_sender_id WHERE l.member_id = ? AND s.chat_id = l.chat_id");
+   // parameter: contact list ID
+   static final Join CONTACTS = new Join("contacts",
+      "SELECT u.login, u.status FROM public.USER_LIST_CONTAINS c, public.USR u WHERE c.list_id = ? AND u.login = c.list_member",
+      "SELECT u.login, u.status FROM v2.USER_LIST_CONTAINS c, v2.USR u WHERE c.list_id = ? AND u.user_id = c.member_id");
+   // parameter: chat ID
+   static final Join MEMBERS = new Join("chat members",
+      "SELECT u.login, u.status FROM public.CHAT_LIST l, public.USR u WHERE l.chat_id = ? AND u.login = l.member",
+      "SELECT u.login, u.status FROM v2.CHAT_LIST l, v2.USR u WHERE l.chat_id = ? AND u.user_id = l.member_id");
+   static final Join PAGE = new Join("message page",
+      "SELECT m.msg_timestamp, m.msg_id, m.sender_login, m.msg_text FROM public.MESSAGE m "
+      + "WHERE m.chat_id = ? ORDER BY m.msg_timestamp DESC, m.msg_id DESC LIMIT 11",
+      "SELECT m.msg_timestamp, m.msg_id, u.login, m.msg_text FROM v2.MESSAGE m LEFT JOIN v2.USR u ON u.user_id = m.sender_id "
+      + "WHERE m.chat_id = ? ORDER BY m.msg_timestamp DESC, m.msg_id DESC LIMIT 11");
+
+   // maps a row to its column values
+   static final Messenger.RowMapper<Object[]> KEY = new Messenger.RowMapper<Object[]>() {
+      public Object[] map (ResultSet rs) throws SQLException {
+         Object[] key = new Object[rs.getMetaData().getColumnCount()];
+         for (int i = 0; i < key.length; ++i)
+            key[i] = rs.getObject(i + 1);
+         return key;
+      }
+   };
+
+   private static final int RETRIES = 5;
+
+   private final Messenger esql;
+
+   public SchemaMigrator (Messenger esql){
+      this.esql = esql;
+   }
+
+   /**
+    * Copies every table, then compares the row counts.
+    *
+    * @param batchSize number of v1 rows per batch and transaction
+    * @return true if every v2 table holds as many rows as its v1 table
+    */
+   public boolean copy (int batchSize) throws SQLException, InterruptedException {
+      for (Step step : steps())
+         copy(step, batchSize);
+      return verify();
+   }//end copy
+
+   private void copy (Step step, int batchSize) throws SQLException, InterruptedException {
+      long start = System.nanoTime();
+      long rows = 0;
+      Object[] lower = null;
+      while (true){
+         Object[] upper = esql.queryFirst(step.boundSql(lower == null), KEY, concat(lower, new Object[] {batchSize}));
+         if (upper == null)
+            break;
+         rows += copyBatch(step, lower, upper);
+         lower = upper;
+      }//end while
+      double secs = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("Copied %d rows of %s in %.2f s (%.0f rows/s)",
+                                       rows, step.table, secs, rows / Math.max(secs, 1e-9)));
+   }//end copy
+
+   private int copyBatch (Step step, Object[] lower, Object[] upper) throws SQLException, InterruptedException {
+      for (int attempt = 1; ; ++attempt){
+         esql.begin();
+         boolean done = false;
+         try{
+            int n = esql.executeUpdate(step.copySql(lower == null), concat(lower, upper));
+            done = true;
+            return n;
+         }catch (SQLException e){
+            if (attempt == RETRIES)
+               throw e;
+            System.err.println("Retrying a batch of " + step.table + ": " + e.getMessage());
+         }finally{
+            if (done) esql.commit(); else esql.rollback();
+         }//end try
+         Thread.sleep(100L * attempt);
+      }//end for
+   }//end copyBatch
+
+   /**
+    * Compares the row counts of both schemas in one statement, i.e. one
+    * snapshot.
+    */
+   private boolean verify () throws SQLException {
+      StringBuilder sql = new StringBuilder();
+      for (Step step : steps()){
+         if (sql.length() > 0)
+            sql.append(" UNION ALL ");
+         sql.append("SELECT '").append(step.table).append("', (SELECT COUNT(*) FROM public.").append(step.table)
+            .append("), (SELECT COUNT(*) FROM v2.").append(step.table).append(")");
+      }//end for
+      boolean ok = true;
+      for (List<String> row : esql.query(sql.toString(), Messenger.TRIMMED_ROW)){
+         boolean same = row.get(1).equals(row.get(2));
+         ok &= same;
+         System.out.println(String.format("%-20s v1 %12s  v2 %12s  %s", row.get(0), row.get(1), row.get(2),
+                                          same ? "ok" : "MISMATCH"));
+      }//end for
+      return ok;
+   }//end verify
+
+   /**
+    * Prints the table and index sizes of both schemas and the latency of
+    * the joins of INBOX, CONTACTS, MEMBERS and PAGE on each.
+    *
+    * @param samples number of random users and chats to run the joins for
+    * @param rounds number of timed passes over the samples
+    */
+   public void report (int samples, int rounds) throws SQLException {
+      // both sides with fresh statistics
+      for (Step step : steps()){
+         esql.executeUpdate("ANALYZE public." + step.table);
+         esql.executeUpdate("ANALYZE v2." + step.table);
+      }//end for
+
+      System.out.println(String.format("%-20s %-6s %12s %12s %12s %12s", "table", "schema", "rows", "heap kB", "index kB", "total kB"));
+      StringBuilder names = new StringBuilder();
+      for (Step step : steps())
+         names.append(names.length() > 0 ? ", '" : "'").append(step.table.toLowerCase()).append("'");
+      for (List<String> row : esql.query(
+            "SELECT c.relname, CASE n.nspname WHEN 'public' THEN 'v1' ELSE 'v2' END, CAST(SUM(CASE p.relkind WHEN 'r' THEN p.reltuples END) AS bigint), "
+            + "CAST(SUM(pg_relation_size(p.oid)) / 1024 AS bigint), "
+            + "CAST(SUM(pg_indexes_size(p.oid)) / 1024 AS bigint), "
+            + "CAST(SUM(pg_total_relation_size(p.oid)) / 1024 AS bigint) "
+            // a partitioned table is the sum of its partitions; the tree of
+            // a plain table is empty, so the table itself is added
+            + "FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace, "
+            + "LATERAL (SELECT relid FROM pg_partition_tree(c.oid) UNION SELECT c.oid) t, pg_class p "
+            + "WHERE c.relkind IN ('r', 'p') AND p.oid = t.relid "
+            + "AND n.nspname IN ('public', 'v2') AND c.relname IN (" + names + ") "
+            + "GROUP BY c.relname, n.nspname ORDER BY c.relname, n.nspname",
+            Messenger.TRIMMED_ROW))
+         System.out.println(String.format("%-20s %-6s %12s %12s %12s %12s",
+                                          row.get(0), row.get(1), row.get(2), row.get(3), row.get(4), row.get(5)));
+      System.out.println();
+
+      // the same users and chats on both sides
+      List<List<String>> users = esql.query(
+         "SELECT u.login, v.user_id, u.contact_list FROM public.USR u, v2.USR v "
+         + "WHERE v.login = rtrim(u.login) ORDER BY random() LIMIT ?", Messenger.TRIMMED_ROW, samples);
+      List<Integer> chats = esql.query("SELECT chat_id FROM v2.CHAT ORDER BY random() LIMIT ?", Messenger.FIRST_INT, samples);
+
+      Join[] joins = {INBOX, CONTACTS, MEMBERS, PAGE};
+      LatencyHistogram[][] latency = new LatencyHistogram[joins.length][2];
+      for (int j = 0; j < joins.length; ++j)
+         for (int s = 0; s < 2; ++s)
+            latency[j][s] = new LatencyHistogram();
+
+      // round 0 warms the caches and is not recorded; the schema that runs
+      // first alternates between rounds
+      for (int round = 0; round <= rounds; ++round){
+         for (int s = 0; s < 2; ++s){
+            int schema = (round + s) % 2;
+            LatencyHistogram[] h = new LatencyHistogram[joins.length];
+            for (int j = 0; j < joins.length; ++j)
+               h[j] = round == 0 ? new LatencyHistogram() : latency[j][schema];
+            for (List<String> u : users){
+               time(INBOX, schema, h[0], schema == 0 ? u.get(0) : (Object) Integer.valueOf(u.get(1)));
+               time(CONTACTS, schema, h[1], Integer.valueOf(u.get(2)));
+            }//end for
+            for (int chat : chats){
+               time(MEMBERS, schema, h[2], chat);
+               time(PAGE, schema, h[3], chat);
+            }//end for
+         }//end for
+      }//end for
+
+      System.out.println(String.format("%-14s %-6s %10s %10s %10s %10s", "join", "schema", "count", "mean ms", "p50 ms", "p99 ms"));
+      for (int j = 0; j < joins.length; ++j)
+         for (int s = 0; s < 2; ++s){
+            LatencyHistogram h = latency[j][s];
+            System.out.println(String.format("%-14s %-6s %10d %10.3f %10.3f %10.3f", joins[j].name, s == 0 ? "v1" : "v2",
+                                             h.getCount(), h.getMean() / 1000.0,
+                                             h.getPercentile(0.50) / 1000.0, h.getPercentile(0.99) / 1000.0));
+         }//end for
+   }//end report
+
+   private void time (Join join, int schema, LatencyHistogram h, Object param) throws SQLException {
+      long start = System.nanoTime();
+      esql.forEach(schema == 0 ? join.v1 : join.v2, new Messenger.RowCallback() {
+         public void row (ResultSet rs) throws SQLException {
+            // read every row, as the application would
+         }
+      }, param);
+      h.recordSince(start);
+   }//end time
+
+   private static Object[] concat (Object[] a, Object[] b){
+      if (a == null)
+         return b;
+      Object[] r = new Object[a.length + b.length];
+      System.arraycopy(a, 0, r, 0, a.length);
+      System.arraycopy(b, 0, r, a.length, b.length);
+      return r;
+   }//end concat
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> copy [batch size] | report [samples] [rounds]
+    */
+   public static void main (String[] args) {
+      if (args.length < 4 || args.length > 6
+          || !(args[3].equals("copy") || args[3].equals("report"))) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            SchemaMigrator.class.getName () +
+            " <dbname> <port> <user> copy [batch size] | report [samples] [rounds]");
+         return;
+      }//end if
+
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      ConnectionPool pool = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         pool = new ConnectionPool(url, args[2], "", 1, 1, 60000L, 600000L);
+         SchemaMigrator migrator = new SchemaMigrator(new Messenger(pool));
+
+         long start = System.nanoTime();
+         if (args[3].equals("copy")){
+            boolean ok = migrator.copy(args.length > 4 ? Integer.parseInt(args[4]) : 5000);
+            System.out.println(String.format("%s in %.2f s", ok ? "Done" : "Row counts differ",
+                                             (System.nanoTime() - start) / 1e9));
+            if (!ok)
+               System.exit(1);
+         }else{
+            migrator.report(args.length > 4 ? Integer.parseInt(args[4]) : 200,
+                            args.length > 5 ? Integer.parseInt(args[5]) : 5);
+         }//end if
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }finally{
+         if (pool != null)
+            pool.close();
+      }//end try
+   }//end main
+
+}//end SchemaMigrator
@@ -0,0 +1,187 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the most recently used PreparedStatements of one physical
+ * connection, keyed by their SQL template. The driver turns a statement
+ * into a named server-side prepared statement once it has run
+ * prepareThreshold times (5 by default, see the driver's documentation),
+ * after which the server no longer parses and plans it; reusing the same
+ * PreparedStatement object is what lets the count reach the threshold,
+ * and it also saves creating the statement on every call.
+ *
+ * The hit/miss counters are printed by LoadDriver and, with the metrics on
+ * (see Metrics), exposed as an MBean and in the metrics file.
+ *
+ */
+public class StatementCache {
+
+   // the connection all cached statements belong to
+   private final Connection connection;
+
+   // SQL template -> prepared statement, in least recently used order
+   private final LinkedHashMap<String, PreparedStatement> statements;
+
+   // counters shared by all caches of the same pool
+   private final Stats stats;
+
+   /**
+    * The attributes of a pool's statement cache MBean.
+    */
+   public interface StatsMBean {
+      long getHits ();
+      long getMisses ();
+      long getEvictions ();
+      double getHitRatio ();
+      String[] getTemplates ();
+   }//end StatsMBean
+
+   /**
+    * Hit/miss counters, globally and per SQL template.
+    */
+   public static class Stats implements StatsMBean {
+      private final AtomicLong hits = new AtomicLong();
+      private final AtomicLong misses = new AtomicLong();
+      private final AtomicLong evictions = new AtomicLong();
+      private final ConcurrentHashMap<String, AtomicLong[]> perTemplate =
+         new ConcurrentHashMap<String, AtomicLong[]>();
+
+      void hit (String sql){
+         hits.incrementAndGet();
+         counters(sql)[0].incrementAndGet();
+      }
+
+      void miss (String sql){
+         misses.incrementAndGet();
+         counters(sql)[1].incrementAndGet();
+      }
+
+      void eviction (){
+         evictions.incrementAndGet();
+      }
+
+      private AtomicLong[] counters (String sql){
+         AtomicLong[] c = perTemplate.get(sql);
+         if (c == null){
+            AtomicLong[] fresh = new AtomicLong[] { new AtomicLong(), new AtomicLong() };
+            c = perTemplate.putIfAbsent(sql, fresh);
+            if (c == null)
+               c = fresh;
+         }
+         return c;
+      }
+
+      public long getHits (){
+         return hits.get();
+      }
+
+      public long getMisses (){
+         return misses.get();
+      }
+
+      public long getEvictions (){
+         return evictions.get();
+      }
+
+      /**
+       * @return the fraction of lookups served from the cache (0.0 - 1.0)
+       */
+      public double getHitRatio (){
+         long h = hits.get();
+         long total = h + misses.get();
+         return total == 0 ? 0.0 : (double) h / total;
+      }
+
+      /**
+       * @return SQL template -> {hits, misses}
+       */
+      public Map<String, long[]> getPerTemplate (){
+         Map<String, long[]> result = new TreeMap<String, long[]>();
+         for (Map.Entry<String, AtomicLong[]> e : perTemplate.entrySet())
+            result.put(e.getKey(), new long[] { e.getValue()[0].get(), e.getValue()[1].get() });
+         return result;
+      }
+
+      /**
+       * @return one "hits misses template" line per SQL template
+       */
+      public String[] getTemplates (){
+         Map<String, long[]> per = getPerTemplate();
+         String[] lines = new String[per.size()];
+         int i = 0;
+         for (Map.Entry<String, long[]> e : per.entrySet())
+            lines[i++] = e.getValue()[0] + " " + e.getValue()[1] + " " + e.getKey();
+         return lines;
+      }
+   }//end Stats
+
+   /**
+    * Creates an empty cache for a connection.
+    *
+    * @param connection the physical connection the statements are prepared on
+    * @param capacity maximum number of statements kept open
+    * @param stats counters to report hits and misses to
+    */
+   public StatementCache (Connection connection, final int capacity, Stats stats){
+      this.connection = connection;
+      this.stats = stats;
+      this.statements = new LinkedHashMap<String, PreparedStatement>(capacity * 2, 0.75f, true){
+         protected boolean removeEldestEntry (Map.Entry<String, PreparedStatement> eldest){
+            if (size() <= capacity)
+               return false;
+            closeQuietly(eldest.getValue());
+            StatementCache.this.stats.eviction();
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the cached statement for a SQL template, preparing it on a miss.
+    * The statement's parameters are cleared before it is handed out.
+    *
+    * @param sql the SQL template with ? placeholders
+    * @return a prepared statement owned by the cache (do not close it)
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare (String sql) throws SQLException {
+      PreparedStatement ps = statements.get(sql);
+      if (ps != null){
+         stats.hit(sql);
+         ps.clearParameters();
+         return ps;
+      }//end if
+      stats.miss(sql);
+      ps = connection.prepareStatement(sql);
+      statements.put(sql, ps);
+      return ps;
+   }//end prepare
+
+   /**
+    * Closes every cached statement.
+    */
+   public void close (){
+      for (PreparedStatement ps : statements.values())
+         closeQuietly(ps);
+      statements.clear();
+   }//end close
+
+   public int size (){
+      return statements.size();
+   }
+
+   private static void closeQuietly (PreparedStatement ps){
+      try{
+         ps.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
@@ -0,0 +1,169 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class holds the USR row of the logged-in user for the length of a
+ * session, so that the user_id and the block_list and contact_list IDs
+ * are read once at log in instead of before every contact and block operation. The logins
+ * on the user's contact and block lists are loaded on first use and kept
+ * up to date by the Messenger operations that change them, so that
+ * relationship checks are set lookups.
+ *
+ * Call invalidate() after changing the USR row of the user; the next
+ * Messenger.getSession() call reloads it.
+ *
+ */
+public class UserSession {
+
+   // the columns LogIn and load() read, in this order
+   static final String COLUMNS = "user_id, login, phoneNum, status, block_list, contact_list";
+
+   private final int userId;
+   private final String login;
+   private final String phoneNum;
+   private final String status;
+   private final int blockList;
+   private final int contactList;
+   private volatile boolean valid = true;
+
+   // members of the contact and block lists, null until first used
+   private Set<String> contacts = null;
+   private Set<String> blocked = null;
+
+   /**
+    * Creates a session from a USR row.
+    *
+    * @param login the login the user logged in with
+    * @param row the trimmed values of COLUMNS
+    */
+   UserSession (String login, List<String> row){
+      this.userId = Integer.parseInt(row.get(0));
+      this.login = login;
+      this.phoneNum = row.get(2);
+      this.status = row.get(3);
+      this.blockList = Integer.parseInt(row.get(4));
+      this.contactList = Integer.parseInt(row.get(5));
+   }//end UserSession
+
+   /**
+    * Reads the USR row of a user.
+    *
+    * @param esql the session to run the query on
+    * @param login the user's login
+    * @return the profile, or null if the user does not exist
+    * @throws java.sql.SQLException when the query fails
+    */
+   static UserSession load (Messenger esql, String login) throws SQLException {
+      List<String> row = esql.queryFirst(
+         "SELECT " + COLUMNS + " FROM USR WHERE login = ?", Messenger.TRIMMED_ROW, login);
+      if (row == null)
+         return null;
+      return new UserSession(login, row);
+   }//end load
+
+   public int getUserId (){
+      return this.userId;
+   }
+
+   public String getLogin (){
+      return this.login;
+   }
+
+   public String getPhoneNum (){
+      return this.phoneNum;
+   }
+
+   public String getStatus (){
+      return this.status;
+   }
+
+   public int getBlockListId (){
+      return this.blockList;
+   }
+
+   public int getContactListId (){
+      return this.contactList;
+   }
+
+   /**
+    * @param esql the session to load the list on if needed
+    * @param login a user login
+    * @return true if the user is on this user's contact list
+    * @throws java.sql.SQLException when the list cannot be loaded
+    */
+   public synchronized boolean isContact (Messenger esql, String login) throws SQLException {
+      if (this.contacts == null)
+         this.contacts = loadList(esql, this.contactList);
+      return this.contacts.contains(login);
+   }
+
+   /**
+    * @param esql the session to load the list on if needed
+    * @param login a user login
+    * @return true if the user is on this user's block list
+    * @throws java.sql.SQLException when the list cannot be loaded
+    */
+   public synchronized boolean isBlocked (Messenger esql, String login) throws SQLException {
+      if (this.blocked == null)
+         this.blocked = loadList(esql, this.blockList);
+      return this.blocked.contains(login);
+   }
+
+   /**
+    * Records a change made to the contact list in the database.
+    *
+    * @param login the member added or removed
+    * @param member true if the member was added
+    */
+   public synchronized void contactChanged (String login, boolean member){
+      if (this.contacts != null)
+         update(this.contacts, login, member);
+   }
+
+   /**
+    * Records a change made to the block list in the database.
+    *
+    * @param login the member added or removed
+    * @param member true if the member was added
+    */
+   public synchronized void blockedChanged (String login, boolean member){
+      if (this.blocked != null)
+         update(this.blocked, login, member);
+   }
+
+   private static void update (Set<String> set, String login, boolean member){
+      if (member)
+         set.add(login);
+      else
+         set.remove(login);
+   }
+
+   private static Set<String> loadList (Messenger esql, int listId) throws SQLException {
+      final Set<String> set = new HashSet<String>();
+      esql.forEach("SELECT u.login FROM USER_LIST_CONTAINS c, USR u WHERE c.list_id = ? AND u.user_id = c.member_id", new Messenger.RowCallback() {
+         public void row (ResultSet rs) throws SQLException {
+            set.add(Messenger.trimmed(rs, 1));
+         }
+      }, listId);
+      return set;
+   }//end loadList
+
+   /**
+    * @return false once invalidate() has been called
+    */
+   public boolean isValid (){
+      return this.valid;
+   }
+
+   /**
+    * Marks the cached row and lists as stale so that they are read again
+    * on next use.
+    */
+   public void invalidate (){
+      this.valid = false;
+   }
+
+}//end UserSession
@@ -0,0 +1,170 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the line protocol of MessengerServer: the escaping of fields, and
+ * the answers of a server running on a free local port to requests
+ * without a command, before logging in, with escaped text and past the
+ * line limit. Run by scripts/test.sh; exits with 1 if a check fails.
+ *
+ * Creates one user and one chat in the database, which it deletes again.
+ */
+public class ProtocolTest {
+
+   private static int failed = 0;
+
+   private static void check (boolean ok, String what){
+      if (!ok){
+         failed++;
+         System.out.println("FAILED: " + what);
+      }//end if
+   }//end check
+
+   private static void checkEquals (Object expected, Object actual, String what){
+      check(expected == null ? actual == null : expected.equals(actual), what + ": expected " + expected + ", got " + actual);
+   }//end checkEquals
+
+   /**
+    * A client connection reading whole responses.
+    */
+   private static class Client {
+      final Socket socket;
+      final BufferedReader in;
+      final OutputStream out;
+
+      Client (int port) throws IOException {
+         socket = new Socket("localhost", port);
+         socket.setSoTimeout(10000);
+         in = new BufferedReader(new InputStreamReader(socket.getInputStream(), MessengerServer.UTF8));
+         out = socket.getOutputStream();
+      }
+
+      void write (String lines) throws IOException {
+         out.write(lines.getBytes(MessengerServer.UTF8));
+         out.flush();
+      }
+
+      /**
+       * @return the status and row lines of the next response, without
+       * the closing dot and the pushed messages; null at end of stream
+       */
+      List<String> response () throws IOException {
+         List<String> lines = new ArrayList<String>();
+         for (String line = in.readLine(); ; line = in.readLine()){
+            if (line == null)
+               return lines.isEmpty() ? null : lines;
+            if (line.equals("."))
+               return lines;
+            if (!line.startsWith("*"))
+               lines.add(line);
+         }//end for
+      }
+
+      List<String> request (Object... fields) throws IOException {
+         write(MessengerServer.join(fields) + "\n");
+         return response();
+      }
+   }//end Client
+
+   static void testEscaping (){
+      String text = "tab\there, line\nbreak, \\ backslash, \\N and \r";
+      String line = MessengerServer.escape(text);
+      check(line.indexOf('\t') < 0 && line.indexOf('\n') < 0 && line.indexOf('\r') < 0, "escaped field has no separators: " + line);
+      checkEquals(text, MessengerServer.split(line)[0], "escape and split round trip");
+
+      String[] fields = MessengerServer.split(MessengerServer.join(new Object[] {"SEND", null, "", "\\N", 7}));
+      checkEquals(Arrays.asList("SEND", null, "", "\\N", "7"), Arrays.asList(fields), "join and split round trip");
+
+      checkEquals(Arrays.asList((String) null), Arrays.asList(MessengerServer.split("\\N")), "\\N alone is null");
+      checkEquals(Arrays.asList("a", "", ""), Arrays.asList(MessengerServer.split("a\t\t")), "trailing empty fields are kept");
+   }//end testEscaping
+
+   static void testServer (int port) throws IOException {
+      String tag = Long.toString(System.currentTimeMillis() % 100000000L);
+      String login = "pt" + tag;
+      Client c = new Client(port);
+
+      checkEquals(Arrays.asList("ERROR\tMissing command"), c.request((Object) null), "request without a command");
+      checkEquals(Arrays.asList("ERROR\tNot logged in"), c.request("UNREAD"), "request before logging in");
+      checkEquals(Arrays.asList("ERROR\tMissing arguments"), c.request("LOGIN", login), "request without its arguments");
+
+      checkEquals(Arrays.asList("OK"), c.request("CREATE_USER", login, "pw", "9" + tag), "create user");
+      checkEquals(Arrays.asList("OK"), c.request("LOGIN", login, "pw"), "log in");
+      checkEquals(Arrays.asList("ERROR\tUnknown command NOSUCH"), c.request("NOSUCH"), "unknown command");
+      List<String> created = c.request("CREATE_CHAT");
+      checkEquals("OK", created.get(0), "create chat");
+      int chat = Integer.parseInt(created.get(1));
+
+      // a text with every escaped character comes back as it was sent
+      String text = "a\tb\nc\\d\re \\N";
+      checkEquals(Arrays.asList("OK"), c.request("SEND", chat, text), "send");
+      List<String> page = c.request("MESSAGES", chat, null, 0, 10);
+      checkEquals(2, page.size(), "messages of the chat");
+      String[] row = MessengerServer.split(page.get(page.size() - 1));
+      checkEquals(text, row[3], "message text");
+      checkEquals(login, row[2], "message sender");
+
+      checkEquals(Arrays.asList("OK"), c.request("DELETE_CHAT", chat), "delete chat");
+      checkEquals(Arrays.asList("OK"), c.request("DELETE_ACCOUNT"), "delete account");
+
+      // requests before an overlong line are answered, then the error,
+      // then nothing more
+      StringBuilder longLine = new StringBuilder("SEND\t1\t");
+      while (longLine.length() <= 64 * 1024)
+         longLine.append('x');
+      c.write("UNREAD\n" + longLine + "\nQUIT\n");
+      checkEquals(Arrays.asList("ERROR\tNot logged in"), c.response(), "request before the overlong line");
+      List<String> tooLong = c.response();
+      check(tooLong != null && tooLong.size() == 1 && tooLong.get(0).startsWith("ERROR\tRequest line longer than"),
+            "overlong line is an error: " + tooLong);
+      checkEquals(null, c.response(), "connection closed after the overlong line");
+      c.socket.close();
+   }//end testServer
+
+   /**
+    * @param args <dbname> <port> <user>
+    */
+   public static void main (String[] args) throws Exception {
+      if (args.length != 3){
+         System.err.println("Usage: java ProtocolTest <dbname> <port> <user>");
+         System.exit(2);
+      }//end if
+      testEscaping();
+
+      Class.forName("org.postgresql.Driver");
+      ConnectionPool pool = new ConnectionPool("jdbc:postgresql://localhost:" + args[1] + "/" + args[0], args[2], "",
+                                               1, 4, 60000L, 30000L);
+      ServerSocket free = new ServerSocket(0);
+      int port = free.getLocalPort();
+      free.close();
+      final MessengerServer server = new MessengerServer(pool, port, 2, 0);
+      Thread serving = new Thread(new Runnable(){
+         public void run(){
+            try{
+               server.serve();
+            }catch (IOException e){
+               System.err.println(e.getMessage());
+            }//end try
+         }
+      });
+      serving.setDaemon(true);
+      serving.start();
+      try{
+         testServer(port);
+      }finally{
+         serving.interrupt();
+         pool.close();
+      }//end try
+
+      System.out.println(failed == 0 ? "ProtocolTest passed" : "ProtocolTest: " + failed + " check(s) failed");
+      System.exit(failed == 0 ? 0 : 1);
+   }//end main
+
+}//end ProtocolTest
@@ -0,0 +1,162 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the unread counters kept by the triggers of triggers.sql and by
+ * mark_read() in functions.sql, through the Messenger operations: a
+ * member's count is the number of messages sent by others after the
+ * member's read cursor, it drops only once a browse has shown all of
+ * them, and deleting a message takes it back off only for the members
+ * that had not read it. Run by scripts/test.sh; exits with 1 if a check
+ * fails.
+ *
+ * Creates three users and one chat in the database, which it deletes again.
+ */
+public class UnreadTest {
+
+   private static int failed = 0;
+
+   private static ConnectionPool pool;
+   private static int chat;
+
+   private static void check (boolean ok, String what){
+      if (!ok){
+         failed++;
+         System.out.println("FAILED: " + what);
+      }//end if
+   }//end check
+
+   /**
+    * A logged-in user with its own session, as every client of
+    * MessengerServer has.
+    */
+   private static class User {
+      final String login;
+      final Messenger esql;
+
+      User (String login) throws SQLException {
+         this.login = login;
+         this.esql = new Messenger(pool);
+         Messenger.CreateUser(esql, login, "pw", login);
+         Messenger.LogIn(esql, login, "pw");
+      }
+
+      int unread () throws SQLException {
+         Integer n = Messenger.fetchUnreadChats(esql, login).get(chat);
+         return n == null ? 0 : n;
+      }
+
+      /**
+       * @return the messages of others after the read cursor, counted
+       * from MESSAGE
+       */
+      int recount () throws SQLException {
+         return esql.queryFirst("SELECT COUNT(*)::integer FROM MESSAGE m, CHAT_LIST l, USR u " +
+                                "WHERE l.chat_id = ? AND u.login = ? AND l.member_id = u.user_id AND m.chat_id = l.chat_id " +
+                                "AND m.sender_id IS DISTINCT FROM l.member_id " +
+                                "AND (m.msg_timestamp, m.msg_id) > (l.last_read_ts, l.last_read_id)",
+                                Messenger.FIRST_INT, chat, login);
+      }
+
+      void send (int count) throws SQLException {
+         for (int i = 0; i < count; ++i)
+            Messenger.NewMessage(esql, login, chat, login + " " + i);
+      }
+
+      /**
+       * Browses the chat from its first page on.
+       *
+       * @param pages the number of pages to read, 0 for all
+       * @param shown the messages shown per page
+       */
+      void browse (int pages, int shown) throws SQLException {
+         Messenger.Message before = null;
+         for (int p = 0; pages == 0 || p < pages; ++p){
+            List<Messenger.Message> page = Messenger.BrowseMessages(esql, login, chat,
+               before == null ? null : before.getTimestamp(), before == null ? 0 : before.getId(), shown + 1);
+            if (page.size() <= shown)
+               return;
+            before = page.get(shown - 1);
+         }//end for
+      }
+   }//end User
+
+   private static void expect (String step, User[] users, int... unread) throws SQLException {
+      for (int i = 0; i < users.length; ++i){
+         int count = users[i].unread();
+         int recount = users[i].recount();
+         check(count == unread[i], step + ": " + users[i].login + " has " + count + " unread, expected " + unread[i]);
+         check(count == recount, step + ": " + users[i].login + " has " + count + " unread but " + recount +
+                                 " messages of others after the read cursor");
+      }//end for
+   }//end expect
+
+   /**
+    * @return the newest message of the chat sent by the user
+    */
+   private static int newest (User sender) throws SQLException {
+      for (Messenger.Message m : Messenger.fetchMessagePage(sender.esql, chat, null, 0, 100))
+         if (m.getSender().equals(sender.login))
+            return m.getId();
+      throw new SQLException("no message of " + sender.login);
+   }//end newest
+
+   /**
+    * @param args <dbname> <port> <user>
+    */
+   public static void main (String[] args) throws Exception {
+      if (args.length != 3){
+         System.err.println("Usage: java UnreadTest <dbname> <port> <user>");
+         System.exit(2);
+      }//end if
+      Class.forName("org.postgresql.Driver");
+      pool = new ConnectionPool("jdbc:postgresql://localhost:" + args[1] + "/" + args[0], args[2], "",
+                                1, 4, 60000L, 30000L);
+      String tag = Long.toString(System.currentTimeMillis() % 100000000L);
+      User a = new User("ua" + tag), b = new User("ub" + tag), c = new User("uc" + tag);
+      User[] all = {a, b, c};
+      try{
+         chat = Messenger.CreateGroupChat(a.esql, a.login, Arrays.asList(b.login, c.login), null);
+         expect("new chat", all, 0, 0, 0);
+
+         a.send(5);
+         b.send(3);
+         expect("after 8 messages", all, 3, 5, 8);
+
+         // nothing is read before the browse reaches the read cursor
+         c.browse(2, 3);
+         expect("two pages of three", all, 3, 5, 8);
+         c.browse(0, 3);
+         expect("browsed to the cursor", all, 3, 5, 0);
+         b.browse(1, 20);
+         expect("one page holding all", all, 3, 0, 0);
+
+         // a browse that stops before the cursor marks nothing read either
+         a.browse(2, 1);
+         expect("browse stopped", all, 3, 0, 0);
+
+         a.send(2);
+         expect("two more of a", all, 3, 2, 2);
+         Messenger.DeleteMessage(a.esql, a.login, newest(a));
+         expect("unread message deleted", all, 3, 1, 1);
+         Messenger.DeleteMessage(b.esql, b.login, newest(b));
+         expect("message read by some deleted", all, 2, 1, 1);
+
+         c.browse(0, 4);
+         a.browse(0, 4);
+         expect("all read", all, 0, 1, 0);
+      }finally{
+         Messenger.DeleteChat(a.esql, a.login, chat);
+         for (User u : all){
+            Messenger.removeAccount(u.esql, u.login);
+            u.esql.cleanup();
+         }//end for
+         pool.close();
+      }//end try
+
+      System.out.println(failed == 0 ? "UnreadTest passed" : "UnreadTest: " + failed + " check(s) failed");
+      System.exit(failed == 0 ? 0 : 1);
+   }//end main
+
+}//end UnreadTest
@@ -0,0 +1,23 @@
+#!/bin/bash
+# Fails if any Messenger query template is planned with a sequential scan
+# of more than a small relation (estimated cost above SEQ_COST, default
+# 100; empty partitions and tiny tables are cheaper to scan than to look
+# up). Run after create_db.sh has loaded the dataset.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+OUT=$(psql -X -q -v ON_ERROR_STOP=1 -p $PGPORT $DB_NAME -f $DIR/../src/check_plans.sql 2>&1)
+if [ $? -ne 0 ]; then
+   echo "$OUT"
+   exit 1
+fi
+echo "$OUT"
+
+FAILED=$(echo "$OUT" | awk -v max=${SEQ_COST:-100} '/^-- / {name=$0}
+   /Seq Scan/ {cost=$0; sub(/.*cost=[0-9.]+\.\./, "", cost); sub(/ .*/, "", cost); if (cost + 0 > max) print name}' | sort -u)
+if [ -n "$FAILED" ]; then
+   echo
+   echo "Sequential scans found in:"
+   echo "$FAILED"
+   exit 1
+fi
+echo
+echo "No query plan scans more than a small relation sequentially."
@@ -1,5 +1,20 @@
 #!/bin/bash
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
-psql -p $PGPORT $DB_NAME < $DIR/../src/create_tables.sql
+JAVA_DIR=$DIR/../../java
+psql -v ON_ERROR_STOP=1 -p $PGPORT $DB_NAME < $DIR/../src/create_tables.sql || exit 1
 psql -p $PGPORT $DB_NAME < $DIR/../src/create_indexes.sql
-psql -p $PGPORT $DB_NAME < $DIR/../src/load_data.sql
+psql -p $PGPORT $DB_NAME < $DIR/../src/functions.sql
+psql -p $PGPORT $DB_NAME < $DIR/../src/partitions.sql
+
+# load data/*.csv (streams the files in parallel batches, see BulkLoader.java)
+javac -cp $JAVA_DIR/lib/postgresql-42.2.27.jre7.jar -d $JAVA_DIR/src/ $JAVA_DIR/src/*.java
+java -cp $JAVA_DIR/src:$JAVA_DIR/lib/postgresql-42.2.27.jre7.jar BulkLoader $DB_NAME $PGPORT $USER $DIR/../../data
+
+# the loaded messages went to message_default; move them to monthly
+# partitions and create the partitions of the months ahead
+psql -p $PGPORT $DB_NAME -c "SELECT ensure_message_partitions(${MONTHS_AHEAD:-3})"
+
+# summaries and triggers are created after the bulk load so that loading
+# does not fire them
+psql -p $PGPORT $DB_NAME < $DIR/../src/summaries.sql
+psql -p $PGPORT $DB_NAME < $DIR/../src/triggers.sql
@@ -0,0 +1,22 @@
+#!/bin/bash
+# Creates a streaming-replication standby of the local server on
+# REPLICA_PORT (default PGPORT+1), with its cluster in REPLICA_DATA, for
+# the read routing of java/src/Replica.java. Run it after create_db.sh as
+# the owner of the primary's cluster; the primary needs wal_level=replica
+# (the default) and a pg_hba.conf line allowing local replication
+# connections (present in a cluster made by initdb). Clients then read
+# from the standby with
+#   JAVA_OPTS="-Dmessenger.replica.url=jdbc:postgresql://localhost:$REPLICA_PORT/$DB_NAME
+#              -Dmessenger.replica.maxLagMillis=1000"
+REPLICA_PORT=${REPLICA_PORT:-$((PGPORT + 1))}
+REPLICA_DATA=${REPLICA_DATA:-/tmp/$USER/replica}
+if [ -e "$REPLICA_DATA" ]; then
+   echo "$REPLICA_DATA already exists"
+   exit 1
+fi
+mkdir -p $(dirname $REPLICA_DATA)
+
+# copies the primary and writes standby.signal and primary_conninfo
+pg_basebackup -p $PGPORT -D $REPLICA_DATA -R -X stream -c fast || exit 1
+pg_ctl -D $REPLICA_DATA -o "-p $REPLICA_PORT" -l $REPLICA_DATA/logfile -w start || exit 1
+psql -q -X -p $REPLICA_PORT $DB_NAME -c "SELECT pg_is_in_recovery() AS standby, pg_last_wal_replay_lsn()"
@@ -0,0 +1,11 @@
+#!/bin/bash
+# Partition maintenance of MESSAGE, meant to run daily from cron:
+#   - creates the monthly partitions up to MONTHS_AHEAD months ahead
+#     (default 3), so that new messages never land in message_default
+#   - drops the partitions older than RETENTION (default '2 years');
+#     set RETENTION=none to keep every message
+# See sql/src/partitions.sql.
+psql -q -X -v ON_ERROR_STOP=1 -p $PGPORT $DB_NAME -c "SELECT ensure_message_partitions(${MONTHS_AHEAD:-3})" || exit 1
+if [ "${RETENTION:-2 years}" != "none" ]; then
+   psql -q -X -v ON_ERROR_STOP=1 -p $PGPORT $DB_NAME -c "SELECT drop_message_partitions('${RETENTION:-2 years}')" || exit 1
+fi
@@ -0,0 +1,20 @@
+#!/bin/bash
+# Converts a v1 database (char logins as keys) to the v2 schema of
+# create_tables.sql while the application keeps running:
+#   1. migrate_v2.sql creates the v2 tables and mirrors v1 changes into them
+#   2. SchemaMigrator copies the existing rows in batches, checks the row
+#      counts and prints the v1/v2 sizes and join latencies
+#   3. swap_v2.sql replaces the v1 tables; restart the application with
+#      the v2 build afterwards
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+JAVA_DIR=$DIR/../../java
+CP=$JAVA_DIR/src:$JAVA_DIR/lib/postgresql-42.2.27.jre7.jar
+
+cd $DIR/../src
+psql -q -v ON_ERROR_STOP=1 -p $PGPORT $DB_NAME < migrate_v2.sql || exit 1
+
+javac -cp $JAVA_DIR/lib/postgresql-42.2.27.jre7.jar -d $JAVA_DIR/src/ $JAVA_DIR/src/*.java
+java -cp $CP SchemaMigrator $DB_NAME $PGPORT $USER copy || exit 1
+java -cp $CP SchemaMigrator $DB_NAME $PGPORT $USER report
+
+psql -q -v ON_ERROR_STOP=1 -p $PGPORT $DB_NAME < swap_v2.sql || exit 1
@@ -0,0 +1,93 @@
+-- EXPLAINs every query template of java/src/Messenger.java with values
+-- from the data/*.csv dataset, where BulkLoader numbers the users in file
+-- order (Norma = 1, Lonny = 2, Judy = 7144). The plans are the ones the
+-- planner picks on the loaded data; the check_plans.sh script fails if any
+-- plan below contains a Seq Scan of more than a small relation.
+
+ANALYZE;
+
+\echo -- user lookup
+EXPLAIN SELECT EXISTS (SELECT 1 FROM USR WHERE login = 'Norma');
+
+\echo -- log in / session profile
+EXPLAIN SELECT user_id, login, phoneNum, status, block_list, contact_list FROM Usr WHERE login = 'Norma' AND password = '8c0bb848dc6691e9e8580f1b5eff110880d3';
+EXPLAIN SELECT user_id, login, phoneNum, status, block_list, contact_list FROM USR WHERE login = 'Norma';
+
+\echo -- contact/block sets of a session
+EXPLAIN SELECT u.login FROM USER_LIST_CONTAINS c, USR u WHERE c.list_id = 1 AND u.user_id = c.member_id;
+
+\echo -- list membership
+EXPLAIN INSERT INTO USER_LIST_CONTAINS(list_id, member_id) SELECT 1, user_id FROM USR WHERE login = 'Lonny';
+EXPLAIN DELETE FROM USER_LIST_CONTAINS WHERE list_id = 1 AND member_id = (SELECT user_id FROM USR WHERE login = 'Lonny');
+
+\echo -- list contacts / blocked
+EXPLAIN SELECT u.login as Contacts, u.status FROM USER_LIST_CONTAINS c, USR u WHERE c.list_id = 1 AND u.user_id = c.member_id;
+EXPLAIN SELECT u.login as blocked FROM USER_LIST_CONTAINS c, USR u WHERE c.list_id = 0 AND u.user_id = c.member_id;
+
+\echo -- block user (statements of block_user() in functions.sql)
+EXPLAIN SELECT user_id FROM USR WHERE login = 'Lonny';
+EXPLAIN DELETE FROM USER_LIST_CONTAINS WHERE list_id = 1 AND member_id = 2;
+
+\echo -- chat membership
+EXPLAIN SELECT EXISTS (SELECT 1 FROM CHAT_LIST WHERE chat_id = 0 AND member_id = 7144);
+
+\echo -- send message / add chat member
+EXPLAIN INSERT INTO MESSAGE (msg_text, msg_timestamp, sender_id, chat_id) SELECT 'hi', now(), member_id, chat_id FROM CHAT_LIST WHERE chat_id = 0 AND member_id = 7144;
+EXPLAIN INSERT INTO CHAT_LIST(chat_id, member_id) SELECT chat_id, user_id FROM CHAT, USR WHERE chat_id = 0 AND init_sender_id = 7144 AND login = 'Lonny';
+EXPLAIN INSERT INTO CHAT_LIST(chat_id, member_id) SELECT 0, user_id FROM USR WHERE login = 'Lonny';
+EXPLAIN SELECT login, user_id FROM USR WHERE login IN ('Norma', 'Lonny');
+EXPLAIN INSERT INTO CHAT_LIST(chat_id, member_id) SELECT 0, user_id FROM USR WHERE login IN ('Norma', 'Lonny');
+
+\echo -- chat ownership
+EXPLAIN SELECT EXISTS (SELECT 1 FROM CHAT WHERE chat_id = 0 AND init_sender_id = 7144);
+EXPLAIN SELECT EXISTS (SELECT 1 FROM CHAT WHERE chat_id = 0);
+EXPLAIN SELECT EXISTS (SELECT 1 FROM CHAT WHERE init_sender_id = 7144);
+EXPLAIN SELECT chat_id as chats FROM CHAT WHERE init_sender_id = 7144;
+
+\echo -- browse chats
+EXPLAIN SELECT chat_id as chats FROM CHAT_LIST WHERE member_id = 7144;
+
+\echo -- inbox
+EXPLAIN SELECT s.chat_id, s.last_msg_ts, u.login, s.last_text, s.msg_count, s.member_count, l.unread FROM CHAT_LIST l, CHAT_SUMMARY s LEFT JOIN USR u ON u.user_id = s.last_sender_id WHERE l.member_id = 7144 AND s.chat_id = l.chat_id ORDER BY s.last_msg_ts DESC NULLS LAST, s.chat_id DESC LIMIT 2147483647;
+
+\echo -- unread chats and read cursors (count_unread() in triggers.sql, mark_read() in functions.sql)
+EXPLAIN SELECT chat_id, unread FROM CHAT_LIST WHERE member_id = 7144 AND unread > 0 ORDER BY chat_id;
+EXPLAIN SELECT last_read_ts, last_read_id FROM CHAT_LIST WHERE chat_id = 0 AND member_id = 7144;
+EXPLAIN UPDATE CHAT_LIST SET unread = unread + 1 WHERE chat_id = 0 AND member_id IS DISTINCT FROM 7144 AND (last_read_ts, last_read_id) < ('2014-01-01 00:00:00', 100);
+EXPLAIN UPDATE CHAT_LIST SET unread = unread - 1 WHERE chat_id = 0 AND member_id IS DISTINCT FROM 7144 AND unread > 0 AND (last_read_ts, last_read_id) < ('2014-01-01 00:00:00', 100);
+EXPLAIN UPDATE CHAT_LIST SET last_read_ts = '2014-01-01 00:00:00', last_read_id = 100, unread = CASE WHEN (SELECT (last_msg_ts, last_msg_id) <= ('2014-01-01 00:00:00', 100) FROM CHAT_SUMMARY WHERE chat_id = 0) THEN 0 ELSE GREATEST(unread - 5, 0) END WHERE chat_id = 0 AND member_id = 7144 AND (last_read_ts, last_read_id) = ('2013-12-31 00:00:00', 90) AND (last_read_ts, last_read_id) < ('2014-01-01 00:00:00', 100);
+
+\echo -- chat summaries (summarize_message() in triggers.sql)
+EXPLAIN UPDATE CHAT_SUMMARY SET msg_count = msg_count - 1 WHERE chat_id = 0 AND last_msg_id <> 100;
+EXPLAIN SELECT msg_id, msg_timestamp, sender_id, msg_text FROM MESSAGE WHERE chat_id = 0 ORDER BY msg_timestamp DESC, msg_id DESC LIMIT 1;
+
+\echo -- browse messages, first and later pages: recent window, then older history
+EXPLAIN SELECT m.msg_timestamp, m.msg_id, u.login, m.msg_text AS messages FROM MESSAGE m LEFT JOIN USR u ON u.user_id = m.sender_id WHERE m.chat_id = 0 AND m.msg_timestamp > now()::timestamp - interval '7 days' ORDER BY m.msg_timestamp DESC, m.msg_id DESC LIMIT 11;
+EXPLAIN SELECT m.msg_timestamp, m.msg_id, u.login, m.msg_text AS messages FROM MESSAGE m LEFT JOIN USR u ON u.user_id = m.sender_id WHERE m.chat_id = 0 AND m.msg_timestamp > '2013-12-25 00:00:00' AND m.msg_timestamp <= '2014-01-01 00:00:00' AND (m.msg_timestamp, m.msg_id) < ('2014-01-01 00:00:00', 100) ORDER BY m.msg_timestamp DESC, m.msg_id DESC LIMIT 11;
+EXPLAIN SELECT m.msg_timestamp, m.msg_id, u.login, m.msg_text AS messages FROM MESSAGE m LEFT JOIN USR u ON u.user_id = m.sender_id WHERE m.chat_id = 0 AND m.msg_timestamp <= '2013-12-25 00:00:00' ORDER BY m.msg_timestamp DESC, m.msg_id DESC LIMIT 11;
+
+\echo -- message feed (MessageFeed.java)
+EXPLAIN SELECT m.msg_timestamp, m.msg_id, u.login, m.msg_text FROM MESSAGE m LEFT JOIN USR u ON u.user_id = m.sender_id WHERE m.chat_id = 0 AND m.msg_timestamp BETWEEN '2014-01-01 00:00:00' AND '2014-01-01 00:00:05' AND m.msg_id = ANY ('{100,101}');
+
+\echo -- message search, first and later pages
+EXPLAIN SELECT page.chat_id, page.msg_id, u.login, page.msg_timestamp, page.msg_text, page.rank, page.found > 1000 FROM (SELECT * FROM (SELECT c.chat_id, c.msg_id, c.sender_id, c.msg_timestamp, c.msg_text, CAST(ts_rank(to_tsvector('english', c.msg_text), q) AS float8) AS rank, row_number() OVER (ORDER BY c.msg_timestamp DESC, c.msg_id DESC) AS pos, COUNT(*) OVER () AS found FROM plainto_tsquery('english', 'hello world') q, LATERAL (SELECT m.chat_id, m.msg_id, m.sender_id, m.msg_timestamp, m.msg_text FROM MESSAGE m WHERE to_tsvector('english', m.msg_text) @@ q AND m.chat_id = ANY (ARRAY(SELECT chat_id FROM CHAT_LIST WHERE member_id = 7144)) ORDER BY m.msg_timestamp DESC, m.msg_id DESC LIMIT 1001) c) hits WHERE pos <= 1000 AND (rank, msg_id) < (1.7976931348623157E308, 2147483647) ORDER BY rank DESC, msg_id DESC LIMIT 11) page LEFT JOIN USR u ON u.user_id = page.sender_id ORDER BY page.rank DESC, page.msg_id DESC;
+EXPLAIN SELECT page.chat_id, page.msg_id, u.login, page.msg_timestamp, page.msg_text, page.rank, page.found > 1000 FROM (SELECT * FROM (SELECT c.chat_id, c.msg_id, c.sender_id, c.msg_timestamp, c.msg_text, CAST(ts_rank(to_tsvector('english', c.msg_text), q) AS float8) AS rank, row_number() OVER (ORDER BY c.msg_timestamp DESC, c.msg_id DESC) AS pos, COUNT(*) OVER () AS found FROM plainto_tsquery('english', 'hello world') q, LATERAL (SELECT m.chat_id, m.msg_id, m.sender_id, m.msg_timestamp, m.msg_text FROM MESSAGE m WHERE to_tsvector('english', m.msg_text) @@ q AND m.chat_id = ANY (ARRAY(SELECT chat_id FROM CHAT_LIST WHERE member_id = 7144)) ORDER BY m.msg_timestamp DESC, m.msg_id DESC LIMIT 1001) c) hits WHERE pos <= 1000 AND (rank, msg_id) < (0.0607927, 100) ORDER BY rank DESC, msg_id DESC LIMIT 11) page LEFT JOIN USR u ON u.user_id = page.sender_id ORDER BY page.rank DESC, page.msg_id DESC;
+
+\echo -- message lookups
+EXPLAIN SELECT EXISTS (SELECT 1 FROM MESSAGE WHERE msg_id = 1), EXISTS (SELECT 1 FROM MESSAGE WHERE msg_id = 1 AND sender_id = 7144);
+EXPLAIN UPDATE MESSAGE SET msg_text = 'edited' WHERE msg_id = 1;
+EXPLAIN UPDATE MESSAGE SET msg_text = 'edited' WHERE msg_id = 1 AND sender_id = 7144;
+EXPLAIN DELETE FROM MESSAGE WHERE msg_id = 1 AND sender_id = 7144;
+
+\echo -- delete chat (statements of delete_chat() in functions.sql)
+EXPLAIN SELECT 1 FROM CHAT WHERE chat_id = 0 AND init_sender_id = 7144 FOR UPDATE;
+EXPLAIN DELETE FROM CHAT_SUMMARY WHERE chat_id = 0;
+EXPLAIN DELETE FROM MESSAGE WHERE chat_id = 0;
+EXPLAIN DELETE FROM CHAT_LIST WHERE chat_id = 0;
+EXPLAIN DELETE FROM CHAT WHERE chat_id = 0;
+EXPLAIN UPDATE CHAT SET chat_type = 'group' WHERE chat_id = 0;
+
+\echo -- delete account (statements of delete_account() in functions.sql)
+EXPLAIN DELETE FROM CHAT_LIST WHERE member_id = 1;
+EXPLAIN DELETE FROM USER_LIST_CONTAINS WHERE list_id IN (SELECT block_list FROM USR WHERE user_id = 1 UNION SELECT contact_list FROM USR WHERE user_id = 1);
+EXPLAIN DELETE FROM USR WHERE user_id = 1;
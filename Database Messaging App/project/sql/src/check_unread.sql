@@ -0,0 +1,31 @@
+-- Checks the invariant that the triggers of triggers.sql and mark_read() in
+-- functions.sql keep: a member's unread count is the number of messages
+-- sent by others after the member's read cursor. Warns about the first
+-- mismatches and fails if there is any. Run it on a quiet database: a
+-- message committed into a page while it is being read stays counted until
+-- the member reads to the end of the chat (see mark_read()).
+DO $$
+DECLARE
+	r record;
+	n integer := 0;
+BEGIN
+	FOR r IN
+		SELECT l.chat_id, l.member_id, l.unread, c.actual
+		FROM CHAT_LIST l,
+		     LATERAL (SELECT COUNT(*) AS actual FROM MESSAGE m
+		              WHERE m.chat_id = l.chat_id AND m.sender_id IS DISTINCT FROM l.member_id
+		                AND (m.msg_timestamp, m.msg_id) > (l.last_read_ts, l.last_read_id)) c
+		WHERE l.unread <> c.actual
+		ORDER BY l.chat_id, l.member_id
+	LOOP
+		n := n + 1;
+		IF n <= 10 THEN
+			RAISE WARNING 'chat % member %: unread is % but % messages follow the read cursor',
+				r.chat_id, r.member_id, r.unread, r.actual;
+		END IF;
+	END LOOP;
+	IF n > 0 THEN
+		RAISE EXCEPTION '% unread counters differ from the messages after the read cursor', n;
+	END IF;
+END;
+$$;
@@ -0,0 +1,40 @@
+-- Secondary indexes for the query templates in java/src/Messenger.java.
+-- Primary keys and unique constraints already cover lookups by
+-- USR.user_id, USR.login, CHAT.chat_id, MESSAGE.msg_id,
+-- CHAT_LIST(chat_id, member_id) and USER_LIST_CONTAINS(list_id,
+-- member_id). Indexes on MESSAGE are created on each of its partitions.
+-- Run scripts/check_plans.sh after loading data to verify that no
+-- template falls back to a sequential scan.
+
+-- BrowseChats, DeleteAccount: CHAT_LIST WHERE member_id = ?
+-- (covering, so the chat ids come straight from the index)
+CREATE INDEX chat_list_member_idx ON CHAT_LIST(member_id, chat_id);
+
+-- unread chats at log in: CHAT_LIST WHERE member_id = ? AND unread > 0
+-- (partial, so it only holds the rows with something to read)
+CREATE INDEX chat_list_unread_idx ON CHAT_LIST(member_id, chat_id) WHERE unread > 0;
+
+-- BrowseMessages, DeleteChat: MESSAGE WHERE chat_id = ? ORDER BY msg_timestamp DESC, msg_id DESC
+-- (scanned backwards for the newest-first keyset pages)
+CREATE INDEX message_chat_time_idx ON MESSAGE(chat_id, msg_timestamp, msg_id);
+
+-- SearchMessages: MESSAGE WHERE to_tsvector('english', msg_text) @@ plainto_tsquery('english', ?)
+-- (expression index, so MESSAGE needs no extra column or trigger; the
+-- query must spell the expression exactly like this to use it)
+CREATE INDEX message_text_fts_idx ON MESSAGE USING gin (to_tsvector('english', msg_text));
+
+-- EditMessage, DeleteMessage: MESSAGE WHERE sender_id = ?
+-- (also used by the USR foreign key check when an account is deleted)
+CREATE INDEX message_sender_idx ON MESSAGE(sender_id);
+
+-- DeleteAccount: the ON DELETE CASCADE from USR to USER_LIST_CONTAINS
+-- WHERE member_id = ?, which removes the user from everyone's lists
+CREATE INDEX user_list_contains_member_idx ON USER_LIST_CONTAINS(member_id, list_id);
+
+-- the USR foreign keys to USER_LIST: a list is only deleted once no USR
+-- row names it, which these look up
+CREATE INDEX usr_block_list_idx ON USR(block_list);
+CREATE INDEX usr_contact_list_idx ON USR(contact_list);
+
+-- DeleteAccount, DeleteChat: CHAT WHERE init_sender_id = ?
+CREATE INDEX chat_init_sender_idx ON CHAT(init_sender_id);
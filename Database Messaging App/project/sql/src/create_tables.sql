@@ -1,55 +1,93 @@
-DROP TABLE MESSAGE;
-DROP TABLE CHAT_LIST;
-DROP TABLE CHAT;
-DROP TABLE USER_LIST_CONTAINS;
-DROP TABLE USR;
-DROP TABLE USER_LIST;
-
-CREATE TABLE USER_LIST(
-	list_id serial,
-	list_type char(10) NOT NULL, 
-	PRIMARY KEY(list_id));
-
-CREATE TABLE USR(
-	login char(50), 
-	phoneNum CHAR(16) UNIQUE NOT NULL, 
-	password char(50) NOT NULL,
-	status char(140),
-	block_list integer,
-	contact_list integer,
-	Primary Key(login),
-	FOREIGN KEY(block_list) REFERENCES USER_LIST(list_id),
-	FOREIGN KEY(contact_list) REFERENCES USER_LIST(list_id));
-
-CREATE TABLE USER_LIST_CONTAINS(
-	list_id integer,
-	list_member char(50),
-	PRIMARY KEY(list_id,list_member), 
-	FOREIGN KEY(list_id) REFERENCES USER_LIST(list_id) ON DELETE CASCADE,
-	FOREIGN KEY(list_member) REFERENCES USR(login) ON DELETE CASCADE);
-
-CREATE TABLE CHAT(
-	chat_id serial, 
-	chat_type char(50) NOT NULL,
-	init_sender char(50),
-	PRIMARY KEY(chat_id), 
-	FOREIGN KEY(init_sender) REFERENCES USR(login));
-
-CREATE TABLE CHAT_LIST(
-	chat_id integer, 
-	member char(50),
-	PRIMARY KEY(chat_id,member), 
-	FOREIGN KEY(member) REFERENCES USR(login), 
-	FOREIGN KEY(chat_id) REFERENCES CHAT(chat_id));
-
-CREATE TABLE MESSAGE(
-	msg_id serial, 
-	msg_text char(300) NOT NULL, 
-	msg_timestamp timestamp NOT NULL,
-		sender_login char(50),
-	chat_id integer,
-	PRIMARY KEY(msg_id), 
-	FOREIGN KEY(sender_login) REFERENCES USR(login),
-	FOREIGN KEY(chat_id) REFERENCES CHAT(chat_id));
-
-
+-- MESSAGE is partitioned with a default partition, which needs PostgreSQL
+-- 12 or later; fail before dropping anything on an older server.
+DO $$
+BEGIN
+	IF current_setting('server_version_num')::integer < 120000 THEN
+		RAISE EXCEPTION 'PostgreSQL 12 or later is required, this is %', version();
+	END IF;
+END;
+$$;
+
+DROP TABLE IF EXISTS CHAT_SUMMARY;
+DROP TABLE IF EXISTS MESSAGE;
+DROP TABLE IF EXISTS CHAT_LIST;
+DROP TABLE IF EXISTS CHAT;
+DROP TABLE IF EXISTS USER_LIST_CONTAINS;
+DROP TABLE IF EXISTS USR;
+DROP TABLE IF EXISTS USER_LIST;
+
+-- Schema v2: users are referenced by the integer user_id instead of their
+-- login, and text columns are varchar, so rows carry no blank padding and
+-- joins compare integers. scripts/migrate_v2.sh converts a v1 database.
+
+CREATE TABLE USER_LIST(
+	list_id serial,
+	list_type varchar(10) NOT NULL,
+	PRIMARY KEY(list_id));
+
+CREATE TABLE USR(
+	user_id serial,
+	login varchar(50) UNIQUE NOT NULL,
+	phoneNum varchar(16) UNIQUE NOT NULL,
+	password varchar(50) NOT NULL,
+	status varchar(140),
+	block_list integer,
+	contact_list integer,
+	PRIMARY KEY(user_id),
+	FOREIGN KEY(block_list) REFERENCES USER_LIST(list_id),
+	FOREIGN KEY(contact_list) REFERENCES USER_LIST(list_id));
+
+CREATE TABLE USER_LIST_CONTAINS(
+	list_id integer,
+	member_id integer,
+	PRIMARY KEY(list_id,member_id),
+	FOREIGN KEY(list_id) REFERENCES USER_LIST(list_id) ON DELETE CASCADE,
+	FOREIGN KEY(member_id) REFERENCES USR(user_id) ON DELETE CASCADE);
+
+CREATE TABLE CHAT(
+	chat_id serial,
+	chat_type varchar(10) NOT NULL,
+	init_sender_id integer,
+	PRIMARY KEY(chat_id),
+	FOREIGN KEY(init_sender_id) REFERENCES USR(user_id));
+
+CREATE TABLE CHAT_LIST(
+	chat_id integer,
+	member_id integer,
+	last_read_ts timestamp NOT NULL DEFAULT 'epoch',
+	last_read_id integer NOT NULL DEFAULT 0,
+	unread integer NOT NULL DEFAULT 0,
+	PRIMARY KEY(chat_id,member_id),
+	FOREIGN KEY(member_id) REFERENCES USR(user_id),
+	FOREIGN KEY(chat_id) REFERENCES CHAT(chat_id));
+
+-- Partitioned by month of msg_timestamp, so that reads of recent history
+-- only scan the newest partitions and expired months are dropped whole
+-- (see partitions.sql; requires PostgreSQL 12 or later). The primary key
+-- has to include the partition key; msg_id alone comes from the sequence.
+-- Messages of a month without a partition go to message_default until
+-- ensure_message_partitions creates it.
+CREATE TABLE MESSAGE(
+	msg_id serial,
+	msg_text varchar(300) NOT NULL,
+	msg_timestamp timestamp NOT NULL,
+	sender_id integer,
+	chat_id integer,
+	PRIMARY KEY(msg_id,msg_timestamp),
+	FOREIGN KEY(sender_id) REFERENCES USR(user_id),
+	FOREIGN KEY(chat_id) REFERENCES CHAT(chat_id))
+	PARTITION BY RANGE (msg_timestamp);
+
+CREATE TABLE message_default PARTITION OF MESSAGE DEFAULT;
+
+-- one row per chat, maintained by the triggers of triggers.sql
+CREATE TABLE CHAT_SUMMARY(
+	chat_id integer,
+	last_msg_id integer,
+	last_msg_ts timestamp,
+	last_sender_id integer,
+	last_text varchar(300),
+	msg_count integer NOT NULL DEFAULT 0,
+	member_count integer NOT NULL DEFAULT 0,
+	PRIMARY KEY(chat_id),
+	FOREIGN KEY(chat_id) REFERENCES CHAT(chat_id) ON DELETE CASCADE);
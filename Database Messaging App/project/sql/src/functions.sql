@@ -0,0 +1,115 @@
+-- Server-side functions for the Messenger actions that change several
+-- tables. Each one runs as a single statement, so the action costs one
+-- round trip and is atomic. They return the name of a Messenger.Status
+-- value. Users are passed by user_id, except where a login typed by the
+-- user is looked up. Requires PL/pgSQL (installed by default since
+-- PostgreSQL 9.0).
+
+-- Creates a user with empty block and contact lists.
+CREATE OR REPLACE FUNCTION create_user(p_login text, p_password text, p_phone text)
+RETURNS text AS $$
+DECLARE
+	v_block integer;
+	v_contact integer;
+BEGIN
+	IF EXISTS (SELECT 1 FROM USR WHERE login = p_login) THEN
+		RETURN 'TAKEN';
+	END IF;
+	INSERT INTO USER_LIST(list_type) VALUES ('block') RETURNING list_id INTO v_block;
+	INSERT INTO USER_LIST(list_type) VALUES ('contact') RETURNING list_id INTO v_contact;
+	INSERT INTO USR(phoneNum, login, password, block_list, contact_list)
+		VALUES (p_phone, p_login, p_password, v_block, v_contact);
+	RETURN 'OK';
+EXCEPTION WHEN unique_violation THEN
+	-- the login was taken concurrently; a duplicate phone number is an error
+	IF EXISTS (SELECT 1 FROM USR WHERE login = p_login) THEN
+		RETURN 'TAKEN';
+	END IF;
+	RAISE;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Moves a user to a block list, removing them from the contact list.
+CREATE OR REPLACE FUNCTION block_user(p_block_list integer, p_contact_list integer, p_member text)
+RETURNS text AS $$
+DECLARE
+	v_member integer;
+BEGIN
+	SELECT user_id INTO v_member FROM USR WHERE login = p_member;
+	IF NOT FOUND THEN
+		RETURN 'USER_NOT_FOUND';
+	END IF;
+	DELETE FROM USER_LIST_CONTAINS WHERE list_id = p_contact_list AND member_id = v_member;
+	INSERT INTO USER_LIST_CONTAINS(list_id, member_id) VALUES (p_block_list, v_member);
+	RETURN 'OK';
+END;
+$$ LANGUAGE plpgsql;
+
+-- Starts a chat ('private' or 'group') with its initial sender as the
+-- first member.
+CREATE OR REPLACE FUNCTION create_chat(p_user integer, p_type text)
+RETURNS integer AS $$
+DECLARE
+	v_chat integer;
+BEGIN
+	INSERT INTO CHAT(chat_type, init_sender_id) VALUES (p_type, p_user) RETURNING chat_id INTO v_chat;
+	INSERT INTO CHAT_LIST(chat_id, member_id) VALUES (v_chat, p_user);
+	RETURN v_chat;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Deletes a chat started by p_user, with its members and messages.
+CREATE OR REPLACE FUNCTION delete_chat(p_chat_id integer, p_user integer)
+RETURNS text AS $$
+BEGIN
+	PERFORM 1 FROM CHAT WHERE chat_id = p_chat_id AND init_sender_id = p_user FOR UPDATE;
+	IF NOT FOUND THEN
+		RETURN 'NOT_OWNER';
+	END IF;
+	-- summary and members first, so the triggers find nothing to update
+	DELETE FROM CHAT_SUMMARY WHERE chat_id = p_chat_id;
+	DELETE FROM CHAT_LIST WHERE chat_id = p_chat_id;
+	DELETE FROM MESSAGE WHERE chat_id = p_chat_id;
+	DELETE FROM CHAT WHERE chat_id = p_chat_id;
+	RETURN 'OK';
+END;
+$$ LANGUAGE plpgsql;
+
+-- Moves a member's read cursor from the message the caller read it at to
+-- a later one, and counts off p_read, the messages of others between the
+-- two that the caller has just shown, so that nothing is counted here. At
+-- the chat's last message nothing is left unread, which also clears a
+-- message committed into the shown range after the caller read it. Does
+-- nothing if the cursor moved since the caller read it.
+DROP FUNCTION IF EXISTS mark_read(integer, integer, timestamp, integer);
+CREATE OR REPLACE FUNCTION mark_read(p_chat_id integer, p_user integer, p_from_ts timestamp, p_from_id integer,
+                                     p_ts timestamp, p_id integer, p_read integer)
+RETURNS void AS $$
+BEGIN
+	UPDATE CHAT_LIST SET last_read_ts = p_ts, last_read_id = p_id,
+		unread = CASE
+			WHEN (SELECT (last_msg_ts, last_msg_id) <= (p_ts, p_id) FROM CHAT_SUMMARY
+			      WHERE chat_id = p_chat_id) THEN 0
+			ELSE GREATEST(unread - p_read, 0)
+		END
+	WHERE chat_id = p_chat_id AND member_id = p_user
+	  AND (last_read_ts, last_read_id) = (p_from_ts, p_from_id)
+	  AND (last_read_ts, last_read_id) < (p_ts, p_id);
+END;
+$$ LANGUAGE plpgsql;
+
+-- Deletes an account that no longer owns any chat.
+CREATE OR REPLACE FUNCTION delete_account(p_user integer)
+RETURNS text AS $$
+BEGIN
+	IF EXISTS (SELECT 1 FROM CHAT WHERE init_sender_id = p_user) THEN
+		RETURN 'HAS_CHATS';
+	END IF;
+	DELETE FROM CHAT_LIST WHERE member_id = p_user;
+	DELETE FROM USER_LIST_CONTAINS WHERE list_id IN
+		(SELECT block_list FROM USR WHERE user_id = p_user
+		 UNION SELECT contact_list FROM USR WHERE user_id = p_user);
+	DELETE FROM USR WHERE user_id = p_user;
+	RETURN 'OK';
+END;
+$$ LANGUAGE plpgsql;
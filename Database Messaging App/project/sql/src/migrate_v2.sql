@@ -0,0 +1,231 @@
+-- Step 1 of scripts/migrate_v2.sh, run from sql/src on a v1 database.
+-- Creates the tables of create_tables.sql in the schema v2, next to the
+-- v1 tables in public, and installs triggers that repeat every change
+-- made to a v1 table in v2. The application keeps running on v1 while
+-- SchemaMigrator copies the existing rows; swap_v2.sql then replaces the
+-- v1 tables.
+--
+-- A mirrored row may reference a user, list or chat that has not been
+-- copied yet, so the v2_* functions copy such parents on demand. Rows are
+-- read FOR SHARE, so that a concurrent change to a row being copied waits
+-- for the copy and is then applied to it.
+BEGIN;
+
+DROP TRIGGER IF EXISTS mirror_v2 ON USER_LIST;
+DROP TRIGGER IF EXISTS mirror_v2 ON USR;
+DROP TRIGGER IF EXISTS mirror_v2 ON USER_LIST_CONTAINS;
+DROP TRIGGER IF EXISTS mirror_v2 ON CHAT;
+DROP TRIGGER IF EXISTS mirror_v2 ON CHAT_LIST;
+DROP TRIGGER IF EXISTS mirror_v2 ON MESSAGE;
+DROP TRIGGER IF EXISTS mirror_v2 ON CHAT_SUMMARY;
+DROP SCHEMA IF EXISTS v2 CASCADE;
+
+CREATE SCHEMA v2;
+SET search_path = v2;
+\i create_tables.sql
+\i create_indexes.sql
+SET search_path = public;
+
+-- the partitions of v2.MESSAGE for every month of v1 messages, so that
+-- the copy does not fill v2.message_default
+\i partitions.sql
+SET search_path = v2, public;
+SELECT ensure_message_partitions(3, (SELECT MIN(msg_timestamp) FROM public.MESSAGE)::date);
+SET search_path = public;
+
+-- Copies a user list into v2 unless it is there already.
+CREATE OR REPLACE FUNCTION v2_list(p_list integer)
+RETURNS integer AS $$
+BEGIN
+	IF p_list IS NOT NULL AND NOT EXISTS (SELECT 1 FROM v2.USER_LIST WHERE list_id = p_list) THEN
+		BEGIN
+			INSERT INTO v2.USER_LIST(list_id, list_type)
+				SELECT list_id, rtrim(list_type)
+				FROM (SELECT * FROM public.USER_LIST WHERE list_id = p_list FOR SHARE) l;
+		EXCEPTION WHEN unique_violation THEN
+			-- copied concurrently
+		END;
+	END IF;
+	RETURN p_list;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Returns the v2 user_id of a v1 login, copying the user first if needed.
+CREATE OR REPLACE FUNCTION v2_user_id(p_login bpchar)
+RETURNS integer AS $$
+DECLARE
+	v_id integer;
+BEGIN
+	IF p_login IS NULL THEN
+		RETURN NULL;
+	END IF;
+	SELECT user_id INTO v_id FROM v2.USR WHERE login = rtrim(p_login);
+	IF NOT FOUND THEN
+		BEGIN
+			INSERT INTO v2.USR(login, phoneNum, password, status, block_list, contact_list)
+				SELECT rtrim(login), rtrim(phoneNum), rtrim(password), rtrim(status),
+				       v2_list(block_list), v2_list(contact_list)
+				FROM (SELECT * FROM public.USR WHERE login = p_login FOR SHARE) u
+				RETURNING user_id INTO v_id;
+		EXCEPTION WHEN unique_violation THEN
+			SELECT user_id INTO v_id FROM v2.USR WHERE login = rtrim(p_login);
+		END;
+	END IF;
+	RETURN v_id;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Copies a chat into v2 unless it is there already.
+CREATE OR REPLACE FUNCTION v2_chat(p_chat integer)
+RETURNS integer AS $$
+BEGIN
+	IF p_chat IS NOT NULL AND NOT EXISTS (SELECT 1 FROM v2.CHAT WHERE chat_id = p_chat) THEN
+		BEGIN
+			INSERT INTO v2.CHAT(chat_id, chat_type, init_sender_id)
+				SELECT chat_id, rtrim(chat_type), v2_user_id(init_sender)
+				FROM (SELECT * FROM public.CHAT WHERE chat_id = p_chat FOR SHARE) c;
+		EXCEPTION WHEN unique_violation THEN
+			-- copied concurrently
+		END;
+	END IF;
+	RETURN p_chat;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION mirror_user_list()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		PERFORM v2_list(NEW.list_id);
+	ELSIF TG_OP = 'UPDATE' THEN
+		UPDATE v2.USER_LIST SET list_id = NEW.list_id, list_type = rtrim(NEW.list_type)
+		WHERE list_id = OLD.list_id;
+	ELSE
+		DELETE FROM v2.USER_LIST WHERE list_id = OLD.list_id;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION mirror_usr()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		PERFORM v2_user_id(NEW.login);
+	ELSIF TG_OP = 'UPDATE' THEN
+		UPDATE v2.USR SET login = rtrim(NEW.login), phoneNum = rtrim(NEW.phoneNum),
+			password = rtrim(NEW.password), status = rtrim(NEW.status),
+			block_list = v2_list(NEW.block_list), contact_list = v2_list(NEW.contact_list)
+		WHERE login = rtrim(OLD.login);
+	ELSE
+		DELETE FROM v2.USR WHERE login = rtrim(OLD.login);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION mirror_user_list_contains()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP <> 'INSERT' THEN
+		DELETE FROM v2.USER_LIST_CONTAINS WHERE list_id = OLD.list_id
+		   AND member_id = (SELECT user_id FROM v2.USR WHERE login = rtrim(OLD.list_member));
+	END IF;
+	IF TG_OP <> 'DELETE' THEN
+		INSERT INTO v2.USER_LIST_CONTAINS(list_id, member_id)
+			VALUES (v2_list(NEW.list_id), v2_user_id(NEW.list_member));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION mirror_chat()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		PERFORM v2_chat(NEW.chat_id);
+	ELSIF TG_OP = 'UPDATE' THEN
+		UPDATE v2.CHAT SET chat_id = NEW.chat_id, chat_type = rtrim(NEW.chat_type),
+			init_sender_id = v2_user_id(NEW.init_sender)
+		WHERE chat_id = OLD.chat_id;
+	ELSE
+		DELETE FROM v2.CHAT WHERE chat_id = OLD.chat_id;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION mirror_chat_list()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO v2.CHAT_LIST(chat_id, member_id, last_read_ts, last_read_id, unread)
+			VALUES (v2_chat(NEW.chat_id), v2_user_id(NEW.member),
+			        NEW.last_read_ts, NEW.last_read_id, NEW.unread);
+	ELSIF TG_OP = 'UPDATE' THEN
+		UPDATE v2.CHAT_LIST SET chat_id = v2_chat(NEW.chat_id), member_id = v2_user_id(NEW.member),
+			last_read_ts = NEW.last_read_ts, last_read_id = NEW.last_read_id, unread = NEW.unread
+		WHERE chat_id = OLD.chat_id
+		  AND member_id = (SELECT user_id FROM v2.USR WHERE login = rtrim(OLD.member));
+	ELSE
+		DELETE FROM v2.CHAT_LIST WHERE chat_id = OLD.chat_id
+		   AND member_id = (SELECT user_id FROM v2.USR WHERE login = rtrim(OLD.member));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION mirror_message()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO v2.MESSAGE(msg_id, msg_text, msg_timestamp, sender_id, chat_id)
+			VALUES (NEW.msg_id, rtrim(NEW.msg_text), NEW.msg_timestamp,
+			        v2_user_id(NEW.sender_login), v2_chat(NEW.chat_id));
+	ELSIF TG_OP = 'UPDATE' THEN
+		UPDATE v2.MESSAGE SET msg_id = NEW.msg_id, msg_text = rtrim(NEW.msg_text),
+			msg_timestamp = NEW.msg_timestamp, sender_id = v2_user_id(NEW.sender_login),
+			chat_id = v2_chat(NEW.chat_id)
+		WHERE msg_id = OLD.msg_id;
+	ELSE
+		DELETE FROM v2.MESSAGE WHERE msg_id = OLD.msg_id;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION mirror_chat_summary()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO v2.CHAT_SUMMARY(chat_id, last_msg_id, last_msg_ts, last_sender_id, last_text, msg_count, member_count)
+			VALUES (v2_chat(NEW.chat_id), NEW.last_msg_id, NEW.last_msg_ts, v2_user_id(NEW.last_sender),
+			        rtrim(NEW.last_text), NEW.msg_count, NEW.member_count);
+	ELSIF TG_OP = 'UPDATE' THEN
+		UPDATE v2.CHAT_SUMMARY SET chat_id = v2_chat(NEW.chat_id), last_msg_id = NEW.last_msg_id,
+			last_msg_ts = NEW.last_msg_ts, last_sender_id = v2_user_id(NEW.last_sender),
+			last_text = rtrim(NEW.last_text), msg_count = NEW.msg_count, member_count = NEW.member_count
+		WHERE chat_id = OLD.chat_id;
+	ELSE
+		DELETE FROM v2.CHAT_SUMMARY WHERE chat_id = OLD.chat_id;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER mirror_v2 AFTER INSERT OR UPDATE OR DELETE ON USER_LIST
+	FOR EACH ROW EXECUTE PROCEDURE mirror_user_list();
+CREATE TRIGGER mirror_v2 AFTER INSERT OR UPDATE OR DELETE ON USR
+	FOR EACH ROW EXECUTE PROCEDURE mirror_usr();
+CREATE TRIGGER mirror_v2 AFTER INSERT OR UPDATE OR DELETE ON USER_LIST_CONTAINS
+	FOR EACH ROW EXECUTE PROCEDURE mirror_user_list_contains();
+CREATE TRIGGER mirror_v2 AFTER INSERT OR UPDATE OR DELETE ON CHAT
+	FOR EACH ROW EXECUTE PROCEDURE mirror_chat();
+CREATE TRIGGER mirror_v2 AFTER INSERT OR UPDATE OR DELETE ON CHAT_LIST
+	FOR EACH ROW EXECUTE PROCEDURE mirror_chat_list();
+CREATE TRIGGER mirror_v2 AFTER INSERT OR UPDATE OR DELETE ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE mirror_message();
+CREATE TRIGGER mirror_v2 AFTER INSERT OR UPDATE OR DELETE ON CHAT_SUMMARY
+	FOR EACH ROW EXECUTE PROCEDURE mirror_chat_summary();
+
+COMMIT;
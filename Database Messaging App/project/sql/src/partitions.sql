@@ -0,0 +1,97 @@
+-- Maintenance of the monthly range partitions of MESSAGE (see
+-- create_tables.sql). scripts/maintain_partitions.sh runs both functions
+-- from cron: ensure_message_partitions creates the partitions of the months
+-- ahead before any message needs them, and drop_message_partitions applies
+-- the retention policy by dropping whole months instead of deleting rows.
+-- Partitions are named message_YYYY_MM and created in the schema of
+-- MESSAGE found on the search_path. Requires PostgreSQL 12 or later.
+
+-- Creates the partition of MESSAGE for the month starting at p_month,
+-- unless it exists. Rows of that month that went to message_default,
+-- because their partition was missing, are moved into the new partition
+-- before it is attached; the message triggers do not fire for the move.
+CREATE OR REPLACE FUNCTION create_message_partition(p_month date)
+RETURNS boolean AS $$
+DECLARE
+	v_from date := date_trunc('month', p_month)::date;
+	v_to date := (date_trunc('month', p_month) + interval '1 month')::date;
+	v_name text := 'message_' || to_char(p_month, 'YYYY_MM');
+BEGIN
+	IF to_regclass(v_name) IS NOT NULL THEN
+		RETURN false;
+	END IF;
+	EXECUTE format('CREATE TABLE %I (LIKE message INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', v_name);
+	IF EXISTS (SELECT 1 FROM message_default WHERE msg_timestamp >= v_from AND msg_timestamp < v_to) THEN
+		ALTER TABLE message_default DISABLE TRIGGER USER;
+		EXECUTE format('WITH moved AS (DELETE FROM message_default WHERE msg_timestamp >= $1 AND msg_timestamp < $2 RETURNING *) '
+		               'INSERT INTO %I SELECT * FROM moved', v_name) USING v_from, v_to;
+		ALTER TABLE message_default ENABLE TRIGGER USER;
+	END IF;
+	-- indexes, foreign keys and triggers are copied from MESSAGE
+	EXECUTE format('ALTER TABLE message ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)', v_name, v_from, v_to);
+	RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Creates the partitions from the month of p_from (default: the current
+-- month) through p_ahead months after the current one, plus one for every
+-- month that has rows in message_default.
+-- @return the number of partitions created
+CREATE OR REPLACE FUNCTION ensure_message_partitions(p_ahead integer, p_from date DEFAULT NULL)
+RETURNS integer AS $$
+DECLARE
+	v_month date := date_trunc('month', LEAST(COALESCE(p_from, now()::date), now()::date))::date;
+	v_last date := (date_trunc('month', now()) + p_ahead * interval '1 month')::date;
+	v_created integer := 0;
+	r record;
+BEGIN
+	FOR r IN SELECT DISTINCT date_trunc('month', msg_timestamp)::date AS month FROM message_default LOOP
+		IF create_message_partition(r.month) THEN
+			v_created := v_created + 1;
+		END IF;
+	END LOOP;
+	WHILE v_month <= v_last LOOP
+		IF create_message_partition(v_month) THEN
+			v_created := v_created + 1;
+		END IF;
+		v_month := (v_month + interval '1 month')::date;
+	END LOOP;
+	RETURN v_created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Drops the partitions whose messages are all older than p_keep, oldest
+-- first. The unread counters and chat summaries that counted the dropped
+-- messages are corrected from the partition before it goes, in the same
+-- transaction; a chat whose last message is dropped has none left.
+-- @return the number of partitions dropped
+CREATE OR REPLACE FUNCTION drop_message_partitions(p_keep interval)
+RETURNS integer AS $$
+DECLARE
+	v_dropped integer := 0;
+	r record;
+BEGIN
+	FOR r IN SELECT c.oid::regclass AS part,
+	                (regexp_match(pg_get_expr(c.relpartbound, c.oid), 'TO \(''([^'']+)''\)'))[1]::timestamp AS upper_ts
+	         FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+	         WHERE i.inhparent = 'message'::regclass AND c.relname <> 'message_default'
+	         ORDER BY 2 LOOP
+		EXIT WHEN r.upper_ts > now() - p_keep;
+		-- no message of the partition changes while it is counted
+		EXECUTE format('LOCK TABLE %s IN SHARE MODE', r.part);
+		EXECUTE format('UPDATE CHAT_LIST l SET unread = GREATEST(l.unread - d.n, 0) '
+		               'FROM (SELECT c.chat_id, c.member_id, COUNT(*) AS n FROM CHAT_LIST c JOIN %s m ON m.chat_id = c.chat_id '
+		               '      WHERE m.sender_id IS DISTINCT FROM c.member_id AND (c.last_read_ts, c.last_read_id) < (m.msg_timestamp, m.msg_id) '
+		               '      GROUP BY c.chat_id, c.member_id) d '
+		               'WHERE l.chat_id = d.chat_id AND l.member_id = d.member_id AND l.unread > 0', r.part);
+		EXECUTE format('UPDATE CHAT_SUMMARY s SET msg_count = GREATEST(s.msg_count - d.n, 0) '
+		               'FROM (SELECT chat_id, COUNT(*) AS n FROM %s GROUP BY chat_id) d '
+		               'WHERE s.chat_id = d.chat_id', r.part);
+		UPDATE CHAT_SUMMARY SET last_msg_id = NULL, last_msg_ts = NULL, last_sender_id = NULL, last_text = NULL
+		WHERE last_msg_ts < r.upper_ts;
+		EXECUTE format('DROP TABLE %s', r.part);
+		v_dropped := v_dropped + 1;
+	END LOOP;
+	RETURN v_dropped;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,21 @@
+-- Run after the bulk load, before triggers.sql: the loaded history counts
+-- as read and the chat summaries are computed once, then the triggers keep
+-- them up to date.
+UPDATE CHAT_LIST SET
+	last_read_ts = COALESCE((SELECT msg_timestamp FROM MESSAGE m WHERE m.chat_id = CHAT_LIST.chat_id
+	                         ORDER BY msg_timestamp DESC, msg_id DESC LIMIT 1), 'epoch'),
+	last_read_id = COALESCE((SELECT msg_id FROM MESSAGE m WHERE m.chat_id = CHAT_LIST.chat_id
+	                         ORDER BY msg_timestamp DESC, msg_id DESC LIMIT 1), 0),
+	unread = 0;
+
+DELETE FROM CHAT_SUMMARY;
+INSERT INTO CHAT_SUMMARY(chat_id, member_count, msg_count)
+	SELECT chat_id,
+	       (SELECT COUNT(*) FROM CHAT_LIST l WHERE l.chat_id = CHAT.chat_id),
+	       (SELECT COUNT(*) FROM MESSAGE m WHERE m.chat_id = CHAT.chat_id)
+	FROM CHAT;
+UPDATE CHAT_SUMMARY SET last_msg_id = m.msg_id, last_msg_ts = m.msg_timestamp,
+	last_sender_id = m.sender_id, last_text = m.msg_text
+FROM (SELECT DISTINCT ON (chat_id) chat_id, msg_id, msg_timestamp, sender_id, msg_text
+      FROM MESSAGE ORDER BY chat_id, msg_timestamp DESC, msg_id DESC) m
+WHERE m.chat_id = CHAT_SUMMARY.chat_id;
@@ -0,0 +1,59 @@
+-- Step 3 of scripts/migrate_v2.sh, run from sql/src once SchemaMigrator
+-- has copied every row: replaces the v1 tables with their v2 copies in one
+-- transaction. The tables are locked only for the renames and the
+-- sequence updates; no row is copied or checked here.
+BEGIN;
+
+LOCK TABLE USER_LIST, USR, USER_LIST_CONTAINS, CHAT, CHAT_LIST, MESSAGE, CHAT_SUMMARY
+	IN ACCESS EXCLUSIVE MODE;
+
+-- the mirror triggers go with the v1 tables
+DROP TABLE CHAT_SUMMARY, MESSAGE, CHAT_LIST, CHAT, USER_LIST_CONTAINS, USR, USER_LIST;
+DROP FUNCTION mirror_user_list();
+DROP FUNCTION mirror_usr();
+DROP FUNCTION mirror_user_list_contains();
+DROP FUNCTION mirror_chat();
+DROP FUNCTION mirror_chat_list();
+DROP FUNCTION mirror_message();
+DROP FUNCTION mirror_chat_summary();
+DROP FUNCTION v2_chat(integer);
+DROP FUNCTION v2_user_id(bpchar);
+DROP FUNCTION v2_list(integer);
+
+-- indexes, constraints and serial sequences move with their tables and
+-- keep the names create_tables.sql gives them
+ALTER TABLE v2.USER_LIST SET SCHEMA public;
+ALTER TABLE v2.USR SET SCHEMA public;
+ALTER TABLE v2.USER_LIST_CONTAINS SET SCHEMA public;
+ALTER TABLE v2.CHAT SET SCHEMA public;
+ALTER TABLE v2.CHAT_LIST SET SCHEMA public;
+ALTER TABLE v2.MESSAGE SET SCHEMA public;
+ALTER TABLE v2.CHAT_SUMMARY SET SCHEMA public;
+-- the partitions of MESSAGE are tables of their own
+DO $$
+DECLARE
+	r record;
+BEGIN
+	FOR r IN SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+	         WHERE i.inhparent = 'public.message'::regclass LOOP
+		EXECUTE format('ALTER TABLE v2.%I SET SCHEMA public', r.relname);
+	END LOOP;
+END $$;
+DROP SCHEMA v2;
+
+-- list, chat and message IDs were copied from v1
+SELECT setval('user_list_list_id_seq', COALESCE((SELECT MAX(list_id) FROM USER_LIST), 0) + 1, false);
+SELECT setval('chat_chat_id_seq', COALESCE((SELECT MAX(chat_id) FROM CHAT), 0) + 1, false);
+SELECT setval('message_msg_id_seq', COALESCE((SELECT MAX(msg_id) FROM MESSAGE), 0) + 1, false);
+
+-- the functions that took logins now take user IDs
+DROP FUNCTION create_chat(text, text);
+DROP FUNCTION delete_chat(integer, text);
+DROP FUNCTION mark_read(integer, text, timestamp, integer);
+DROP FUNCTION delete_account(text);
+\i functions.sql
+\i triggers.sql
+
+COMMIT;
+
+ANALYZE;
@@ -1 +1,114 @@
+-- Triggers that keep the unread counters, the chat summaries and the feed
+-- up to date. Created after the bulk load and summaries.sql, so that
+-- loading does not fire them.
 
+-- Announces every new message on the channel chat_<chat_id>, so that
+-- sessions LISTENing on their chats (see java/src/MessageFeed.java) can
+-- read the new rows instead of polling the chat. The payload is the key
+-- of the message, '<msg_id> <msg_timestamp>'. Notifications are sent when
+-- the inserting transaction commits, in commit order.
+CREATE OR REPLACE FUNCTION notify_new_message()
+RETURNS trigger AS $$
+BEGIN
+	PERFORM pg_notify('chat_' || NEW.chat_id,
+		NEW.msg_id || ' ' || to_char(NEW.msg_timestamp, 'YYYY-MM-DD HH24:MI:SS.US'));
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS message_notify ON MESSAGE;
+CREATE TRIGGER message_notify AFTER INSERT ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE notify_new_message();
+
+-- Counts a new message as unread for every other member of the chat, and
+-- takes a deleted one back off for the members that had not read it.
+CREATE OR REPLACE FUNCTION count_unread()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		UPDATE CHAT_LIST SET unread = unread + 1
+		WHERE chat_id = NEW.chat_id AND member_id IS DISTINCT FROM NEW.sender_id
+		  AND (last_read_ts, last_read_id) < (NEW.msg_timestamp, NEW.msg_id);
+	ELSE
+		UPDATE CHAT_LIST SET unread = unread - 1
+		WHERE chat_id = OLD.chat_id AND member_id IS DISTINCT FROM OLD.sender_id AND unread > 0
+		  AND (last_read_ts, last_read_id) < (OLD.msg_timestamp, OLD.msg_id);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS message_unread ON MESSAGE;
+CREATE TRIGGER message_unread AFTER INSERT OR DELETE ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE count_unread();
+
+-- Creates the summary row of a new chat.
+CREATE OR REPLACE FUNCTION summarize_chat()
+RETURNS trigger AS $$
+BEGIN
+	INSERT INTO CHAT_SUMMARY(chat_id) VALUES (NEW.chat_id);
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS chat_summary ON CHAT;
+CREATE TRIGGER chat_summary AFTER INSERT ON CHAT
+	FOR EACH ROW EXECUTE PROCEDURE summarize_chat();
+
+-- Keeps a chat's member count.
+CREATE OR REPLACE FUNCTION summarize_member()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		UPDATE CHAT_SUMMARY SET member_count = member_count + 1 WHERE chat_id = NEW.chat_id;
+	ELSE
+		UPDATE CHAT_SUMMARY SET member_count = member_count - 1 WHERE chat_id = OLD.chat_id;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS chat_list_summary ON CHAT_LIST;
+CREATE TRIGGER chat_list_summary AFTER INSERT OR DELETE ON CHAT_LIST
+	FOR EACH ROW EXECUTE PROCEDURE summarize_member();
+
+-- Keeps a chat's message count and last message. Only deleting the last
+-- message reads MESSAGE, to find the one before it through the
+-- (chat_id, msg_timestamp, msg_id) index.
+CREATE OR REPLACE FUNCTION summarize_message()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		UPDATE CHAT_SUMMARY SET
+			msg_count = msg_count + 1,
+			last_msg_id = CASE WHEN last_msg_ts IS NULL OR (last_msg_ts, last_msg_id) < (NEW.msg_timestamp, NEW.msg_id)
+			                   THEN NEW.msg_id ELSE last_msg_id END,
+			last_sender_id = CASE WHEN last_msg_ts IS NULL OR (last_msg_ts, last_msg_id) < (NEW.msg_timestamp, NEW.msg_id)
+			                      THEN NEW.sender_id ELSE last_sender_id END,
+			last_text = CASE WHEN last_msg_ts IS NULL OR (last_msg_ts, last_msg_id) < (NEW.msg_timestamp, NEW.msg_id)
+			                 THEN NEW.msg_text ELSE last_text END,
+			last_msg_ts = CASE WHEN last_msg_ts IS NULL OR (last_msg_ts, last_msg_id) < (NEW.msg_timestamp, NEW.msg_id)
+			                   THEN NEW.msg_timestamp ELSE last_msg_ts END
+		WHERE chat_id = NEW.chat_id;
+	ELSIF TG_OP = 'UPDATE' THEN
+		UPDATE CHAT_SUMMARY SET last_text = NEW.msg_text
+		WHERE chat_id = NEW.chat_id AND last_msg_id = NEW.msg_id;
+	ELSE
+		UPDATE CHAT_SUMMARY SET msg_count = msg_count - 1 WHERE chat_id = OLD.chat_id AND last_msg_id <> OLD.msg_id;
+		IF NOT FOUND THEN
+			UPDATE CHAT_SUMMARY SET msg_count = msg_count - 1,
+				last_msg_id = m.msg_id, last_msg_ts = m.msg_timestamp,
+				last_sender_id = m.sender_id, last_text = m.msg_text
+			FROM (SELECT 1) one LEFT JOIN
+			     (SELECT msg_id, msg_timestamp, sender_id, msg_text FROM MESSAGE
+			      WHERE chat_id = OLD.chat_id ORDER BY msg_timestamp DESC, msg_id DESC LIMIT 1) m ON true
+			WHERE chat_id = OLD.chat_id;
+		END IF;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS message_summary ON MESSAGE;
+CREATE TRIGGER message_summary AFTER INSERT OR UPDATE OR DELETE ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE summarize_message();